@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2015 Joshua Gwinn (jdgbolt@gmail.com)
+ */
+
+package com.example.judge.popularmovies.adap;
+
+import android.database.MatrixCursor;
+import android.os.Debug;
+import android.test.ActivityInstrumentationTestCase2;
+import android.test.UiThreadTest;
+import android.util.Log;
+import android.widget.FrameLayout;
+
+import com.example.judge.popularmovies.act.MainActivity;
+import com.example.judge.popularmovies.data.MovieContract;
+import com.example.judge.popularmovies.data.MovieContract.MovieEntry;
+
+/**
+ * Benchmark of the binding of the poster grid, this scrolls a 500 row grid through a handful of view holders
+ * the same way as the recycler does, counting the allocations made while binding. The lookups of the id, poster
+ * url and title that the bind does from the snapshot of the rows must not allocate anything, and the whole bind has to
+ * stay within a few allocations per row, which are logged along with the time per bind. The view holders are never
+ * laid out, so the image views only take the url and leave the load to their layout, the image loader is not part
+ * of the benchmark.
+ */
+public class PosterBindBenchmark extends ActivityInstrumentationTestCase2<MainActivity> {
+
+    private static final String LOG_TAG = PosterBindBenchmark.class.getSimpleName();
+    private static final int ROWS = 500;
+    private static final int VIEW_HOLDERS = 16;
+    private static final int WARMUP_ITERATIONS = 2;
+    private static final int ITERATIONS = 10;
+
+    // What the text view allocates for the title, as the single line title is wrapped by its transformation
+    private static final int MAX_ALLOCATIONS_PER_BIND = 4;
+
+    public PosterBindBenchmark() {
+        super(MainActivity.class);
+    }
+
+    // Builds an adaptor with a cursor of fake rows in the same shape as the poster loader
+    private PosterAdaptor createAdaptor() {
+        MatrixCursor cursor = new MatrixCursor(new String[]{
+                MovieEntry.MEDIA_ID.COLUMN, MovieEntry.TITLE.COLUMN, MovieEntry.POSTER_PATH.COLUMN});
+        for (int i = 0; i < ROWS; i++) {
+            cursor.addRow(new Object[]{100000 + i, "Movie " + i, (i % 10 == 0) ? "null" : "/poster" + i + ".jpg"});
+        }
+        PosterAdaptor adaptor = new PosterAdaptor(getActivity(), 300);
+        adaptor.swapCursor(cursor, MovieContract.PATH_MOVIE);
+        assertEquals(ROWS, adaptor.getItemCount());
+        return adaptor;
+    }
+
+    // The lookups done while binding and prefetching must come straight out of the snapshot
+    @UiThreadTest
+    public void testSnapshotLookupsDontAllocate() {
+        PosterAdaptor adaptor = createAdaptor();
+
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        long checksum = 0;
+        for (int position = 0; position < ROWS; position++) {
+            String url = adaptor.getPosterUrl(position);
+            checksum += adaptor.getItemId(position) + ((url != null) ? url.length() : 0) + adaptor.getTitle(position).length();
+        }
+        Debug.stopAllocCounting();
+
+        assertTrue(checksum > 0);
+        assertEquals("The snapshot lookups allocated", 0, Debug.getThreadAllocCount());
+    }
+
+    // Scrolls through the whole grid, binding each position into the view holders in turn
+    @UiThreadTest
+    public void testGridScrollBind() {
+        PosterAdaptor adaptor = createAdaptor();
+        FrameLayout parent = new FrameLayout(getActivity());
+        PosterAdaptor.ViewHolder[] holders = new PosterAdaptor.ViewHolder[VIEW_HOLDERS];
+        for (int i = 0; i < VIEW_HOLDERS; i++) {
+            holders[i] = adaptor.onCreateViewHolder(parent, 0);
+        }
+
+        long bindTime = 0, allocations = 0;
+        for (int i = 0; i < WARMUP_ITERATIONS + ITERATIONS; i++) {
+            Debug.resetThreadAllocCount();
+            Debug.startAllocCounting();
+            long start = System.nanoTime();
+            for (int position = 0; position < ROWS; position++) {
+                adaptor.onBindViewHolder(holders[position % VIEW_HOLDERS], position);
+            }
+            long end = System.nanoTime();
+            Debug.stopAllocCounting();
+
+            if (i >= WARMUP_ITERATIONS) {
+                bindTime += end - start;
+                allocations += Debug.getThreadAllocCount();
+            }
+        }
+
+        int binds = ROWS * ITERATIONS;
+        Log.i(LOG_TAG, String.format("Grid scroll of %d rows: bind %d ns/row, %.2f allocations/row",
+                ROWS, bindTime / binds, allocations / (double) binds));
+        assertTrue("The binds allocated " + allocations + " times", allocations <= (long) MAX_ALLOCATIONS_PER_BIND * binds);
+    }
+}
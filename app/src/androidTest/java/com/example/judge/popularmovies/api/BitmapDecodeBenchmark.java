@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2015 Joshua Gwinn (jdgbolt@gmail.com)
+ */
+
+package com.example.judge.popularmovies.api;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.os.Build;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.util.Log;
+import android.widget.ImageView.ScaleType;
+
+import com.android.volley.NetworkResponse;
+import com.android.volley.Request;
+import com.android.volley.Response;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayDeque;
+
+/**
+ * Benchmark of the decoding of the posters during a scroll through the grid, without any network or views. Each
+ * step decodes a poster for the row scrolling onto the screen, while the poster of the row scrolling off the
+ * screen is released and evicted, the same as the views and the memory cache do. The scroll is run without a
+ * pool and then with one, logging the time per decode and the garbage collections of each, along with the hit
+ * rate of the pool.
+ */
+public class BitmapDecodeBenchmark extends AndroidTestCase {
+
+    private static final String LOG_TAG = BitmapDecodeBenchmark.class.getSimpleName();
+    private static final int POSTERS = 300;
+    private static final int VISIBLE_POSTERS = 12;
+
+    // A w342 poster decoded for a cell of 300 pixels
+    private static final int POSTER_WIDTH = 342;
+    private static final int POSTER_HEIGHT = 513;
+    private static final int CELL_WIDTH = 300;
+
+    // Encodes a poster sized jpeg to decode, with some detail so it isn't trivially compressed
+    private static byte[] createPoster() {
+        Bitmap bitmap = Bitmap.createBitmap(POSTER_WIDTH, POSTER_HEIGHT, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        Paint paint = new Paint();
+        for (int y = 0; y < POSTER_HEIGHT; y += 8) {
+            paint.setColor(Color.rgb(y % 256, (y * 3) % 256, (y * 7) % 256));
+            canvas.drawRect(0, y, POSTER_WIDTH, y + 8, paint);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.JPEG, 90, out);
+        bitmap.recycle();
+        return out.toByteArray();
+    }
+
+    // Decodes the poster the same way as the image loader does for a grid cell
+    private static Bitmap decode(byte[] poster, BitmapPool pool) {
+        PooledImageRequest request = new PooledImageRequest("http://localhost/poster.jpg", null, CELL_WIDTH, 0,
+                ScaleType.CENTER_INSIDE, Bitmap.Config.RGB_565, Request.Priority.NORMAL, pool, null);
+        Response<Bitmap> response = request.parseNetworkResponse(new NetworkResponse(poster));
+        assertTrue("The poster couldn't be decoded", response.isSuccess());
+        return response.result;
+    }
+
+    // Scrolls through the posters, returning the time taken in nanoseconds and the garbage collections
+    private long[] scroll(byte[] poster, BitmapPool pool) {
+        ArrayDeque<Bitmap> visible = new ArrayDeque<>();
+        Debug.resetGlobalGcInvocationCount();
+        Debug.startAllocCounting();
+        long start = System.nanoTime();
+        for (int i = 0; i < POSTERS; i++) {
+            Bitmap bitmap = decode(poster, pool);
+            if (pool != null) pool.retain(bitmap);
+            visible.addLast(bitmap);
+            if (visible.size() > VISIBLE_POSTERS) {
+                Bitmap gone = visible.removeFirst();
+                if (pool != null) {
+                    pool.release(gone);
+                    pool.evicted(gone);
+                }
+            }
+        }
+        long time = System.nanoTime() - start;
+        Debug.stopAllocCounting();
+        return new long[]{time, Debug.getGlobalGcInvocationCount()};
+    }
+
+    public void testScrollDecode() {
+        byte[] poster = createPoster();
+        BitmapPool pool = new BitmapPool(8 * 1024 * 1024);
+
+        // Warm up both paths before measuring
+        scroll(poster, null);
+        scroll(poster, new BitmapPool(pool.getMaxSize()));
+
+        long[] unpooled = scroll(poster, null);
+        long[] pooled = scroll(poster, pool);
+
+        Log.i(LOG_TAG, String.format("Scroll of %d posters without pool: decode %d us/poster, %d gcs",
+                POSTERS, unpooled[0] / POSTERS / 1000, unpooled[1]));
+        Log.i(LOG_TAG, String.format("Scroll of %d posters with pool: decode %d us/poster, %d gcs, pool %s",
+                POSTERS, pooled[0] / POSTERS / 1000, pooled[1], pool.getStats()));
+
+        // From kitkat every poster after the first screen and one more should come out of the pool
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            assertEquals("The pool wasn't used: " + pool.getStats(), POSTERS - VISIBLE_POSTERS - 1, pool.getHitCount());
+        }
+    }
+}
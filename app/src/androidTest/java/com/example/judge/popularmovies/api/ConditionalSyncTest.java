@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2015 Joshua Gwinn (jdgbolt@gmail.com)
+ */
+
+package com.example.judge.popularmovies.api;
+
+import android.database.Cursor;
+import android.net.Uri;
+import android.test.ProviderTestCase2;
+
+import com.android.volley.ExecutorDelivery;
+import com.android.volley.RequestQueue;
+import com.android.volley.Response;
+import com.android.volley.VolleyError;
+import com.android.volley.toolbox.BasicNetwork;
+import com.android.volley.toolbox.HurlStack;
+import com.android.volley.toolbox.NoCache;
+import com.example.judge.popularmovies.data.MovieContract;
+import com.example.judge.popularmovies.data.MovieContract.MovieEntry;
+import com.example.judge.popularmovies.data.MovieContract.SourceEntry;
+import com.example.judge.popularmovies.data.MovieContract.SyncStateEntry;
+import com.example.judge.popularmovies.data.MovieProvider;
+
+import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests of the conditional syncing of the source lists against a local stand-in for TheMovieDB, which sends an
+ * entity tag with the popular list and answers a request that has it with a not modified response that leaves
+ * the validators out. The syncs write into a MovieProvider backed by an isolated database, and keep their sync
+ * times and validators in preferences of their own.
+ */
+public class ConditionalSyncTest extends ProviderTestCase2<MovieProvider> {
+
+    private static final long TIMEOUT_SECONDS = 10;
+    private static final String BASE_PATH = "/3";
+    private static final String ETAG = "\"popular-1\"";
+    private static final String LAST_MODIFIED = "Thu, 01 Oct 2015 00:00:00 GMT";
+
+    // The keys the syncs of the popular movies store their validators under
+    private static final String ETAG_KEY = MovieContract.PATH_MOVIE + "_" + MovieEntry.SOURCE_POPULAR + "_etag";
+    private static final String LAST_MODIFIED_KEY = MovieContract.PATH_MOVIE + "_" + MovieEntry.SOURCE_POPULAR + "_last_modified";
+
+    private StandInServer mServer;
+    private SyncTestContext mSyncContext;
+
+    public ConditionalSyncTest() {
+        super(MovieProvider.class, MovieContract.CONTENT_AUTHORITY);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        HashMap<String, byte[]> responses = new HashMap<>();
+        responses.put(BASE_PATH + "/movie/popular", Fixtures.read(Fixtures.POPULAR));
+        mServer = new StandInServer(responses, 0);
+        mServer.setValidators(ETAG, LAST_MODIFIED);
+        mServer.start();
+
+        // The singleton is created with the real context first, so it doesn't hang on to the one of the test
+        VolleySingleton.getInstance(getContext());
+        mSyncContext = new SyncTestContext(getContext(), getMockContentResolver());
+        mSyncContext.getUpdatePreferences().edit().clear().commit();
+        TmdbApiHandler.setApiBaseUri(Uri.parse(mServer.getUrl(BASE_PATH)));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TmdbApiHandler.setApiBaseUri(null);
+        mSyncContext.getUpdatePreferences().edit().clear().commit();
+        mServer.shutdown();
+        super.tearDown();
+    }
+
+    // A not modified response writes nothing, and keeps the validators of the full response before it
+    public void testNotModifiedKeepsValidators() throws Exception {
+        assertTrue("The first sync failed", refresh());
+        assertEquals(0, mServer.getNotModifiedCount());
+        assertEquals(ETAG, mSyncContext.getUpdatePreferences().getString(ETAG_KEY, null));
+        assertEquals(LAST_MODIFIED, mSyncContext.getUpdatePreferences().getString(LAST_MODIFIED_KEY, null));
+        int rows = countRows(SourceEntry.buildTypeUri(MovieContract.PATH_MOVIE), MovieEntry.selectSource(),
+                new String[]{MovieEntry.SOURCE_POPULAR});
+        assertTrue("The first sync wrote no rows", rows > 0);
+        String syncState = readSyncState();
+
+        assertTrue("The second sync failed", refresh());
+        assertEquals("The second sync wasn't conditional", 1, mServer.getNotModifiedCount());
+        assertEquals(ETAG, mSyncContext.getUpdatePreferences().getString(ETAG_KEY, null));
+        assertEquals(LAST_MODIFIED, mSyncContext.getUpdatePreferences().getString(LAST_MODIFIED_KEY, null));
+        assertEquals(rows, countRows(SourceEntry.buildTypeUri(MovieContract.PATH_MOVIE), MovieEntry.selectSource(),
+                new String[]{MovieEntry.SOURCE_POPULAR}));
+        assertEquals("The not modified sync wrote the sync state", syncState, readSyncState());
+
+        // The validators are still sent, so the next sync is conditional as well
+        assertTrue("The third sync failed", refresh());
+        assertEquals(2, mServer.getNotModifiedCount());
+    }
+
+    // A request with the validators of the last response is delivered as not modified, without any rows
+    public void testNotModifiedDelivered() throws Exception {
+        RequestQueue queue = new RequestQueue(new NoCache(), new BasicNetwork(new HurlStack()), 1,
+                new ExecutorDelivery(Executors.newSingleThreadExecutor()));
+        queue.start();
+        try {
+            final CountDownLatch latch = new CountDownLatch(1);
+            final TmdbRequest.Result[] result = new TmdbRequest.Result[1];
+            final VolleyError[] error = new VolleyError[1];
+            TmdbRequest request = new TmdbRequest(mServer.getUrl(BASE_PATH + "/movie/popular"), MovieEntry.API_COLUMNS,
+                    MovieEntry.NONAPI_COLUMNS, new String[]{MovieEntry.SOURCE_POPULAR}, false,
+                    new Response.Listener<TmdbRequest.Result>() {
+                        @Override
+                        public void onResponse(TmdbRequest.Result response) {
+                            result[0] = response;
+                            latch.countDown();
+                        }
+                    }, new Response.ErrorListener() {
+                        @Override
+                        public void onErrorResponse(VolleyError volleyError) {
+                            error[0] = volleyError;
+                            latch.countDown();
+                        }
+                    });
+            request.setValidators(ETAG, LAST_MODIFIED);
+            queue.add(request);
+
+            assertTrue("The request timed out", latch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+            assertNull("The request failed", error[0]);
+            assertTrue(result[0].NOT_MODIFIED);
+            assertEquals(0, result[0].VALUES.length);
+            assertNull(result[0].ETAG);
+        } finally {
+            queue.stop();
+        }
+    }
+
+    // Refreshes the popular movies, waiting for the sync to finish and returning whether it worked
+    private boolean refresh() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final boolean[] success = new boolean[1];
+        TmdbApiHandler.refresh(TmdbApiHandler.SYNC_MOVIE, MovieEntry.SOURCE_POPULAR, mSyncContext,
+                new TmdbApiHandler.OnSyncFinishedListener() {
+                    @Override
+                    public void onSyncFinished(@TmdbApiHandler.SyncType int syncType, String source, boolean worked) {
+                        success[0] = worked;
+                        latch.countDown();
+                    }
+                });
+        assertTrue("The sync timed out", latch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        return success[0];
+    }
+
+    // All of the columns of the sync state of the popular movies as a single string, to tell whether it was written
+    private String readSyncState() {
+        Cursor cursor = getMockContentResolver().query(SyncStateEntry.CONTENT_URI, null, SyncStateEntry.selectSource(),
+                new String[]{MovieContract.PATH_MOVIE, MovieEntry.SOURCE_POPULAR}, null);
+        assertNotNull(cursor);
+        try {
+            assertTrue("There is no sync state", cursor.moveToFirst());
+            String state = "";
+            for (int i = 0; i < cursor.getColumnCount(); i++) {
+                state += cursor.getColumnName(i) + "=" + cursor.getString(i) + ";";
+            }
+            return state;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private int countRows(Uri contentUri, String selection, String[] selectionArgs) {
+        Cursor cursor = getMockContentResolver().query(contentUri, null, selection, selectionArgs, null);
+        assertNotNull(cursor);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2015 Joshua Gwinn (jdgbolt@gmail.com)
+ */
+
+package com.example.judge.popularmovies.api;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.test.ProviderTestCase2;
+import android.util.Log;
+
+import com.android.volley.ExecutorDelivery;
+import com.android.volley.RequestQueue;
+import com.android.volley.Response;
+import com.android.volley.VolleyError;
+import com.android.volley.toolbox.BasicNetwork;
+import com.android.volley.toolbox.HurlStack;
+import com.android.volley.toolbox.NoCache;
+import com.example.judge.popularmovies.data.MovieContract;
+import com.example.judge.popularmovies.data.MovieContract.DatabaseColumn;
+import com.example.judge.popularmovies.data.MovieContract.MovieEntry;
+import com.example.judge.popularmovies.data.MovieContract.ReviewEntry;
+import com.example.judge.popularmovies.data.MovieContract.TrailerEntry;
+import com.example.judge.popularmovies.data.MovieProvider;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of the time from opening the detail of a movie to its content being written, comparing the separate
+ * requests for the detail, trailers and reviews against the single request with the trailers and reviews appended
+ * to the detail. The requests go to a local stand-in for TheMovieDB serving the recorded responses, which delays
+ * every request by a fixed latency standing in for the connection setup and round trip to the real server. The
+ * responses go through the same parse and write steps as the syncing, into a MovieProvider backed by an isolated
+ * database, and the content only counts as loaded once all of it has been written.
+ */
+public class DetailFetchBenchmark extends ProviderTestCase2<MovieProvider> {
+
+    private static final String LOG_TAG = DetailFetchBenchmark.class.getSimpleName();
+    private static final int WARMUP_ITERATIONS = 3;
+    private static final int ITERATIONS = 20;
+    private static final long SERVER_LATENCY_MS = 150;
+    private static final long TIMEOUT_SECONDS = 10;
+
+    // The paths of the requests, and the sections appended to the detail of the single request
+    private static final String DETAIL_PATH = "/movie/" + Fixtures.MEDIA_ID;
+    private static final String VIDEOS_PATH = DETAIL_PATH + "/videos";
+    private static final String REVIEWS_PATH = DETAIL_PATH + "/reviews";
+    private static final String APPEND = "videos,reviews";
+
+    private StandInServer mServer;
+    private RequestQueue mQueue;
+
+    public DetailFetchBenchmark() {
+        super(MovieProvider.class, MovieContract.CONTENT_AUTHORITY);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        byte[] detail = Fixtures.read(Fixtures.DETAIL);
+        byte[] videos = Fixtures.read(Fixtures.VIDEOS);
+        byte[] reviews = Fixtures.read(Fixtures.REVIEWS);
+
+        HashMap<String, byte[]> responses = new HashMap<>();
+        responses.put(DETAIL_PATH, detail);
+        responses.put(VIDEOS_PATH, videos);
+        responses.put(REVIEWS_PATH, reviews);
+        responses.put(DETAIL_PATH + "?" + APPEND, appendSections(detail, videos, reviews));
+        mServer = new StandInServer(responses, SERVER_LATENCY_MS);
+        mServer.start();
+
+        // The same setup as the sync queue, without the cache so every request goes to the server
+        mQueue = new RequestQueue(new NoCache(), new BasicNetwork(new HurlStack()), 4,
+                new ExecutorDelivery(Executors.newSingleThreadExecutor()));
+        mQueue.start();
+
+        // The movie is already stored from its source list, as it is when it is opened from the grid
+        String[] key = new String[]{MovieEntry.SOURCE_POPULAR};
+        TmdbApiHandler.writeValues(getMockContentResolver(), MovieEntry.CONTENT_URI,
+                TmdbRequest.parse(new InputStreamReader(new ByteArrayInputStream(Fixtures.read(Fixtures.POPULAR)), "UTF-8"),
+                        MovieEntry.API_COLUMNS, MovieEntry.NONAPI_COLUMNS, key, false).VALUES,
+                MovieEntry.NONAPI_COLUMNS, MovieEntry.selectSource(), key, false, 1);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mQueue.stop();
+        mServer.shutdown();
+        super.tearDown();
+    }
+
+    public void testDetailFetch() throws Exception {
+        long[] separate = new long[ITERATIONS];
+        long[] single = new long[ITERATIONS];
+        int separateRequests = 0, singleRequests = 0;
+
+        for (int i = 0; i < WARMUP_ITERATIONS + ITERATIONS; i++) {
+            clearSections();
+            int requests = mServer.getRequestCount();
+            long separateTime = fetchSeparately();
+            separateRequests = mServer.getRequestCount() - requests;
+            int separateTrailers = countRows(TrailerEntry.CONTENT_URI, TrailerEntry.selectId(), new String[]{Fixtures.MEDIA_ID, MovieContract.PATH_MOVIE});
+            int separateReviews = countRows(ReviewEntry.CONTENT_URI, ReviewEntry.selectId(), new String[]{Fixtures.MEDIA_ID});
+
+            clearSections();
+            requests = mServer.getRequestCount();
+            long singleTime = fetchTogether();
+            singleRequests = mServer.getRequestCount() - requests;
+
+            // Both of the paths have to end up with the same content
+            assertEquals("The single request wrote different trailers", separateTrailers,
+                    countRows(TrailerEntry.CONTENT_URI, TrailerEntry.selectId(), new String[]{Fixtures.MEDIA_ID, MovieContract.PATH_MOVIE}));
+            assertEquals("The single request wrote different reviews", separateReviews,
+                    countRows(ReviewEntry.CONTENT_URI, ReviewEntry.selectId(), new String[]{Fixtures.MEDIA_ID}));
+            assertTrue("No trailers were written", separateTrailers > 0);
+
+            if (i >= WARMUP_ITERATIONS) {
+                separate[i - WARMUP_ITERATIONS] = separateTime;
+                single[i - WARMUP_ITERATIONS] = singleTime;
+            }
+        }
+
+        Log.i(LOG_TAG, String.format("Separate requests: %d requests, tap to content %.1f ms mean, %.1f ms median",
+                separateRequests, mean(separate), median(separate)));
+        Log.i(LOG_TAG, String.format("Single request: %d requests, tap to content %.1f ms mean, %.1f ms median",
+                singleRequests, mean(single), median(single)));
+        assertEquals(3, separateRequests);
+        assertEquals(1, singleRequests);
+    }
+
+    // Fetches the detail, trailers and reviews with a request each, the same as the separate syncs, returning the time taken
+    private long fetchSeparately() throws Exception {
+        final ContentResolver resolver = getMockContentResolver();
+        final CountDownLatch latch = new CountDownLatch(3);
+        final VolleyError[] error = new VolleyError[1];
+
+        long start = System.nanoTime();
+        mQueue.add(new TmdbRequest(mServer.getUrl(DETAIL_PATH), MovieEntry.API_COLUMNS, MovieEntry.NONAPI_COLUMNS,
+                new String[]{Fixtures.MEDIA_ID}, true,
+                writer(resolver, MovieEntry.CONTENT_URI, MovieEntry.NONAPI_COLUMNS, MovieEntry.selectId(), new String[]{Fixtures.MEDIA_ID}, true, latch),
+                errorListener(error, latch)));
+        mQueue.add(new TmdbRequest(mServer.getUrl(VIDEOS_PATH), TrailerEntry.API_COLUMNS, TrailerEntry.NONAPI_COLUMNS,
+                new String[]{Fixtures.MEDIA_ID, MovieContract.PATH_MOVIE}, false,
+                writer(resolver, TrailerEntry.CONTENT_URI, TrailerEntry.NONAPI_COLUMNS, TrailerEntry.selectId(),
+                        new String[]{Fixtures.MEDIA_ID, MovieContract.PATH_MOVIE}, false, latch),
+                errorListener(error, latch)));
+        mQueue.add(new TmdbRequest(mServer.getUrl(REVIEWS_PATH), ReviewEntry.API_COLUMNS, ReviewEntry.NONAPI_COLUMNS,
+                new String[]{Fixtures.MEDIA_ID}, false,
+                writer(resolver, ReviewEntry.CONTENT_URI, ReviewEntry.NONAPI_COLUMNS, ReviewEntry.selectId(), new String[]{Fixtures.MEDIA_ID}, false, latch),
+                errorListener(error, latch)));
+
+        assertTrue("The separate requests timed out", latch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        long time = System.nanoTime() - start;
+        assertNull("The separate requests failed", error[0]);
+        return time;
+    }
+
+    // Fetches the detail with the trailers and reviews appended, the same as the full detail sync, returning the time taken
+    private long fetchTogether() throws Exception {
+        final ContentResolver resolver = getMockContentResolver();
+        final CountDownLatch latch = new CountDownLatch(1);
+        final VolleyError[] error = new VolleyError[1];
+        final TmdbRequest.Section[] sections = {
+                new TmdbRequest.Section("videos", TrailerEntry.CONTENT_URI, TrailerEntry.API_COLUMNS, TrailerEntry.NONAPI_COLUMNS,
+                        TrailerEntry.selectId(), new String[]{Fixtures.MEDIA_ID, MovieContract.PATH_MOVIE}),
+                new TmdbRequest.Section("reviews", ReviewEntry.CONTENT_URI, ReviewEntry.API_COLUMNS, ReviewEntry.NONAPI_COLUMNS,
+                        ReviewEntry.selectId(), new String[]{Fixtures.MEDIA_ID})
+        };
+
+        long start = System.nanoTime();
+        TmdbRequest request = new TmdbRequest(mServer.getUrl(DETAIL_PATH) + "?append_to_response=" + APPEND,
+                MovieEntry.API_COLUMNS, MovieEntry.NONAPI_COLUMNS, new String[]{Fixtures.MEDIA_ID}, true,
+                new Response.Listener<TmdbRequest.Result>() {
+                    @Override
+                    public void onResponse(TmdbRequest.Result response) {
+                        TmdbApiHandler.writeDetail(resolver, MovieEntry.CONTENT_URI, response, MovieEntry.selectId(),
+                                new String[]{Fixtures.MEDIA_ID}, sections);
+                        latch.countDown();
+                    }
+                }, errorListener(error, latch));
+        request.setSections(sections);
+        mQueue.add(request);
+
+        assertTrue("The single request timed out", latch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        long time = System.nanoTime() - start;
+        assertNull("The single request failed", error[0]);
+        return time;
+    }
+
+    // Writes the response the same way as the sync does, counting down the latch once it has been written
+    private static Response.Listener<TmdbRequest.Result> writer(final ContentResolver resolver, final Uri contentUri,
+                                                                final DatabaseColumn[] nonApiColumns, final String selection,
+                                                                final String[] key, final boolean update, final CountDownLatch latch) {
+        return new Response.Listener<TmdbRequest.Result>() {
+            @Override
+            public void onResponse(TmdbRequest.Result response) {
+                TmdbApiHandler.writeValues(resolver, contentUri, response.VALUES, nonApiColumns, selection, key, update, 1);
+                latch.countDown();
+            }
+        };
+    }
+
+    private static Response.ErrorListener errorListener(final VolleyError[] error, final CountDownLatch latch) {
+        return new Response.ErrorListener() {
+            @Override
+            public void onErrorResponse(VolleyError volleyError) {
+                error[0] = volleyError;
+                latch.countDown();
+            }
+        };
+    }
+
+    // Removes the trailers and reviews, so every iteration writes them as if the movie was opened for the first time
+    private void clearSections() {
+        getMockContentResolver().delete(TrailerEntry.CONTENT_URI, TrailerEntry.selectId(), new String[]{Fixtures.MEDIA_ID, MovieContract.PATH_MOVIE});
+        getMockContentResolver().delete(ReviewEntry.CONTENT_URI, ReviewEntry.selectId(), new String[]{Fixtures.MEDIA_ID});
+    }
+
+    private int countRows(Uri contentUri, String selection, String[] selectionArgs) {
+        Cursor cursor = getMockContentResolver().query(contentUri, null, selection, selectionArgs, null);
+        assertNotNull(cursor);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static double mean(long[] times) {
+        long total = 0;
+        for (long time : times) {
+            total += time;
+        }
+        return total / (times.length * 1e6);
+    }
+
+    private static double median(long[] times) {
+        long[] sorted = Arrays.copyOf(times, times.length);
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2] / 1e6;
+    }
+
+    // Builds the response of the detail with the videos and reviews appended, the way TheMovieDB returns it
+    private static byte[] appendSections(byte[] detail, byte[] videos, byte[] reviews) throws IOException {
+        String json = new String(detail, "UTF-8").trim();
+        json = json.substring(0, json.length() - 1) + ", \"videos\": " + new String(videos, "UTF-8").trim()
+                + ", \"reviews\": " + new String(reviews, "UTF-8").trim() + "}";
+        return json.getBytes("UTF-8");
+    }
+}
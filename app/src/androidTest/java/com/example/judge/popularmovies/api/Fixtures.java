@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2015 Joshua Gwinn (jdgbolt@gmail.com)
+ */
+
+package com.example.judge.popularmovies.api;
+
+import junit.framework.Assert;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The recorded responses of TheMovieDB that the tests and benchmarks run against, which are kept in the test
+ * resources. They are all of the same movie, the detail, videos and reviews being those of the movie with the
+ * fixture media id, which is also within the popular list.
+ */
+final class Fixtures {
+
+    static final String POPULAR = "movie_popular.json";
+    static final String DETAIL = "movie_detail.json";
+    static final String VIDEOS = "movie_videos.json";
+    static final String REVIEWS = "movie_reviews.json";
+    static final String MEDIA_ID = "100000";
+
+    private Fixtures() {
+    }
+
+    // Reads one of the recorded responses out of the test resources
+    static byte[] read(String name) throws IOException {
+        InputStream in = Fixtures.class.getClassLoader().getResourceAsStream("fixtures/" + name);
+        Assert.assertNotNull("Missing fixture " + name, in);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2015 Joshua Gwinn (jdgbolt@gmail.com)
+ */
+
+package com.example.judge.popularmovies.api;
+
+import android.net.Uri;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.HashMap;
+
+/**
+ * A stand-in for TheMovieDB on a local port, serving the responses by the path of the request and the sections
+ * appended to it. Every connection is served on its own thread after a fixed latency, and then closed, so each
+ * request pays for its own connection the same as it would against the real server. The server can be given an
+ * entity tag, which it sends along with every response, answering a request that already has it with not modified.
+ */
+class StandInServer extends Thread {
+
+    private static final String LOG_TAG = StandInServer.class.getSimpleName();
+    private static final String HEADER_IF_NONE_MATCH = "if-none-match:";
+
+    private final ServerSocket mSocket;
+    private final HashMap<String, byte[]> mResponses;
+    private final long mLatency;
+    private String mETag;
+    private String mLastModified;
+    private int mRequestCount;
+    private int mNotModifiedCount;
+
+    /**
+     * @param responses The responses by the path of the request, followed by ? and the sections appended to it if any
+     * @param latency   The time in milliseconds every request waits before it is answered
+     */
+    StandInServer(HashMap<String, byte[]> responses, long latency) throws IOException {
+        mSocket = new ServerSocket(0);
+        mResponses = responses;
+        mLatency = latency;
+        setDaemon(true);
+    }
+
+    String getUrl(String path) {
+        return "http://127.0.0.1:" + mSocket.getLocalPort() + path;
+    }
+
+    /**
+     * Sets the validators sent along with the responses, a request with the entity tag is answered with a not
+     * modified response that doesn't repeat either of them.
+     *
+     * @param eTag         The entity tag of the responses
+     * @param lastModified The last modified date of the responses
+     */
+    synchronized void setValidators(String eTag, String lastModified) {
+        mETag = eTag;
+        mLastModified = lastModified;
+    }
+
+    synchronized int getRequestCount() {
+        return mRequestCount;
+    }
+
+    synchronized int getNotModifiedCount() {
+        return mNotModifiedCount;
+    }
+
+    void shutdown() throws IOException {
+        mSocket.close();
+    }
+
+    @Override
+    public void run() {
+        while (!mSocket.isClosed()) {
+            try {
+                final Socket client = mSocket.accept();
+                new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        serve(client);
+                    }
+                }).start();
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private void serve(Socket client) {
+        try {
+            BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), "UTF-8"));
+            String requestLine = in.readLine();
+            String ifNoneMatch = null;
+            String line;
+            while ((line = in.readLine()) != null && !line.isEmpty()) {
+                if (line.toLowerCase().startsWith(HEADER_IF_NONE_MATCH)) {
+                    ifNoneMatch = line.substring(HEADER_IF_NONE_MATCH.length()).trim();
+                }
+            }
+
+            String eTag, lastModified;
+            boolean notModified;
+            synchronized (this) {
+                mRequestCount++;
+                eTag = mETag;
+                lastModified = mLastModified;
+                notModified = eTag != null && eTag.equals(ifNoneMatch);
+                if (notModified) mNotModifiedCount++;
+            }
+
+            Uri uri = Uri.parse(requestLine.split(" ")[1]);
+            String append = uri.getQueryParameter("append_to_response");
+            byte[] body = mResponses.get(uri.getPath() + ((append != null) ? "?" + append : ""));
+            Thread.sleep(mLatency);
+
+            OutputStream out = client.getOutputStream();
+            if (body == null) {
+                out.write("HTTP/1.1 404 Not Found\r\nContent-Length: 0\r\nConnection: close\r\n\r\n".getBytes("UTF-8"));
+            } else if (notModified) {
+                out.write("HTTP/1.1 304 Not Modified\r\nConnection: close\r\n\r\n".getBytes("UTF-8"));
+            } else {
+                String validators = ((eTag != null) ? "ETag: " + eTag + "\r\n" : "")
+                        + ((lastModified != null) ? "Last-Modified: " + lastModified + "\r\n" : "");
+                out.write(("HTTP/1.1 200 OK\r\nContent-Type: application/json;charset=utf-8\r\nContent-Length: "
+                        + body.length + "\r\n" + validators + "Connection: close\r\n\r\n").getBytes("UTF-8"));
+                out.write(body);
+            }
+            out.flush();
+        } catch (IOException | InterruptedException e) {
+            Log.e(LOG_TAG, "Error serving a request: " + e.getLocalizedMessage());
+        } finally {
+            try {
+                client.close();
+            } catch (IOException e) {
+                // Already closed
+            }
+        }
+    }
+}
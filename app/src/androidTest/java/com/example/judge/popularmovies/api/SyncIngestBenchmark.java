@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2015 Joshua Gwinn (jdgbolt@gmail.com)
+ */
+
+package com.example.judge.popularmovies.api;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Debug;
+import android.test.ProviderTestCase2;
+import android.util.Log;
+
+import com.example.judge.popularmovies.data.MovieContract;
+import com.example.judge.popularmovies.data.MovieContract.DatabaseColumn;
+import com.example.judge.popularmovies.data.MovieContract.MovieEntry;
+import com.example.judge.popularmovies.data.MovieContract.ReviewEntry;
+import com.example.judge.popularmovies.data.MovieContract.SearchEntry;
+import com.example.judge.popularmovies.data.MovieContract.SourceEntry;
+import com.example.judge.popularmovies.data.MovieContract.TrailerEntry;
+import com.example.judge.popularmovies.data.MovieProvider;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+
+/**
+ * Benchmark of the ingest path of the syncing, this feeds recorded TheMovieDB responses through the same parse
+ * and write steps that the TmdbApiHandler uses, writing into a MovieProvider backed by an isolated database on
+ * the device. There is no network access involved, so it can be run in order to catch regressions. For each of
+ * the responses it logs the time per row for parsing and writing, the allocations per row, and the average time
+ * of the whole transaction. It also compares the streaming parser of the TmdbRequest against the JSONObject
+ * parsing that was used before it, as a baseline for the parse step.
+ */
+public class SyncIngestBenchmark extends ProviderTestCase2<MovieProvider> {
+
+    private static final String LOG_TAG = SyncIngestBenchmark.class.getSimpleName();
+    private static final int WARMUP_ITERATIONS = 5;
+    private static final int ITERATIONS = 50;
+
+    public SyncIngestBenchmark() {
+        super(MovieProvider.class, MovieContract.CONTENT_AUTHORITY);
+    }
+
+    // A full sync of a source list into an empty source
+    public void testSourceListIngest() throws Exception {
+        benchmark("Source list ingest", Fixtures.POPULAR, MovieEntry.CONTENT_URI, MovieEntry.API_COLUMNS,
+                MovieEntry.NONAPI_COLUMNS, MovieEntry.selectSource(), new String[]{MovieEntry.SOURCE_POPULAR}, false,
+                SourceEntry.buildTypeUri(MovieContract.PATH_MOVIE));
+    }
+
+    // A sync of a source list where nothing has changed since the last sync
+    public void testSourceListRefresh() throws Exception {
+        benchmark("Source list refresh", Fixtures.POPULAR, MovieEntry.CONTENT_URI, MovieEntry.API_COLUMNS,
+                MovieEntry.NONAPI_COLUMNS, MovieEntry.selectSource(), new String[]{MovieEntry.SOURCE_POPULAR}, false, null);
+    }
+
+    // A detail sync of a media that is in several sources, which only has the single row of the media to update
+    public void testDetailUpdate() throws Exception {
+        byte[] list = Fixtures.read(Fixtures.POPULAR);
+        for (String source : new String[]{MovieEntry.SOURCE_POPULAR, MovieEntry.SOURCE_RATING, MovieEntry.SOURCE_NOW_PLAYING}) {
+            String[] key = new String[]{source};
+            TmdbApiHandler.writeValues(getMockContentResolver(), MovieEntry.CONTENT_URI,
+                    parseStream(list, MovieEntry.API_COLUMNS, MovieEntry.NONAPI_COLUMNS, key, false),
+                    MovieEntry.NONAPI_COLUMNS, MovieEntry.selectSource(), key, false, 1);
+        }
+        benchmark("Detail update", Fixtures.DETAIL, MovieEntry.CONTENT_URI, MovieEntry.API_COLUMNS,
+                MovieEntry.NONAPI_COLUMNS, MovieEntry.selectId(), new String[]{Fixtures.MEDIA_ID}, true, null);
+    }
+
+    public void testTrailerIngest() throws Exception {
+        benchmark("Trailer ingest", Fixtures.VIDEOS, TrailerEntry.CONTENT_URI, TrailerEntry.API_COLUMNS,
+                TrailerEntry.NONAPI_COLUMNS, TrailerEntry.selectId(), new String[]{Fixtures.MEDIA_ID, MovieContract.PATH_MOVIE}, false, TrailerEntry.CONTENT_URI);
+    }
+
+    public void testReviewIngest() throws Exception {
+        benchmark("Review ingest", Fixtures.REVIEWS, ReviewEntry.CONTENT_URI, ReviewEntry.API_COLUMNS,
+                ReviewEntry.NONAPI_COLUMNS, ReviewEntry.selectId(), new String[]{Fixtures.MEDIA_ID}, false, ReviewEntry.CONTENT_URI);
+    }
+
+    // A search of the stored movies through the local search index, by the first word of the title of each of them
+    public void testLocalSearch() throws Exception {
+        String[] key = new String[]{MovieEntry.SOURCE_POPULAR};
+        ContentValues[] stored = parseStream(Fixtures.read(Fixtures.POPULAR), MovieEntry.API_COLUMNS, MovieEntry.NONAPI_COLUMNS, key, false);
+        TmdbApiHandler.writeValues(getMockContentResolver(), MovieEntry.CONTENT_URI, stored,
+                MovieEntry.NONAPI_COLUMNS, MovieEntry.selectSource(), key, false, 1);
+
+        long queryTime = 0;
+        int queries = 0, results = 0;
+        for (int i = 0; i < WARMUP_ITERATIONS + ITERATIONS; i++) {
+            for (ContentValues movie : stored) {
+                String title = movie.getAsString(MovieEntry.TITLE.COLUMN);
+                String word = title.split(" ")[0];
+
+                long start = System.nanoTime();
+                Cursor cursor = getMockContentResolver().query(SearchEntry.buildSearchUri(MovieContract.PATH_MOVIE, word),
+                        new String[]{MovieEntry.TITLE.COLUMN}, null, null, null);
+                assertNotNull("The search of " + word + " failed", cursor);
+                int count = cursor.getCount();
+                cursor.close();
+                long end = System.nanoTime();
+
+                assertTrue("The search of " + word + " didn't find " + title, count > 0);
+                if (i >= WARMUP_ITERATIONS) {
+                    queryTime += end - start;
+                    queries++;
+                    results += count;
+                }
+            }
+        }
+
+        Log.i(LOG_TAG, String.format("Local search: %d movies, %d results/query, query %d us",
+                stored.length, results / queries, queryTime / queries / 1000));
+    }
+
+    // Compares the parsers over each of the responses, with the rows that they produce having to be the same
+    public void testParserComparison() throws Exception {
+        compareParsers(Fixtures.POPULAR, MovieEntry.API_COLUMNS, MovieEntry.NONAPI_COLUMNS, new String[]{MovieEntry.SOURCE_POPULAR}, false);
+        compareParsers(Fixtures.DETAIL, MovieEntry.API_COLUMNS, MovieEntry.NONAPI_COLUMNS, new String[]{Fixtures.MEDIA_ID}, true);
+        compareParsers(Fixtures.VIDEOS, TrailerEntry.API_COLUMNS, TrailerEntry.NONAPI_COLUMNS,
+                new String[]{Fixtures.MEDIA_ID, MovieContract.PATH_MOVIE}, false);
+        compareParsers(Fixtures.REVIEWS, ReviewEntry.API_COLUMNS, ReviewEntry.NONAPI_COLUMNS, new String[]{Fixtures.MEDIA_ID}, false);
+    }
+
+    /**
+     * Runs both parsers over the fixture, logging the time and allocations per row of each of them.
+     */
+    private void compareParsers(String fixture, DatabaseColumn[] apiColumns, DatabaseColumn[] nonApiColumns,
+                                String[] key, boolean update) throws Exception {
+        final byte[] json = Fixtures.read(fixture);
+        long streamTime = 0, domTime = 0, streamAllocations = 0, domAllocations = 0;
+        int rows = 0;
+
+        for (int i = 0; i < WARMUP_ITERATIONS + ITERATIONS; i++) {
+            Debug.resetThreadAllocCount();
+            Debug.startAllocCounting();
+            long start = System.nanoTime();
+            ContentValues[] streamed = parseStream(json, apiColumns, nonApiColumns, key, update);
+            long streamedEnd = System.nanoTime();
+            int streamedAllocations = Debug.getThreadAllocCount();
+            ContentValues[] dom = parseDom(json, apiColumns, nonApiColumns, key, update);
+            long end = System.nanoTime();
+            Debug.stopAllocCounting();
+            int totalAllocations = Debug.getThreadAllocCount();
+
+            if (i == 0) {
+                assertEquals(fixture + " parsed a different number of rows", dom.length, streamed.length);
+                for (int j = 0; j < dom.length; j++) {
+                    assertEquals(fixture + " parsed a different row " + j, dom[j], streamed[j]);
+                }
+            }
+            if (i >= WARMUP_ITERATIONS) {
+                streamTime += streamedEnd - start;
+                domTime += end - streamedEnd;
+                streamAllocations += streamedAllocations;
+                domAllocations += totalAllocations - streamedAllocations;
+                rows += streamed.length;
+            }
+        }
+
+        Log.i(LOG_TAG, String.format("Parsing %s: %d rows/iteration, stream %d ns/row, dom %d ns/row, "
+                        + "stream %d allocations/row, dom %d allocations/row",
+                fixture, rows / ITERATIONS, streamTime / rows, domTime / rows, streamAllocations / rows, domAllocations / rows));
+    }
+
+    /**
+     * Runs the parse and write steps of a sync over the fixture, logging the measurements of the measured iterations.
+     *
+     * @param clearUri The uri to remove the rows written by the previous iteration from, so each iteration writes the
+     *                 same rows, null to keep them
+     */
+    private void benchmark(String name, String fixture, Uri contentUri, DatabaseColumn[] apiColumns, DatabaseColumn[] nonApiColumns,
+                           String selection, String[] key, boolean update, Uri clearUri) throws Exception {
+        final byte[] json = Fixtures.read(fixture);
+        final ContentResolver resolver = getMockContentResolver();
+
+        long parseTime = 0, writeTime = 0, parseAllocations = 0, writeAllocations = 0;
+        int rows = 0, changed = 0;
+
+        for (int i = 0; i < WARMUP_ITERATIONS + ITERATIONS; i++) {
+            if (clearUri != null) resolver.delete(clearUri, selection, key);
+
+            Debug.resetThreadAllocCount();
+            Debug.startAllocCounting();
+            long start = System.nanoTime();
+            ContentValues[] values = parseStream(json, apiColumns, nonApiColumns, key, update);
+            long parsed = System.nanoTime();
+            int parsedAllocations = Debug.getThreadAllocCount();
+            int written = TmdbApiHandler.writeValues(resolver, contentUri, values, nonApiColumns, selection, key, update, 1);
+            long end = System.nanoTime();
+            Debug.stopAllocCounting();
+            int totalAllocations = Debug.getThreadAllocCount();
+
+            if (i >= WARMUP_ITERATIONS) {
+                parseTime += parsed - start;
+                writeTime += end - parsed;
+                parseAllocations += parsedAllocations;
+                writeAllocations += totalAllocations - parsedAllocations;
+                rows += values.length;
+                changed += written;
+            }
+        }
+
+        Log.i(LOG_TAG, String.format("%s: %d rows/iteration, %d changed/iteration, parse %d ns/row, write %d ns/row, "
+                        + "parse %d allocations/row, write %d allocations/row, transaction %.3f ms",
+                name, rows / ITERATIONS, changed / ITERATIONS, parseTime / rows, writeTime / rows,
+                parseAllocations / rows, writeAllocations / rows, writeTime / (ITERATIONS * 1e6)));
+        assertTrue(name + " didn't parse any rows", rows > 0);
+    }
+
+    // Parses the response the same way as the TmdbRequest does on the network thread
+    private static ContentValues[] parseStream(byte[] json, DatabaseColumn[] apiColumns, DatabaseColumn[] nonApiColumns,
+                                               String[] key, boolean update) throws IOException {
+        return TmdbRequest.parse(new InputStreamReader(new ByteArrayInputStream(json), "UTF-8"),
+                apiColumns, nonApiColumns, key, update).VALUES;
+    }
+
+    // The JSONObject parsing that the sync used before the TmdbRequest, kept as the baseline for the comparison
+    private static ContentValues[] parseDom(byte[] json, DatabaseColumn[] apiColumns, DatabaseColumn[] nonApiColumns,
+                                            String[] key, boolean update) throws IOException, JSONException {
+        JSONObject response = new JSONObject(new String(json, "UTF-8"));
+        JSONArray data = (response.has("results")) ? response.getJSONArray("results") : new JSONArray().put(response);
+
+        ContentValues[] values = new ContentValues[data.length()];
+        for (int i = 0; i < values.length; i++) {
+            JSONObject object = data.getJSONObject(i);
+            values[i] = new ContentValues(apiColumns.length + nonApiColumns.length);
+            if (!update) {
+                for (int j = 0; j < nonApiColumns.length; j++) {
+                    values[i].put(nonApiColumns[j].COLUMN, key[j]);
+                }
+            }
+            for (DatabaseColumn apiColumn : apiColumns) {
+                switch (apiColumn.TYPE) {
+                    case "integer": {
+                        values[i].put(apiColumn.COLUMN, object.optInt(apiColumn.API, -1));
+                        break;
+                    }
+                    case "text": {
+                        values[i].put(apiColumn.COLUMN, object.optString(apiColumn.API, "null"));
+                        break;
+                    }
+                    case "real": {
+                        values[i].put(apiColumn.COLUMN, object.optDouble(apiColumn.API, -1));
+                        break;
+                    }
+                }
+            }
+        }
+        return values;
+    }
+
+}
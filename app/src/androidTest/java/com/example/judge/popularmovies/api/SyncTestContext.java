@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2015 Joshua Gwinn (jdgbolt@gmail.com)
+ */
+
+package com.example.judge.popularmovies.api;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.SharedPreferences;
+
+/**
+ * The context the syncs of the tests run in, which writes into the content resolver of an isolated provider rather
+ * than the real one, and keeps the sync times and validators in preferences of its own. It is its own application
+ * context, as that is the context the syncs hang on to.
+ */
+class SyncTestContext extends ContextWrapper {
+
+    private static final String PREFERENCES_PREFIX = "sync_test_";
+
+    private final ContentResolver mResolver;
+
+    SyncTestContext(Context base, ContentResolver resolver) {
+        super(base);
+        mResolver = resolver;
+    }
+
+    @Override
+    public Context getApplicationContext() {
+        return this;
+    }
+
+    @Override
+    public ContentResolver getContentResolver() {
+        return mResolver;
+    }
+
+    @Override
+    public SharedPreferences getSharedPreferences(String name, int mode) {
+        return super.getSharedPreferences(PREFERENCES_PREFIX + name, mode);
+    }
+
+    // The preferences the syncs keep their sync times and validators in
+    SharedPreferences getUpdatePreferences() {
+        return getSharedPreferences(getPackageName() + "_updates", Context.MODE_PRIVATE);
+    }
+}
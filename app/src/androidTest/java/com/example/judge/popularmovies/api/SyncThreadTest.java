@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2015 Joshua Gwinn (jdgbolt@gmail.com)
+ */
+
+package com.example.judge.popularmovies.api;
+
+import android.net.Uri;
+import android.os.Looper;
+import android.test.ProviderTestCase2;
+
+import com.android.volley.Response;
+import com.android.volley.VolleyError;
+import com.example.judge.popularmovies.data.MovieContract;
+import com.example.judge.popularmovies.data.MovieContract.MovieEntry;
+import com.example.judge.popularmovies.data.MovieProvider;
+
+import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests of the threads the syncing runs on, the responses of the sync queue have to be delivered off the UI thread,
+ * as that is where they are parsed and written into the database, while the listeners of the syncs are notified back
+ * on the UI thread. The syncs request a local stand-in for TheMovieDB, and write into a MovieProvider backed by an
+ * isolated database.
+ */
+public class SyncThreadTest extends ProviderTestCase2<MovieProvider> {
+
+    private static final long TIMEOUT_SECONDS = 10;
+    private static final String BASE_PATH = "/3";
+    private static final String POPULAR_PATH = BASE_PATH + "/movie/popular";
+
+    private StandInServer mServer;
+    private SyncTestContext mSyncContext;
+
+    public SyncThreadTest() {
+        super(MovieProvider.class, MovieContract.CONTENT_AUTHORITY);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        HashMap<String, byte[]> responses = new HashMap<>();
+        responses.put(POPULAR_PATH, Fixtures.read(Fixtures.POPULAR));
+        mServer = new StandInServer(responses, 0);
+        mServer.start();
+
+        // The singleton is created with the real context first, so it doesn't hang on to the one of the test
+        VolleySingleton.getInstance(getContext());
+        mSyncContext = new SyncTestContext(getContext(), getMockContentResolver());
+        mSyncContext.getUpdatePreferences().edit().clear().commit();
+        TmdbApiHandler.setApiBaseUri(Uri.parse(mServer.getUrl(BASE_PATH)));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TmdbApiHandler.setApiBaseUri(null);
+        mSyncContext.getUpdatePreferences().edit().clear().commit();
+        mServer.shutdown();
+        super.tearDown();
+    }
+
+    // The response listener of a request on the sync queue runs on the sync executor rather than the main looper
+    public void testSyncQueueDeliversOffMainLooper() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final Looper[] looper = new Looper[1];
+        final Thread[] thread = new Thread[1];
+        final VolleyError[] error = new VolleyError[1];
+
+        TmdbRequest request = new TmdbRequest(mServer.getUrl(POPULAR_PATH), MovieEntry.API_COLUMNS, MovieEntry.NONAPI_COLUMNS,
+                new String[]{MovieEntry.SOURCE_POPULAR}, false,
+                new Response.Listener<TmdbRequest.Result>() {
+                    @Override
+                    public void onResponse(TmdbRequest.Result response) {
+                        looper[0] = Looper.myLooper();
+                        thread[0] = Thread.currentThread();
+                        latch.countDown();
+                    }
+                }, new Response.ErrorListener() {
+                    @Override
+                    public void onErrorResponse(VolleyError volleyError) {
+                        error[0] = volleyError;
+                        latch.countDown();
+                    }
+                });
+        request.setShouldCache(false);
+        VolleySingleton.getInstance(getContext()).getSyncQueue().add(request);
+
+        assertTrue("The request timed out", latch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertNull("The request failed", error[0]);
+        assertNotSame("The response was delivered on the main looper", Looper.getMainLooper(), looper[0]);
+        assertNotSame("The response was delivered on the main thread", Looper.getMainLooper().getThread(), thread[0]);
+    }
+
+    // The listener of a sync is notified on the main looper, even though the sync finishes on the sync executor
+    public void testSyncFinishedOnMainLooper() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final Looper[] looper = new Looper[1];
+        final boolean[] success = new boolean[1];
+
+        TmdbApiHandler.refresh(TmdbApiHandler.SYNC_MOVIE, MovieEntry.SOURCE_POPULAR, mSyncContext,
+                new TmdbApiHandler.OnSyncFinishedListener() {
+                    @Override
+                    public void onSyncFinished(@TmdbApiHandler.SyncType int syncType, String source, boolean worked) {
+                        looper[0] = Looper.myLooper();
+                        success[0] = worked;
+                        latch.countDown();
+                    }
+                });
+
+        assertTrue("The sync timed out", latch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertTrue("The sync failed", success[0]);
+        assertEquals(1, mServer.getRequestCount());
+        assertSame("The listener wasn't notified on the main looper", Looper.getMainLooper(), looper[0]);
+    }
+}
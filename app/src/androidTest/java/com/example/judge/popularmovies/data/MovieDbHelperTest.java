@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2015 Joshua Gwinn (jdgbolt@gmail.com)
+ */
+
+package com.example.judge.popularmovies.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+
+import com.example.judge.popularmovies.data.MovieContract.DatabaseColumn;
+import com.example.judge.popularmovies.data.MovieContract.FavoriteEntry;
+import com.example.judge.popularmovies.data.MovieContract.MovieEntry;
+import com.example.judge.popularmovies.data.MovieContract.SourceEntry;
+import com.example.judge.popularmovies.data.MovieContract.SyncStateEntry;
+
+/**
+ * Tests of the schema of the database, the lookups of the source lists, favorites and sync state have to use the
+ * indexes rather than scan their tables, and a database of the oldest version that can be migrated has to keep its
+ * favorites and sources when upgraded. The databases are created under a prefix, so the one of the app is left alone.
+ */
+public class MovieDbHelperTest extends AndroidTestCase {
+
+    private static final String PREFIX = "test.";
+
+    // The version the media tables still stored a full row for each source, favorites included
+    private static final int OLDEST_VERSION = 4;
+
+    // The number of results in each page of the source lists
+    private static final int PAGE_SIZE = 20;
+
+    private RenamingDelegatingContext mContext;
+    private MovieDbHelper mHelper;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext = new RenamingDelegatingContext(getContext(), PREFIX);
+        mContext.deleteDatabase(MovieDbHelper.DATABASE_NAME);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (mHelper != null) mHelper.close();
+        mContext.deleteDatabase(MovieDbHelper.DATABASE_NAME);
+        super.tearDown();
+    }
+
+    // The source lists are read through the source view in rank order, which has to search the memberships by source
+    public void testSourceUsesIndex() {
+        SQLiteDatabase db = openHelper();
+        assertUsesIndexes(db, "select * from " + SourceEntry.MOVIE_VIEW_NAME + " where " + MovieEntry.selectSource()
+                + " order by " + SourceEntry.sortRank(), MovieEntry.SOURCE_POPULAR);
+    }
+
+    // Both the favorite of a single media and the favorites view of a media type are read through the indexes
+    public void testFavoritesUseIndex() {
+        SQLiteDatabase db = openHelper();
+        assertUsesIndexes(db, "select * from " + FavoriteEntry.TABLE_NAME + " where " + FavoriteEntry.selectMedia(),
+                MovieContract.PATH_MOVIE, "1");
+        assertUsesIndexes(db, "select * from " + FavoriteEntry.MOVIE_VIEW_NAME + " order by " + MovieEntry.TITLE.COLUMN + " asc");
+    }
+
+    public void testSyncStateUsesIndex() {
+        SQLiteDatabase db = openHelper();
+        assertUsesIndexes(db, "select * from " + SyncStateEntry.TABLE_NAME + " where " + SyncStateEntry.selectSource(),
+                MovieContract.PATH_MOVIE, MovieEntry.SOURCE_POPULAR);
+    }
+
+    // Upgrading a database of the oldest version keeps the favorites and sources, ending up with the current schema
+    public void testUpgradeKeepsData() {
+        SQLiteDatabase old = mContext.openOrCreateDatabase(MovieDbHelper.DATABASE_NAME, 0, null);
+        try {
+            createOldest(old);
+            // The rows start past the first page, as the rows of an old database had been inserted over many syncs
+            insertOldest(old, 31, MovieEntry.SOURCE_POPULAR, 1, "Alpha");
+            insertOldest(old, 32, MovieEntry.SOURCE_FAVORITE, 1, "Alpha");
+            insertOldest(old, 33, MovieEntry.SOURCE_FAVORITE, 2, "Bravo");
+            insertOldest(old, 34, MovieEntry.SOURCE_RATING, 3, "Charlie");
+            insertOldest(old, 35, MovieEntry.SOURCE_POPULAR, 3, "Charlie");
+            insertOldest(old, 36, MovieEntry.SOURCE_POPULAR, 4, "Delta");
+            old.setVersion(OLDEST_VERSION);
+        } finally {
+            old.close();
+        }
+
+        SQLiteDatabase db = openHelper();
+        assertTrue(db.getVersion() > OLDEST_VERSION);
+
+        // Every media is stored once, with the favorites and the memberships of the sources pointing to them
+        assertEquals(4, count(db, "select * from " + MovieEntry.TABLE_NAME));
+        assertEquals(4, count(db, "select distinct " + MovieContract.COLUMN_MEDIA_ID + " from " + MovieEntry.TABLE_NAME));
+        assertEquals("1,2", readMediaIds(db, "select * from " + FavoriteEntry.MOVIE_VIEW_NAME
+                + " order by " + MovieEntry.TITLE.COLUMN + " asc"));
+        assertEquals("1,3,4", readMediaIds(db, "select * from " + SourceEntry.MOVIE_VIEW_NAME + " where "
+                + MovieEntry.selectSource() + " order by " + SourceEntry.sortRank(), MovieEntry.SOURCE_POPULAR));
+        assertEquals("3", readMediaIds(db, "select * from " + SourceEntry.MOVIE_VIEW_NAME + " where "
+                + MovieEntry.selectSource(), MovieEntry.SOURCE_RATING));
+        assertEquals(0, count(db, "select * from " + SourceEntry.TABLE_NAME + " where " + SourceEntry.SOURCE.COLUMN + " = ?",
+                MovieEntry.SOURCE_FAVORITE));
+
+        // The search index was filled from the media that were already stored
+        assertEquals(1, count(db, "select * from " + MovieContract.SearchEntry.MOVIE_TABLE_NAME + " where "
+                + MovieContract.SearchEntry.MOVIE_TABLE_NAME + " match ?", "Charlie"));
+
+        // The media are ranked by their position within each source, so they are all within the first page
+        assertEquals(3, count(db, "select * from " + SourceEntry.TABLE_NAME + " where " + SourceEntry.SOURCE.COLUMN
+                + " = ? and " + SourceEntry.RANK.COLUMN + " < ?", MovieEntry.SOURCE_POPULAR, Integer.toString(PAGE_SIZE)));
+
+        // Which means a refresh of the first page removes the media that have dropped out of the source
+        MovieProvider provider = new MovieProvider();
+        provider.attachInfo(mContext, null);
+        provider.bulkInsert(MovieContract.buildMergeUri(MovieEntry.CONTENT_URI, MovieEntry.NONAPI_COLUMNS,
+                new String[]{MovieEntry.SOURCE_POPULAR}, 0, PAGE_SIZE), new ContentValues[]{
+                newMedia(MovieEntry.SOURCE_POPULAR, 0, 3, "Charlie"), newMedia(MovieEntry.SOURCE_POPULAR, 1, 1, "Alpha")});
+        assertEquals("3,1", readMediaIds(db, "select * from " + SourceEntry.MOVIE_VIEW_NAME + " where "
+                + MovieEntry.selectSource() + " order by " + SourceEntry.sortRank(), MovieEntry.SOURCE_POPULAR));
+        assertEquals(0, count(db, "select * from " + MovieEntry.TABLE_NAME + " where " + MovieEntry.selectId(), "4"));
+
+        // The upgraded database has the same tables, indexes, views and triggers as a new one
+        String upgraded = readSchema(db);
+        mHelper.close();
+        mContext.deleteDatabase(MovieDbHelper.DATABASE_NAME);
+        assertEquals(readSchema(openHelper()), upgraded);
+    }
+
+    private SQLiteDatabase openHelper() {
+        mHelper = new MovieDbHelper(mContext);
+        return mHelper.getWritableDatabase();
+    }
+
+    // Fails if the plan of the query scans any of its tables rather than searching them through an index
+    private void assertUsesIndexes(SQLiteDatabase db, String sql, String... selectionArgs) {
+        Cursor cursor = db.rawQuery("explain query plan " + sql, selectionArgs);
+        try {
+            int detailIndex = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                String detail = cursor.getString(detailIndex);
+                assertFalse("Scanned without an index: " + detail, detail.startsWith("SCAN") && !detail.contains("INDEX"));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // Creates the media tables of the oldest version, which had the source of each row as a column of its own
+    private void createOldest(SQLiteDatabase db) {
+        createOldest(db, MovieEntry.TABLE_NAME, DatabaseColumn.concat(MovieEntry.NONAPI_COLUMNS, MovieEntry.API_COLUMNS));
+        createOldest(db, MovieContract.ReviewEntry.TABLE_NAME, new DatabaseColumn[]{MovieContract.ReviewEntry.MEDIA_ID,
+                MovieContract.ReviewEntry.AUTHOR, MovieContract.ReviewEntry.REVIEW});
+        createOldest(db, MovieContract.TrailerEntry.TABLE_NAME, MovieContract.TrailerEntry.COLUMNS);
+        createOldest(db, MovieContract.TVEntry.TABLE_NAME,
+                DatabaseColumn.concat(MovieContract.TVEntry.NONAPI_COLUMNS, MovieContract.TVEntry.API_COLUMNS));
+    }
+
+    private void createOldest(SQLiteDatabase db, String tableName, DatabaseColumn[] columns) {
+        String sql = "create table " + tableName + " (_id integer primary key";
+        for (DatabaseColumn column : columns) {
+            sql += ", " + column.COLUMN + " " + column.TYPE + " " + column.ARGS;
+        }
+        db.execSQL(sql + ");");
+    }
+
+    // Inserts a full row of a movie within a source, the way the oldest version stored each of them
+    private void insertOldest(SQLiteDatabase db, long _id, String source, int mediaId, String title) {
+        ContentValues values = newMedia(source, -1, mediaId, title);
+        values.remove(SourceEntry.RANK.COLUMN);
+        values.put("_id", _id);
+        assertTrue(db.insert(MovieEntry.TABLE_NAME, null, values) > 0);
+    }
+
+    // The values of a movie within a source, as they are synced with the columns the lists leave out defaulted
+    private ContentValues newMedia(String source, int rank, int mediaId, String title) {
+        ContentValues values = new ContentValues();
+        for (DatabaseColumn column : MovieEntry.API_COLUMNS) {
+            Object value = column.getDefault();
+            if (value instanceof Integer) {
+                values.put(column.COLUMN, (Integer) value);
+            } else if (value instanceof Double) {
+                values.put(column.COLUMN, (Double) value);
+            } else {
+                values.put(column.COLUMN, value.toString());
+            }
+        }
+        values.put(MovieEntry.SOURCE.COLUMN, source);
+        values.put(MovieEntry.MEDIA_ID.COLUMN, mediaId);
+        values.put(MovieEntry.TITLE.COLUMN, title);
+        values.put(MovieEntry.ORIGINAL_TITLE.COLUMN, title);
+        values.put(SourceEntry.RANK.COLUMN, rank);
+        return values;
+    }
+
+    private int count(SQLiteDatabase db, String sql, String... selectionArgs) {
+        Cursor cursor = db.rawQuery(sql, selectionArgs);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // The media ids of the rows of the query joined by commas, in the order they were returned
+    private String readMediaIds(SQLiteDatabase db, String sql, String... selectionArgs) {
+        Cursor cursor = db.rawQuery(sql, selectionArgs);
+        try {
+            String ids = "";
+            int idIndex = cursor.getColumnIndexOrThrow(MovieContract.COLUMN_MEDIA_ID);
+            while (cursor.moveToNext()) {
+                ids += ((ids.isEmpty()) ? "" : ",") + cursor.getInt(idIndex);
+            }
+            return ids;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // The types and names of everything within the schema, one per line in the order of their names
+    private String readSchema(SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery("select type, name from sqlite_master where name not like 'sqlite%' order by name", null);
+        try {
+            String schema = "";
+            while (cursor.moveToNext()) {
+                schema += cursor.getString(0) + " " + cursor.getString(1) + "\n";
+            }
+            return schema;
+        } finally {
+            cursor.close();
+        }
+    }
+}
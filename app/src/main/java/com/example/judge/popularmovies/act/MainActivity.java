@@ -19,10 +19,13 @@ import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.Toolbar;
 import android.view.MenuItem;
 import android.view.MotionEvent;
+import android.view.View;
 import android.widget.FrameLayout;
 
 import com.example.judge.popularmovies.R;
 import com.example.judge.popularmovies.adap.PosterPagerAdaptor;
+import com.example.judge.popularmovies.api.FrameMonitor;
+import com.example.judge.popularmovies.api.SyncJobService;
 import com.example.judge.popularmovies.data.MovieContract;
 import com.example.judge.popularmovies.data.MovieContract.MovieEntry;
 import com.example.judge.popularmovies.data.MovieContract.TVEntry;
@@ -112,6 +115,9 @@ public class MainActivity extends AppCompatActivity implements
     private PosterPagerAdaptor mAdaptor;
     private String mMediaSource;
 
+    // The media type of the detail that was last opened, used to name the screen for the frame monitor
+    private String mDetailType;
+
     // Simple boolean to check whether we are on a phone or not
     private boolean isPhone;
 
@@ -158,6 +164,19 @@ public class MainActivity extends AppCompatActivity implements
             isPhone = true;
         }
 
+        // The frames are attributed to the detail while its drawer is open, and back to the grid once it is closed
+        mDrawerLayout.setDrawerListener(new DrawerLayout.SimpleDrawerListener() {
+            @Override
+            public void onDrawerOpened(View drawerView) {
+                FrameMonitor.setScreen(getScreen());
+            }
+
+            @Override
+            public void onDrawerClosed(View drawerView) {
+                FrameMonitor.setScreen(getScreen());
+            }
+        });
+
         // Have our tabs fill the entire width of the view size
         mTabLayout.setTabGravity(TabLayout.GRAVITY_FILL);
 
@@ -168,6 +187,35 @@ public class MainActivity extends AppCompatActivity implements
 
         // Set our source in order to fill the view pager and setup the poster fragments
         setSource(mPref.getString(getString(R.string.pref_source_key), MovieContract.PATH_MOVIE));
+
+        // Make sure the background sync is scheduled, so the next start has the sources ready
+        SyncJobService.schedule(this);
+    }
+
+    // Record the frames while we are showing, if the frame metrics have been turned on in the settings
+    @Override
+    protected void onResume() {
+        super.onResume();
+        if (FrameMonitor.isEnabled(this)) {
+            FrameMonitor.setScreen(getScreen());
+            FrameMonitor.start(this);
+        }
+    }
+
+    @Override
+    protected void onPause() {
+        FrameMonitor.stop();
+        super.onPause();
+    }
+
+    // The name of the screen showing for the frame monitor, the detail while its drawer is open, otherwise the tab of the grid
+    private String getScreen() {
+        if (isPhone && mDrawerLayout.isDrawerOpen(GravityCompat.END)) {
+            return (mDetailType != null) ? "detail/" + mDetailType : "detail";
+        }
+        int position = mPosterPager.getCurrentItem();
+        if (position >= mAdaptor.getCount()) return "grid/" + mMediaSource;
+        return "grid/" + mAdaptor.getType(position) + "/" + mAdaptor.getSource(position);
     }
 
     /**
@@ -232,6 +280,7 @@ public class MainActivity extends AppCompatActivity implements
             sourceNames = titles;
             mMediaSource = type;
             mPref.edit().putString(getString(R.string.pref_source_key), type).apply();
+            FrameMonitor.setScreen(getScreen());
         }
     }
 
@@ -277,6 +326,7 @@ public class MainActivity extends AppCompatActivity implements
     @Override
     public void onPageSelected(int position) {
         setTitle(sourceNames[position]);
+        FrameMonitor.setScreen(getScreen());
     }
 
     /**
@@ -322,6 +372,10 @@ public class MainActivity extends AppCompatActivity implements
 
     public void openDetail(int mediaId, String type) {
 
+        // The frames until the detail has finished opening are attributed to the opening rather than a screen
+        mDetailType = type;
+        FrameMonitor.startTransition("detail_open/" + type);
+
         // Create a new detail fragment and set it's arguments
         Fragment detailFragment = new DetailFragment();
 
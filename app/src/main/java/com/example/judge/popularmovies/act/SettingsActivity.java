@@ -11,10 +11,12 @@ import android.support.v7.widget.Toolbar;
 import android.view.WindowManager;
 
 import com.example.judge.popularmovies.R;
+import com.example.judge.popularmovies.frag.SettingsFragment;
 
 
 /**
- * Activity to hold the settings fragment, which contains the settings for the application.
+ * Activity to hold the settings fragment, which contains the settings for the application. The debug screens
+ * opened from the settings replace it within the same activity, going back to the settings when closed.
  */
 
 public class SettingsActivity extends AppCompatActivity {
@@ -34,6 +36,11 @@ public class SettingsActivity extends AppCompatActivity {
             getWindow().addFlags(WindowManager.LayoutParams.FLAG_DRAWS_SYSTEM_BAR_BACKGROUNDS);
             getWindow().setStatusBarColor(getResources().getColor(R.color.primary_dark));
         }
+
+        // The settings are only added the first time, after that the fragment manager restores whatever was showing
+        if (savedInstanceState == null) {
+            getFragmentManager().beginTransaction().add(R.id.settings_container, new SettingsFragment()).commit();
+        }
     }
 
 }
@@ -16,6 +16,8 @@ import android.widget.TextView;
 
 import com.android.volley.toolbox.NetworkImageView;
 import com.example.judge.popularmovies.R;
+import com.example.judge.popularmovies.api.FrameMonitor;
+import com.example.judge.popularmovies.api.ImageSizeResolver;
 import com.example.judge.popularmovies.api.VolleySingleton;
 import com.example.judge.popularmovies.data.MovieContract;
 import com.example.judge.popularmovies.frag.DetailFragment;
@@ -26,7 +28,9 @@ import com.example.judge.popularmovies.frag.DetailFragment;
  * in order to have a scrollable view with the review and trailer data, which is a variable amount.
  * The implementation is somewhat complicated, with 3 cursors feeding the view and some logic for
  * what stuff goes where. The main detail view is the first position, with trailers below that then
- * review data.
+ * review data. Each cursor feeds its own section, and a new cursor only notifies the rows of its section, as
+ * changed, inserted or removed ranges, so the arrival of the trailers or reviews doesn't rebind the detail view
+ * or the other section. The ids of the rows are stable, made from the id of the row and its view type.
  */
 public class DetailAdaptor extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
 
@@ -34,6 +38,7 @@ public class DetailAdaptor extends RecyclerView.Adapter<RecyclerView.ViewHolder>
     private static final int VIEW_TYPE_TRAILER = 0;
     private static final int VIEW_TYPE_REVIEW = 1;
     private static final int VIEW_TYPE_DETAIL = 2;
+    private static final int VIEW_TYPE_COUNT = 3;
 
     // The number of static views at the top
     private static final int[] STATIC_VIEWS = {
@@ -55,17 +60,55 @@ public class DetailAdaptor extends RecyclerView.Adapter<RecyclerView.ViewHolder>
         super();
         mContext = context;
         mType = type;
+        setHasStableIds(true);
     }
 
     // This is where we get the position data, fairly simple, getting first the static views, trailers, then reviews
     @Override
     public int getItemViewType(int position) {
         if (position < STATIC_VIEWS.length) return STATIC_VIEWS[position];
-        if (position < STATIC_VIEWS.length + mTrailerCount) return VIEW_TYPE_TRAILER;
-        if (position < STATIC_VIEWS.length + mReviewCount + mTrailerCount) return VIEW_TYPE_REVIEW;
+        if (position < getReviewStart()) return VIEW_TYPE_TRAILER;
+        if (position < getReviewStart() + mReviewCount) return VIEW_TYPE_REVIEW;
         return super.getItemViewType(position);
     }
 
+    // The trailers start after the static views, and the reviews after the trailers
+    private int getTrailerStart() {
+        return STATIC_VIEWS.length;
+    }
+
+    private int getReviewStart() {
+        return STATIC_VIEWS.length + mTrailerCount;
+    }
+
+    /**
+     * The id of a row is its id in the table it comes from, combined with its view type so that the rows of the
+     * different tables can't share an id. The static views don't come from a table, so they just use their view type.
+     *
+     * @param position The position within the recyclerview
+     * @return Returns the stable id of the row
+     */
+    @Override
+    public long getItemId(int position) {
+        long rowId = 0;
+        int viewType = getItemViewType(position);
+        switch (viewType) {
+            case VIEW_TYPE_TRAILER: {
+                if (mTrailerCursor != null && mTrailerCursor.moveToPosition(position - getTrailerStart())) {
+                    rowId = mTrailerCursor.getLong(DetailFragment.COLUMN_TRAILER_ID);
+                }
+                break;
+            }
+            case VIEW_TYPE_REVIEW: {
+                if (mReviewCursor != null && mReviewCursor.moveToPosition(position - getReviewStart())) {
+                    rowId = mReviewCursor.getLong(DetailFragment.COLUMN_REVIEW_ID);
+                }
+                break;
+            }
+        }
+        return rowId * VIEW_TYPE_COUNT + viewType;
+    }
+
 
     // Create the viewholders for each type
     @Override
@@ -85,6 +128,14 @@ public class DetailAdaptor extends RecyclerView.Adapter<RecyclerView.ViewHolder>
         return null;
     }
 
+    // Bind the view holder, timed for the frame monitor
+    @Override
+    public void onBindViewHolder(RecyclerView.ViewHolder holder, int position) {
+        long bindStart = FrameMonitor.bindStarted();
+        bindHolder(holder, position);
+        FrameMonitor.bindFinished(FrameMonitor.BIND_DETAIL, bindStart);
+    }
+
     /**
      * This is a fairly complicated function which handles the actual populating of data into the
      * views.
@@ -92,8 +143,7 @@ public class DetailAdaptor extends RecyclerView.Adapter<RecyclerView.ViewHolder>
      * @param holder   The holder to populate
      * @param position The position within the recyclerview
      */
-    @Override
-    public void onBindViewHolder(RecyclerView.ViewHolder holder, int position) {
+    private void bindHolder(RecyclerView.ViewHolder holder, int position) {
 
         // First we get what view type it should be, then populating the view depending on which type
         switch (getItemViewType(position)) {
@@ -102,11 +152,10 @@ public class DetailAdaptor extends RecyclerView.Adapter<RecyclerView.ViewHolder>
             case VIEW_TYPE_DETAIL: {
 
                 // Check whether we have actual data to put into the view, and moving the cursor to the first element if we do
-                if (mMediaCursor == null) return;
+                if (mMediaCursor == null || !mMediaCursor.moveToFirst()) return;
                 String posterUrl, title, status, overview, runtime, release;
                 double rating;
                 int voteCount;
-                mMediaCursor.moveToFirst();
 
                 // Here we are populating the fields that are specific to each type, as the data for release date and runtime is different
                 switch (mType) {
@@ -159,14 +208,8 @@ public class DetailAdaptor extends RecyclerView.Adapter<RecyclerView.ViewHolder>
             // Populate a review view
             case VIEW_TYPE_REVIEW: {
 
-                // Check to make sure that our data isn't null, and set the position to the right offset
-                if (mReviewCursor == null) return;
-                int reviewPos = position - (STATIC_VIEWS.length + mReviewCount);
-                if (reviewPos >= 0 && reviewPos < mReviewCount) {
-                    mReviewCursor.moveToPosition(reviewPos);
-                } else {
-                    mReviewCursor.moveToFirst();
-                }
+                // Check to make sure that our data isn't null, and move to the position within the reviews section
+                if (mReviewCursor == null || !mReviewCursor.moveToPosition(position - getReviewStart())) return;
 
                 // Get our holder and set the text values with the author and the review content
                 ReviewHolder rh = (ReviewHolder) holder;
@@ -178,14 +221,8 @@ public class DetailAdaptor extends RecyclerView.Adapter<RecyclerView.ViewHolder>
             // Populate a trailer view
             case VIEW_TYPE_TRAILER: {
 
-                // Check to make sure that our data isn't null, and set the position to the right offset
-                if (mTrailerCursor == null) return;
-                int trailerPos = position - (STATIC_VIEWS.length + mReviewCount);
-                if (trailerPos >= 0 && trailerPos < mTrailerCount) {
-                    mTrailerCursor.moveToPosition(trailerPos);
-                } else {
-                    mTrailerCursor.moveToFirst();
-                }
+                // Check to make sure that our data isn't null, and move to the position within the trailers section
+                if (mTrailerCursor == null || !mTrailerCursor.moveToPosition(position - getTrailerStart())) return;
 
                 // Get our holder and set the required fields, including some internal variables that are used when the view is clicked
                 TrailerHolder th = (TrailerHolder) holder;
@@ -202,22 +239,43 @@ public class DetailAdaptor extends RecyclerView.Adapter<RecyclerView.ViewHolder>
         return STATIC_VIEWS.length + mTrailerCount + mReviewCount;
     }
 
-    // These next 3 functions swap the cursor data into the right fields
+    // These next 3 functions swap the cursor data into the right fields, each only notifying the rows of its own section
     public void swapMediaCursor(Cursor cursor) {
         mMediaCursor = cursor;
-        notifyDataSetChanged();
+        notifyItemChanged(0);
     }
 
     public void swapTrailerCursor(Cursor cursor) {
+        int oldCount = mTrailerCount;
         mTrailerCursor = cursor;
         mTrailerCount = (mTrailerCursor != null) ? mTrailerCursor.getCount() : 0;
-        notifyDataSetChanged();
+        notifySectionChanged(getTrailerStart(), oldCount, mTrailerCount);
     }
 
     public void swapReviewCursor(Cursor cursor) {
+        int oldCount = mReviewCount;
         mReviewCursor = cursor;
         mReviewCount = (mReviewCursor != null) ? mReviewCursor.getCount() : 0;
-        notifyDataSetChanged();
+        notifySectionChanged(getReviewStart(), oldCount, mReviewCount);
+    }
+
+    /**
+     * Notifies the change of a section from its old number of rows to the new one. The rows that are in both are
+     * changed, and the rest are either inserted or removed at the end of the section, which moves the sections
+     * below it along.
+     *
+     * @param start    The position of the first row of the section
+     * @param oldCount The number of rows the section had
+     * @param newCount The number of rows the section has now
+     */
+    private void notifySectionChanged(int start, int oldCount, int newCount) {
+        int common = Math.min(oldCount, newCount);
+        if (common > 0) notifyItemRangeChanged(start, common);
+        if (newCount > oldCount) {
+            notifyItemRangeInserted(start + oldCount, newCount - oldCount);
+        } else if (oldCount > newCount) {
+            notifyItemRangeRemoved(start + newCount, oldCount - newCount);
+        }
     }
 
     // This is the view holder for the main view, ButterKnife didn't like populating these views so they are done manually
@@ -231,6 +289,7 @@ public class DetailAdaptor extends RecyclerView.Adapter<RecyclerView.ViewHolder>
         final TextView mRating;
         final TextView mOverview;
         final TextView mShare;
+        private String mPosterUrl;
 
         public DetailHolder(View itemView) {
             super(itemView);
@@ -247,11 +306,15 @@ public class DetailAdaptor extends RecyclerView.Adapter<RecyclerView.ViewHolder>
             mShare.setOnClickListener(this);
         }
 
-        // Sets the poster correctly, including setting default poster images
+        // Sets the poster correctly, including setting default poster images, leaving it alone if it is already showing the same one
         void setPoster(String url) {
-            mPoster.setImageUrl(mContext.getString(R.string.api_poster_base_path) + url, VolleySingleton.getInstance(mContext).getImageLoader());
+            int width = mContext.getResources().getDimensionPixelSize(R.dimen.detail_poster_width);
+            String posterUrl = ImageSizeResolver.getPosterBasePath(mContext, width) + url;
+            if (posterUrl.equals(mPosterUrl)) return;
+            mPosterUrl = posterUrl;
             mPoster.setDefaultImageResId(R.drawable.noposter);
             mPoster.setErrorImageResId(R.drawable.noposter);
+            mPoster.setImageUrl(posterUrl, VolleySingleton.getInstance(mContext).getImageLoader());
         }
 
         // This function sends a share intent with the first trailer to any apps that listen for plain text
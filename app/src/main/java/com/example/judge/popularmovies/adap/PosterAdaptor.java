@@ -5,6 +5,7 @@
 package com.example.judge.popularmovies.adap;
 
 import android.database.Cursor;
+import android.os.AsyncTask;
 import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -14,37 +15,88 @@ import android.widget.TextView;
 import com.android.volley.toolbox.NetworkImageView;
 import com.example.judge.popularmovies.R;
 import com.example.judge.popularmovies.act.MainActivity;
+import com.example.judge.popularmovies.api.FrameMonitor;
+import com.example.judge.popularmovies.api.ImageSizeResolver;
 import com.example.judge.popularmovies.api.VolleySingleton;
-import com.example.judge.popularmovies.frag.PosterFragment;
+
+import java.util.ArrayList;
 
 /**
  * Adaptor in order to feed the gridview movie posters, uses volley in order to provide
- * dynamically cached images for use in the view
+ * dynamically cached images for use in the view. The rows are bound from a snapshot of the
+ * cursor, and when a new cursor is swapped in its rows are compared with the current ones on a
+ * background thread, so only the posters that were actually changed, added, removed or moved
+ * are notified rather than rebinding the whole grid. The snapshot holds the full poster urls, so
+ * binding a poster doesn't allocate anything, and the snapshot that was replaced is reused for
+ * the next cursor. Recycled view holders let go of their poster, so its bitmap can be reused.
  */
 
 public class PosterAdaptor extends RecyclerView.Adapter<PosterAdaptor.ViewHolder> {
 
     private final MainActivity mContext;
-    private Cursor mCursor;
+    private PosterSnapshot mRows = PosterSnapshot.empty();
     private String mType;
+    private String mPosterBasePath;
+
+    // The last snapshot that was replaced and isn't being used by a diff, which can be refilled by the next cursor
+    private PosterSnapshot mRecycledRows;
 
-    public PosterAdaptor(MainActivity c) {
+    // The diff currently being worked out, a newer cursor replaces it
+    private DiffTask mDiffTask;
+
+    public PosterAdaptor(MainActivity c, int posterWidth) {
         mContext = c;
+        mPosterBasePath = ImageSizeResolver.getPosterBasePath(c, posterWidth);
+        setHasStableIds(true);
     }
 
-    // Swaps the cursor, closing a cursor if it isn't null just to save some memory.
-    public void swapCursor(Cursor cursor, final String type) {
-        if (mCursor != null && cursor == null) mCursor.close();
-        mCursor = cursor;
-        mType = type;
+    /**
+     * Sets the width of the posters in the grid, if this changes the size of the posters to download the urls
+     * are rebuilt and the grid is rebound.
+     *
+     * @param posterWidth The width of a poster in pixels
+     */
+    public void setPosterWidth(int posterWidth) {
+        String basePath = ImageSizeResolver.getPosterBasePath(mContext, posterWidth);
+        if (basePath.equals(mPosterBasePath)) return;
+        mPosterBasePath = basePath;
+        mRows.setBasePath(basePath);
         notifyDataSetChanged();
     }
 
-    // Return how many posters there are, but only if we actually have that data to give.
+    /**
+     * Swaps in the rows of a new cursor. The first rows, or the rows of a different media type, are shown straight
+     * away, otherwise the difference to the current rows is worked out in the background and then notified.
+     *
+     * @param cursor The cursor with the new rows, can be null to clear the rows
+     * @param type   The media type of the rows
+     */
+    public void swapCursor(Cursor cursor, final String type) {
+        boolean diffing = mDiffTask != null;
+        if (diffing) {
+            // The cancelled diff may still be reading its snapshots, so those can't be reused
+            mDiffTask.cancel(false);
+            mDiffTask = null;
+            mRecycledRows = null;
+        }
+        PosterSnapshot rows = PosterSnapshot.fromCursor(cursor, mPosterBasePath, mRecycledRows);
+        mRecycledRows = null;
+
+        if (mRows.mCount == 0 || rows.mCount == 0 || type == null || !type.equals(mType)) {
+            if (!diffing) mRecycledRows = mRows;
+            mRows = rows;
+            mType = type;
+            notifyDataSetChanged();
+        } else {
+            mDiffTask = new DiffTask(mRows, rows);
+            mDiffTask.execute();
+        }
+    }
+
+    // Return how many posters there are
     @Override
     public int getItemCount() {
-        if (mCursor != null) return mCursor.getCount();
-        else return 0;
+        return mRows.mCount;
     }
 
     @Override
@@ -53,24 +105,75 @@ public class PosterAdaptor extends RecyclerView.Adapter<PosterAdaptor.ViewHolder
         return new ViewHolder(v);
     }
 
-    // Bind the view holder, setting the URL for the Poster ImageView and the title.
+    /**
+     * Returns the url of the poster at a position, used both for binding and for prefetching the posters
+     *
+     * @param position The position of the poster
+     * @return Returns the url, or null if there is no poster or the position is outside of the data
+     */
+    public String getPosterUrl(int position) {
+        if (position < 0 || position >= mRows.mCount) return null;
+        return mRows.mPosterUrls[position];
+    }
+
+    // The title of the poster at a position, straight out of the snapshot of the rows
+    String getTitle(int position) {
+        return mRows.mTitles[position];
+    }
+
+    // Bind the view holder, setting the URL for the Poster ImageView and the title, timed for the frame monitor
     @Override
     public void onBindViewHolder(ViewHolder holder, int position) {
-        mCursor.moveToPosition(position);
-        String posterPath = mCursor.getString(PosterFragment.COLUMN_POSTER_PATH);
-        if (!posterPath.equals("null")) {
-            String imageUrl = mContext.getString(R.string.api_poster_base_path) + posterPath;
-            holder.mImageView.setImageUrl(imageUrl, VolleySingleton.getInstance(mContext).getImageLoader());
-        }
+        long bindStart = FrameMonitor.bindStarted();
         holder.mImageView.setDefaultImageResId(R.drawable.noposter);
         holder.mImageView.setErrorImageResId(R.drawable.noposter);
-        holder.mTextView.setText(mCursor.getString(PosterFragment.COLUMN_TITLE));
+        holder.mImageView.setImageUrl(getPosterUrl(position), VolleySingleton.getInstance(mContext).getImageLoader());
+        holder.mTextView.setText(getTitle(position));
+        FrameMonitor.bindFinished(FrameMonitor.BIND_POSTER, bindStart);
+    }
 
+    // Clears the poster of a view holder going back to the recycler, releasing its bitmap so it can be pooled once evicted
+    @Override
+    public void onViewRecycled(ViewHolder holder) {
+        holder.mImageView.setImageUrl(null, VolleySingleton.getInstance(mContext).getImageLoader());
     }
 
+    // The media id is stable for a poster, no matter where it moves within the grid
     @Override
     public long getItemId(int position) {
-        return position;
+        return mRows.mIds[position];
+    }
+
+    // Works out the updates between the current and the new rows in the background, and then applies them
+    private class DiffTask extends AsyncTask<Void, Void, ArrayList<PosterSnapshot.Update>> {
+        private final PosterSnapshot mOldRows;
+        private final PosterSnapshot mNewRows;
+
+        DiffTask(PosterSnapshot oldRows, PosterSnapshot newRows) {
+            mOldRows = oldRows;
+            mNewRows = newRows;
+        }
+
+        @Override
+        protected ArrayList<PosterSnapshot.Update> doInBackground(Void... params) {
+            return PosterSnapshot.diff(mOldRows, mNewRows);
+        }
+
+        @Override
+        protected void onPostExecute(ArrayList<PosterSnapshot.Update> updates) {
+            if (mDiffTask != this) return;
+            mDiffTask = null;
+            mRecycledRows = mOldRows;
+            mRows = mNewRows;
+            if (!mRows.mBasePath.equals(mPosterBasePath)) mRows.setBasePath(mPosterBasePath);
+            if (updates == null) {
+                notifyDataSetChanged();
+                return;
+            }
+            for (PosterSnapshot.Update update : updates) {
+                update.dispatch(PosterAdaptor.this);
+            }
+        }
     }
 
     // ViewHolder for the Poster Recycler View
@@ -92,8 +195,9 @@ public class PosterAdaptor extends RecyclerView.Adapter<PosterAdaptor.ViewHolder
          */
         @Override
         public void onClick(View v) {
-            mCursor.moveToPosition(getAdapterPosition());
-            mContext.openDetail(mCursor.getInt(PosterFragment.COLUMN_MEDIA_ID), mType);
+            int position = getAdapterPosition();
+            if (position == RecyclerView.NO_POSITION) return;
+            mContext.openDetail((int) mRows.mIds[position], mType);
         }
     }
 }
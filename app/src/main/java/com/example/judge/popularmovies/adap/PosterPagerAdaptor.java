@@ -31,6 +31,15 @@ public class PosterPagerAdaptor extends FragmentStatePagerAdapter {
         types.add(type);
     }
 
+    // The source and media type of the fragment at the position
+    public String getSource(int position) {
+        return sources.get(position);
+    }
+
+    public String getType(int position) {
+        return types.get(position);
+    }
+
     // Clear the pager
     public void clear() {
         sources.clear();
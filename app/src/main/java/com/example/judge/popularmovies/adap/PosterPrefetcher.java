@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2015 Joshua Gwinn (jdgbolt@gmail.com)
+ */
+
+package com.example.judge.popularmovies.adap;
+
+import android.support.v7.widget.GridLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.util.SparseArray;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ImageView;
+
+import com.android.volley.toolbox.ImageLoader.ImageContainer;
+import com.example.judge.popularmovies.R;
+import com.example.judge.popularmovies.api.PriorityImageLoader;
+
+/**
+ * Scroll listener for the poster grid which warms the image cache with the posters of the rows that are about
+ * to scroll into view. It looks at the direction of the scroll, and uses the distance scrolled since the last
+ * frame as the velocity in order to decide how many rows ahead to prefetch, so a fling fetches further ahead
+ * than a slow scroll. Prefetches for rows that have scrolled into view or are now behind the scroll are
+ * cancelled, the ones that are in view carry on as the requests of the bound views are batched with them.
+ */
+
+public class PosterPrefetcher extends RecyclerView.OnScrollListener {
+
+    // The range of how many rows ahead of the scroll the posters are prefetched
+    private static final int MIN_PREFETCH_ROWS = 2;
+    private static final int MAX_PREFETCH_ROWS = 6;
+
+    // How many frames of scrolling at the current velocity the prefetch tries to stay ahead of
+    private static final int PREFETCH_FRAMES = 10;
+
+    private final PosterAdaptor mAdaptor;
+    private final GridLayoutManager mLayoutManager;
+    private final PriorityImageLoader mImageLoader;
+
+    // The prefetches that are currently running, keyed by their position
+    private final SparseArray<ImageContainer> mPrefetches = new SparseArray<>();
+
+    public PosterPrefetcher(PosterAdaptor adaptor, GridLayoutManager layoutManager, PriorityImageLoader imageLoader) {
+        mAdaptor = adaptor;
+        mLayoutManager = layoutManager;
+        mImageLoader = imageLoader;
+    }
+
+    @Override
+    public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+        if (dy == 0) return;
+
+        int first = mLayoutManager.findFirstVisibleItemPosition();
+        int last = mLayoutManager.findLastVisibleItemPosition();
+        View cell = mLayoutManager.findViewByPosition(first);
+        if (first == RecyclerView.NO_POSITION || cell == null || cell.getHeight() == 0) return;
+
+        // The image view of a bound cell gives the size and scale type that are part of the cache key
+        ImageView imageView = (ImageView) cell.findViewById(R.id.grid_item_moviepost_imageview);
+        if (imageView == null || imageView.getWidth() == 0) return;
+        ViewGroup.LayoutParams params = imageView.getLayoutParams();
+        int maxWidth = (params.width == ViewGroup.LayoutParams.WRAP_CONTENT) ? 0 : imageView.getWidth();
+        int maxHeight = (params.height == ViewGroup.LayoutParams.WRAP_CONTENT) ? 0 : imageView.getHeight();
+
+        // Work out how far ahead to prefetch from the velocity, and the range of positions that covers
+        int rows = MIN_PREFETCH_ROWS + Math.abs(dy) * PREFETCH_FRAMES / cell.getHeight();
+        int count = Math.min(rows, MAX_PREFETCH_ROWS) * mLayoutManager.getSpanCount();
+        int start = (dy > 0) ? last + 1 : Math.max(0, first - count);
+        int end = (dy > 0) ? Math.min(mAdaptor.getItemCount(), last + 1 + count) : first;
+
+        // Cancel the prefetches that are no longer ahead of the scroll
+        for (int i = mPrefetches.size() - 1; i >= 0; i--) {
+            int position = mPrefetches.keyAt(i);
+            if (position < start || position >= end) {
+                mPrefetches.valueAt(i).cancelRequest();
+                mPrefetches.removeAt(i);
+            }
+        }
+
+        // Start the prefetches for the positions that aren't already being fetched
+        for (int position = start; position < end; position++) {
+            if (mPrefetches.get(position) != null) continue;
+            String url = mAdaptor.getPosterUrl(position);
+            if (url == null) continue;
+            ImageContainer container = mImageLoader.prefetch(url, maxWidth, maxHeight, imageView.getScaleType());
+            if (container.getBitmap() == null) {
+                mPrefetches.put(position, container);
+            }
+        }
+    }
+
+    // Cancels all of the running prefetches, for when the data changes or the grid is torn down
+    public void cancelAll() {
+        for (int i = 0; i < mPrefetches.size(); i++) {
+            mPrefetches.valueAt(i).cancelRequest();
+        }
+        mPrefetches.clear();
+    }
+}
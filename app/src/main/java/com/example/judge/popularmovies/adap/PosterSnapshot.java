@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2015 Joshua Gwinn (jdgbolt@gmail.com)
+ */
+
+package com.example.judge.popularmovies.adap;
+
+import android.database.Cursor;
+import android.support.v7.widget.RecyclerView;
+import android.text.TextUtils;
+
+import com.example.judge.popularmovies.frag.PosterFragment;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * In memory copy of the rows of a poster cursor, which is what the PosterAdaptor binds from. Keeping a copy
+ * allows the rows of a new cursor to be compared against the rows currently shown, working out which posters
+ * were removed, inserted, moved or changed, so only those have to be rebound rather than the whole grid. The
+ * comparison can be quite a bit of work for a long list, so it is meant to be done off the UI thread. The rows
+ * are stored in parallel arrays, including the full url of each poster, so that binding a row doesn't need to
+ * touch the cursor or build any strings, and the arrays of a snapshot that is no longer used can be refilled
+ * with the next load rather than allocating new ones.
+ */
+
+class PosterSnapshot {
+
+    // Past this many rows the moves get too expensive to work out, so the whole grid is just rebound instead
+    private static final int MAX_DIFF_ROWS = 2000;
+
+    long[] mIds;
+    String[] mTitles;
+    String[] mPosterPaths;
+    String[] mPosterUrls;
+    String mBasePath;
+    int mCount;
+
+    private PosterSnapshot(int capacity) {
+        mIds = new long[capacity];
+        mTitles = new String[capacity];
+        mPosterPaths = new String[capacity];
+        mPosterUrls = new String[capacity];
+    }
+
+    /**
+     * Copies the rows of the cursor, this needs to happen on the thread the cursor is delivered to.
+     *
+     * @param cursor   The cursor to copy, can be null for no rows
+     * @param basePath The base path of the poster urls
+     * @param recycled A snapshot that is no longer used, whose arrays are reused if they are big enough, can be null
+     * @return Returns the snapshot of the rows
+     */
+    static PosterSnapshot fromCursor(Cursor cursor, String basePath, PosterSnapshot recycled) {
+        int count = (cursor != null) ? cursor.getCount() : 0;
+        PosterSnapshot snapshot = (recycled != null && recycled.mIds.length >= count) ? recycled : new PosterSnapshot(count);
+
+        snapshot.mBasePath = basePath;
+        snapshot.mCount = 0;
+        for (int i = 0; i < count && cursor.moveToPosition(i); i++) {
+            String posterPath = cursor.getString(PosterFragment.COLUMN_POSTER_PATH);
+            snapshot.mIds[i] = cursor.getLong(PosterFragment.COLUMN_MEDIA_ID);
+            snapshot.mTitles[i] = cursor.getString(PosterFragment.COLUMN_TITLE);
+            snapshot.mPosterPaths[i] = posterPath;
+            snapshot.mPosterUrls[i] = (posterPath == null || posterPath.equals("null")) ? null : basePath + posterPath;
+            snapshot.mCount++;
+        }
+
+        // Let go of the strings of any rows left over from the last time the arrays were used
+        for (int i = snapshot.mCount; i < snapshot.mIds.length; i++) {
+            snapshot.mTitles[i] = null;
+            snapshot.mPosterPaths[i] = null;
+            snapshot.mPosterUrls[i] = null;
+        }
+        return snapshot;
+    }
+
+    static PosterSnapshot empty() {
+        return new PosterSnapshot(0);
+    }
+
+    // Rebuilds the poster urls with a different base path, for when the size of the posters changes
+    void setBasePath(String basePath) {
+        mBasePath = basePath;
+        for (int i = 0; i < mCount; i++) {
+            String posterPath = mPosterPaths[i];
+            mPosterUrls[i] = (posterPath == null || posterPath.equals("null")) ? null : basePath + posterPath;
+        }
+    }
+
+    // Whether the row at the position of this snapshot shows the same thing as the row at the position of the other
+    private boolean sameContents(int position, PosterSnapshot other, int otherPosition) {
+        return TextUtils.equals(mTitles[position], other.mTitles[otherPosition])
+                && TextUtils.equals(mPosterPaths[position], other.mPosterPaths[otherPosition]);
+    }
+
+    /**
+     * Works out the updates that turn the old rows into the new ones, first removing the rows that are gone, then
+     * inserting the new rows, then moving the rows that changed position, and finally changing the rows that are
+     * showing something different. Rows are matched by their id, so a media that is in the list twice, or a list
+     * that is too long, can't be matched and gets null back, meaning the whole grid should be rebound.
+     *
+     * @return Returns the updates in the order they should be applied, or null if the grid should be rebound
+     */
+    static ArrayList<Update> diff(PosterSnapshot oldRows, PosterSnapshot newRows) {
+        if (oldRows.mCount > MAX_DIFF_ROWS || newRows.mCount > MAX_DIFF_ROWS) return null;
+
+        HashMap<Long, Integer> newPositions = new HashMap<>(newRows.mCount * 2);
+        for (int i = 0; i < newRows.mCount; i++) {
+            if (newPositions.put(newRows.mIds[i], i) != null) return null;
+        }
+        HashSet<Long> oldIds = new HashSet<>(oldRows.mCount * 2);
+        for (int i = 0; i < oldRows.mCount; i++) {
+            if (!oldIds.add(oldRows.mIds[i])) return null;
+        }
+
+        ArrayList<Update> updates = new ArrayList<>();
+
+        // Remove the rows that are gone from the end backwards, so the positions of the earlier ones don't shift
+        ArrayList<Long> current = new ArrayList<>(Math.max(oldRows.mCount, newRows.mCount));
+        for (int i = 0; i < oldRows.mCount; i++) {
+            current.add(oldRows.mIds[i]);
+        }
+        for (int i = oldRows.mCount - 1; i >= 0; i--) {
+            if (!newPositions.containsKey(oldRows.mIds[i])) {
+                current.remove(i);
+                updates.add(new Update(Update.REMOVE, i, i));
+            }
+        }
+
+        // Insert the new rows at their final positions, in order so each position is valid when it is inserted
+        for (int i = 0; i < newRows.mCount; i++) {
+            if (!oldIds.contains(newRows.mIds[i])) {
+                current.add(i, newRows.mIds[i]);
+                updates.add(new Update(Update.INSERT, i, i));
+            }
+        }
+
+        // Move the rows that are out of place into their position, going from the start of the list
+        for (int i = 0; i < newRows.mCount; i++) {
+            long id = newRows.mIds[i];
+            if (current.get(i) != id) {
+                int from = current.indexOf(id);
+                current.remove(from);
+                current.add(i, id);
+                updates.add(new Update(Update.MOVE, from, i));
+            }
+        }
+
+        // Change the rows that are showing something different
+        for (int i = 0; i < oldRows.mCount; i++) {
+            Integer position = newPositions.get(oldRows.mIds[i]);
+            if (position != null && !oldRows.sameContents(i, newRows, position)) {
+                updates.add(new Update(Update.CHANGE, position, position));
+            }
+        }
+        return updates;
+    }
+
+    // A single update to the rows of the adaptor
+    static final class Update {
+        static final int REMOVE = 0;
+        static final int INSERT = 1;
+        static final int MOVE = 2;
+        static final int CHANGE = 3;
+
+        final int TYPE;
+        final int FROM;
+        final int TO;
+
+        Update(int type, int from, int to) {
+            TYPE = type;
+            FROM = from;
+            TO = to;
+        }
+
+        // Notifies the adaptor of the update
+        void dispatch(RecyclerView.Adapter adapter) {
+            switch (TYPE) {
+                case REMOVE: {
+                    adapter.notifyItemRemoved(FROM);
+                    break;
+                }
+                case INSERT: {
+                    adapter.notifyItemInserted(TO);
+                    break;
+                }
+                case MOVE: {
+                    adapter.notifyItemMoved(FROM, TO);
+                    break;
+                }
+                case CHANGE: {
+                    adapter.notifyItemChanged(TO);
+                    break;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2015 Joshua Gwinn (jdgbolt@gmail.com)
+ */
+
+package com.example.judge.popularmovies.api;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.support.v4.util.LruCache;
+import android.util.Log;
+
+import com.android.volley.toolbox.ImageLoader;
+
+/**
+ * Memory cache for the images downloaded by volley, this is sized in bytes rather than in entries, as
+ * the posters and backdrops are of very different sizes. The size is a fraction of the memory class
+ * of the device, and the cache listens for memory callbacks in order to shrink itself when the system
+ * is running low on memory. It also keeps track of the hit, miss and eviction counts for the cache. The bitmaps
+ * removed from the cache are handed to the bitmap pool, so their memory can be reused for decoding other images.
+ */
+
+public class BitmapLruCache extends LruCache<String, Bitmap> implements ImageLoader.ImageCache, ComponentCallbacks2 {
+
+    // The fraction of the memory class that is used for the cache
+    private static final int MEMORY_CLASS_FRACTION = 8;
+    private static final String LOG_TAG = BitmapLruCache.class.getSimpleName();
+
+    private BitmapPool mBitmapPool;
+
+    private BitmapLruCache(int maxSize) {
+        super(maxSize);
+    }
+
+    /**
+     * Creates a cache sized from the memory class of the device, and registers it for the memory callbacks
+     *
+     * @param context The context for the application
+     * @return Returns the new cache
+     */
+    public static BitmapLruCache create(Context context) {
+        ActivityManager am = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        int maxSize = am.getMemoryClass() * 1024 * 1024 / MEMORY_CLASS_FRACTION;
+        BitmapLruCache cache = new BitmapLruCache(maxSize);
+        context.getApplicationContext().registerComponentCallbacks(cache);
+        return cache;
+    }
+
+    // Sets the pool that the bitmaps removed from the cache are handed to
+    public void setBitmapPool(BitmapPool pool) {
+        mBitmapPool = pool;
+    }
+
+    // The size of each entry is the number of bytes used by the bitmap, which can be more than the image for a reused bitmap
+    @Override
+    protected int sizeOf(String key, Bitmap value) {
+        return BitmapPool.getSize(value);
+    }
+
+    // Hands the bitmap that was evicted or replaced to the pool, which decides if it can be reused
+    @Override
+    protected void entryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
+        if (mBitmapPool != null && oldValue != newValue) mBitmapPool.evicted(oldValue);
+    }
+
+    @Override
+    public Bitmap getBitmap(String url) {
+        return get(url);
+    }
+
+    @Override
+    public void putBitmap(String url, Bitmap bitmap) {
+        put(url, bitmap);
+    }
+
+    /**
+     * Shrinks the cache depending on how low the system is on memory, if we are in the background or the
+     * system is critically low then the cache and the pool are emptied, otherwise only half of them are kept,
+     * which includes the UI just being hidden, as the user may well come straight back.
+     *
+     * @param level The memory trim level passed by the system
+     */
+    @Override
+    public void onTrimMemory(int level) {
+        if (level >= TRIM_MEMORY_BACKGROUND || level == TRIM_MEMORY_RUNNING_CRITICAL) {
+            evictAll();
+            if (mBitmapPool != null) mBitmapPool.clear();
+        } else if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            trimToSize(size() / 2);
+            if (mBitmapPool != null) mBitmapPool.trimToSize(mBitmapPool.getMaxSize() / 2);
+        }
+        Log.v(LOG_TAG, String.format("Trimmed memory at level %d: %s", level, getStats()));
+    }
+
+    @Override
+    public void onLowMemory() {
+        evictAll();
+        if (mBitmapPool != null) mBitmapPool.clear();
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+
+    // Returns a simple string with the current size and hit, miss and eviction counts of the cache
+    public synchronized String getStats() {
+        return String.format("size=%d/%d bytes, hits=%d, misses=%d, evictions=%d",
+                size(), maxSize(), hitCount(), missCount(), evictionCount());
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2015 Joshua Gwinn (jdgbolt@gmail.com)
+ */
+
+package com.example.judge.popularmovies.api;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Pool of bitmaps that are no longer used, so that decoding an image can reuse the memory of one of them rather
+ * than allocating a new bitmap each time, which during a long scroll through the posters causes a lot of garbage
+ * collection. A bitmap only ends up in the pool once it has been removed from the memory cache and it isn't being
+ * shown by any view, for which the views showing the bitmaps retain and release them. The bitmaps are bucketed by
+ * their size in bytes, and from kitkat on any bitmap at least as big as the decoded image can be reused, before
+ * that the bitmap needs to be exactly the same size as the image.
+ */
+
+public class BitmapPool {
+
+    // A pooled bitmap more than this many times the size needed isn't used, as it would waste too much memory
+    private static final int MAX_SIZE_MULTIPLE = 4;
+
+    private final int mMaxSize;
+    private int mSize;
+
+    // The pooled bitmaps by their size in bytes, and in the order they were added so the oldest can be dropped first
+    private final TreeMap<Integer, ArrayList<Bitmap>> mBuckets = new TreeMap<>();
+    private final ArrayDeque<Bitmap> mOrder = new ArrayDeque<>();
+
+    // How many views are showing each bitmap, and the bitmaps that were removed from the cache while still being shown
+    private final IdentityHashMap<Bitmap, Integer> mDisplayCounts = new IdentityHashMap<>();
+    private final IdentityHashMap<Bitmap, Boolean> mEvicted = new IdentityHashMap<>();
+
+    private int mHitCount;
+    private int mMissCount;
+    private int mPutCount;
+    private int mDropCount;
+
+    public BitmapPool(int maxSize) {
+        mMaxSize = maxSize;
+    }
+
+    // Returns the number of bytes used by the bitmap, which from kitkat on can be more than the size of the image
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    static int getSize(Bitmap bitmap) {
+        return (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) ? bitmap.getAllocationByteCount() : bitmap.getByteCount();
+    }
+
+    // Returns the bytes per pixel of the config
+    private static int getBytesPerPixel(Bitmap.Config config) {
+        switch (config) {
+            case ALPHA_8: {
+                return 1;
+            }
+            case RGB_565:
+            case ARGB_4444: {
+                return 2;
+            }
+            default: {
+                return 4;
+            }
+        }
+    }
+
+    /**
+     * Takes a bitmap out of the pool that can be reused for decoding an image of the given size and config.
+     *
+     * @return Returns the bitmap to reuse, or null if there isn't one that fits
+     */
+    public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        int size = width * height * getBytesPerPixel(config);
+        boolean reconfigurable = Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT;
+
+        Map.Entry<Integer, ArrayList<Bitmap>> bucket = mBuckets.ceilingEntry(size);
+        while (bucket != null && bucket.getKey() <= size * MAX_SIZE_MULTIPLE) {
+            for (Bitmap bitmap : bucket.getValue()) {
+                boolean fits = (reconfigurable) ? true :
+                        bitmap.getWidth() == width && bitmap.getHeight() == height && bitmap.getConfig() == config;
+                if (fits) {
+                    remove(bucket.getKey(), bitmap);
+                    mHitCount++;
+                    return bitmap;
+                }
+            }
+            if (!reconfigurable) break;
+            bucket = mBuckets.higherEntry(bucket.getKey());
+        }
+        mMissCount++;
+        return null;
+    }
+
+    // Adds a bitmap to the pool, dropping the oldest bitmaps if the pool is full
+    private void put(Bitmap bitmap) {
+        if (bitmap.isRecycled() || !bitmap.isMutable() || getSize(bitmap) > mMaxSize) {
+            mDropCount++;
+            return;
+        }
+        int size = getSize(bitmap);
+        ArrayList<Bitmap> bitmaps = mBuckets.get(size);
+        if (bitmaps == null) {
+            bitmaps = new ArrayList<>();
+            mBuckets.put(size, bitmaps);
+        }
+        bitmaps.add(bitmap);
+        mOrder.addLast(bitmap);
+        mSize += size;
+        mPutCount++;
+        trimToSize(mMaxSize);
+    }
+
+    // Removes a bitmap from its bucket
+    private void remove(int size, Bitmap bitmap) {
+        ArrayList<Bitmap> bitmaps = mBuckets.get(size);
+        bitmaps.remove(bitmap);
+        if (bitmaps.isEmpty()) mBuckets.remove(size);
+        mOrder.remove(bitmap);
+        mSize -= size;
+    }
+
+    // Drops the oldest bitmaps until the pool is within the size, leaving them for the garbage collector
+    public synchronized void trimToSize(int maxSize) {
+        while (mSize > maxSize && !mOrder.isEmpty()) {
+            Bitmap bitmap = mOrder.peekFirst();
+            remove(getSize(bitmap), bitmap);
+            mDropCount++;
+        }
+    }
+
+    public synchronized void clear() {
+        trimToSize(0);
+    }
+
+    public int getMaxSize() {
+        return mMaxSize;
+    }
+
+    public synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    // A view has started showing the bitmap
+    public synchronized void retain(Bitmap bitmap) {
+        Integer count = mDisplayCounts.get(bitmap);
+        mDisplayCounts.put(bitmap, (count != null) ? count + 1 : 1);
+    }
+
+    // A view has stopped showing the bitmap, if it is no longer in the cache it can now be pooled
+    public synchronized void release(Bitmap bitmap) {
+        Integer count = mDisplayCounts.get(bitmap);
+        if (count == null) return;
+        if (count > 1) {
+            mDisplayCounts.put(bitmap, count - 1);
+        } else if (mEvicted.remove(bitmap) != null) {
+            mDisplayCounts.remove(bitmap);
+            put(bitmap);
+        } else {
+            mDisplayCounts.put(bitmap, 0);
+        }
+    }
+
+    /**
+     * The bitmap has been removed from the memory cache. If no view is showing it then it is pooled straight away,
+     * otherwise it is pooled once the last view showing it releases it. A bitmap that was never shown could still
+     * be on its way to a view, so it isn't pooled at all.
+     */
+    public synchronized void evicted(Bitmap bitmap) {
+        Integer count = mDisplayCounts.get(bitmap);
+        if (count == null) {
+            mDropCount++;
+        } else if (count == 0) {
+            mDisplayCounts.remove(bitmap);
+            put(bitmap);
+        } else {
+            mEvicted.put(bitmap, true);
+        }
+    }
+
+    // Returns a simple string with the current size and hit, miss, put and drop counts of the pool
+    public synchronized String getStats() {
+        int requests = mHitCount + mMissCount;
+        return String.format("size=%d/%d bytes, hits=%d, misses=%d, hit rate=%.1f%%, puts=%d, drops=%d",
+                mSize, mMaxSize, mHitCount, mMissCount, (requests > 0) ? 100.0 * mHitCount / requests : 0.0, mPutCount, mDropCount);
+    }
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright (C) 2015 Joshua Gwinn (jdgbolt@gmail.com)
+ */
+
+package com.example.judge.popularmovies.api;
+
+import android.annotation.TargetApi;
+import android.app.Activity;
+import android.content.Context;
+import android.os.Build;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.view.Choreographer;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+import com.example.judge.popularmovies.R;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Opt in instrumentation of the frames drawn by the UI, so jank can be measured the same way as the syncing is. While
+ * running, a Choreographer callback sees the start of every frame, and the time between the starts of two frames is
+ * how long the first of them took, which is recorded for every frame that actually drew something. A frame that took
+ * more than one and a half times the refresh interval missed at least one vsync and counts as janky. Each frame is
+ * attributed to the screen that was showing, such as the source tab of the grid or the detail of a movie, or to the
+ * transition that was going on, such as the detail drawer opening, which lasts until the UI stops drawing. The time
+ * spent binding rows in the poster and detail adaptors within each frame is also tracked, so slow frames can be put
+ * down to the binding or to something else. Everything here only happens on the UI thread, so there is no locking.
+ * The frames are measured within the app rather than read from dumpsys gfxinfo, so that they can be attributed to
+ * what the app was doing, and this works on every device from jelly bean on.
+ */
+
+public final class FrameMonitor {
+
+    // The adaptors whose binding is tracked
+    public static final int BIND_POSTER = 0;
+    public static final int BIND_DETAIL = 1;
+    private static final String[] BIND_NAMES = {
+            "janky_poster_bind_ms",
+            "janky_detail_bind_ms"
+    };
+
+    // A frame taking this many refresh intervals has missed at least one vsync
+    private static final double JANK_INTERVALS = 1.5;
+
+    // The buckets of the frame times are a millisecond wide up to a hundred, and the bind times half a frame at 60 Hz
+    private static final long[] FRAME_BOUNDS = buildFrameBounds();
+    private static final long[] BIND_BOUNDS = {1, 2, 3, 4, 5, 6, 8, 10, 12, 16, 20, 25, 33, 50, 100, 200, 500};
+
+    // The metrics of each screen and transition, sorted so the dump is in the same order every time
+    private static final TreeMap<String, ScreenMetrics> sMetrics = new TreeMap<>();
+    private static long sStartTime = SystemClock.elapsedRealtime();
+    private static float sRefreshRate;
+
+    // The monitor currently running, the screen and transition the frames are attributed to, and the bind time of the current frame
+    private static Monitor sMonitor;
+    private static String sScreen = "none";
+    private static String sTransition;
+    private static final long[] sBindTime = new long[BIND_NAMES.length];
+
+    private FrameMonitor() {
+    }
+
+    private static long[] buildFrameBounds() {
+        long[] bounds = new long[107];
+        for (int i = 0; i < 100; i++) {
+            bounds[i] = i + 1;
+        }
+        long[] slow = {150, 200, 300, 500, 700, 1000, 2000};
+        System.arraycopy(slow, 0, bounds, 100, slow.length);
+        return bounds;
+    }
+
+    // Whether the frames should be recorded, which is turned on in the debug section of the settings
+    public static boolean isEnabled(Context context) {
+        return PreferenceManager.getDefaultSharedPreferences(context)
+                .getBoolean(context.getString(R.string.pref_frame_metrics_key), false);
+    }
+
+    /**
+     * Starts recording the frames drawn by the activity, replacing any activity that was being recorded. The
+     * Choreographer callbacks and draw listeners are only available from jelly bean on, so before that nothing is recorded.
+     *
+     * @param activity The activity to record the frames of
+     */
+    public static void start(Activity activity) {
+        stop();
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) return;
+        sRefreshRate = activity.getWindowManager().getDefaultDisplay().getRefreshRate();
+        sMonitor = new Monitor(activity.getWindow().getDecorView(), sRefreshRate);
+    }
+
+    // Stops recording the frames, the metrics recorded so far are kept
+    public static void stop() {
+        if (sMonitor == null) return;
+        sMonitor.stop();
+        sMonitor = null;
+        sTransition = null;
+    }
+
+    /**
+     * Sets the screen that is showing, which the frames are attributed to until another screen is set
+     *
+     * @param screen The name of the screen, such as grid/movie/popular
+     */
+    public static void setScreen(String screen) {
+        sScreen = screen;
+    }
+
+    /**
+     * Starts a transition, which the frames are attributed to instead of the screen until the UI stops drawing
+     *
+     * @param transition The name of the transition, such as detail_open/movie
+     */
+    public static void startTransition(String transition) {
+        if (sMonitor != null) sTransition = transition;
+    }
+
+    /**
+     * Marks the start of binding a row in one of the adaptors, this is only the time if the frames are being recorded
+     *
+     * @return Returns the time to pass to bindFinished, or zero if the frames aren't being recorded
+     */
+    public static long bindStarted() {
+        return (sMonitor != null) ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Marks the end of binding a row, adding the time taken to the bind time of the frame
+     *
+     * @param adaptor The adaptor doing the binding, one of the bind constants
+     * @param start   The time returned from bindStarted
+     */
+    public static void bindFinished(int adaptor, long start) {
+        if (start != 0) sBindTime[adaptor] += System.nanoTime() - start;
+    }
+
+    // Records a frame that drew something, attributing it and the binding within it to the current transition or screen
+    private static void record(long frameTime, long frameInterval) {
+        String name = (sTransition != null) ? sTransition : sScreen;
+        ScreenMetrics metrics = sMetrics.get(name);
+        if (metrics == null) {
+            metrics = new ScreenMetrics();
+            sMetrics.put(name, metrics);
+        }
+        metrics.add(frameTime, frameInterval);
+    }
+
+    // Clears all of the metrics, so the next ones can be looked at on their own
+    public static void reset() {
+        sMetrics.clear();
+        sStartTime = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Writes all of the metrics as plain text, starting with the device and its refresh rate so dumps from different
+     * devices can be told apart. Each screen and transition has a line with the number of frames, how many of them were
+     * janky and the frames that were dropped, followed by the histogram of the frame times and of the bind times of each
+     * adaptor within the janky frames.
+     *
+     * @param writer The writer to dump the metrics to
+     */
+    public static void dump(PrintWriter writer) {
+        writer.printf("frame metrics: %s %s, api %d, %.0f Hz, over %d s%s\n", Build.MANUFACTURER, Build.MODEL,
+                Build.VERSION.SDK_INT, sRefreshRate, (SystemClock.elapsedRealtime() - sStartTime) / 1000,
+                (sMonitor != null) ? "" : ", not recording");
+        for (Map.Entry<String, ScreenMetrics> entry : sMetrics.entrySet()) {
+            ScreenMetrics metrics = entry.getValue();
+            int frames = metrics.mFrames.getCount();
+            writer.printf("%s frames=%d janky=%d jank_rate=%.1f%% dropped=%d\n", entry.getKey(), frames, metrics.mJanky,
+                    100.0 * metrics.mJanky / frames, metrics.mDropped);
+            metrics.mFrames.dump(writer, "frame_ms");
+            for (int i = 0; i < BIND_NAMES.length; i++) {
+                metrics.mJankyBinds[i].dump(writer, BIND_NAMES[i]);
+            }
+        }
+    }
+
+    // Returns the dump of the metrics as a string
+    public static String dump() {
+        StringWriter out = new StringWriter();
+        PrintWriter writer = new PrintWriter(out);
+        dump(writer);
+        writer.flush();
+        return out.toString();
+    }
+
+    // The frame times of a screen or transition, with the bind times of the janky frames
+    private static final class ScreenMetrics {
+        private final Histogram mFrames = new Histogram(FRAME_BOUNDS);
+        private final Histogram[] mJankyBinds = new Histogram[BIND_NAMES.length];
+        private int mJanky;
+        private long mDropped;
+
+        ScreenMetrics() {
+            for (int i = 0; i < mJankyBinds.length; i++) {
+                mJankyBinds[i] = new Histogram(BIND_BOUNDS);
+            }
+        }
+
+        void add(long frameTime, long frameInterval) {
+            mFrames.add(Math.round(frameTime / 1e6));
+            if (frameTime <= frameInterval * JANK_INTERVALS) return;
+
+            // The vsyncs missed by the frame, and how much of it was spent binding rows
+            mJanky++;
+            mDropped += Math.round((double) frameTime / frameInterval) - 1;
+            for (int i = 0; i < mJankyBinds.length; i++) {
+                mJankyBinds[i].add(Math.round(sBindTime[i] / 1e6));
+            }
+        }
+    }
+
+    /**
+     * Watches the frames of a window. The Choreographer callback is posted again for every frame, and the draw
+     * listener notes whether the window drew anything since the last one. The work of a frame, from the input through
+     * to the drawing, happens between its callback and the callback of the next frame, so that is when it is recorded.
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private static final class Monitor implements Choreographer.FrameCallback, ViewTreeObserver.OnDrawListener {
+        private final View mDecorView;
+        private final long mFrameInterval;
+        private long mLastFrameTime;
+        private boolean mDrew;
+        private boolean mStopped;
+
+        Monitor(View decorView, float refreshRate) {
+            mDecorView = decorView;
+            mFrameInterval = (long) (1e9 / refreshRate);
+            mDecorView.getViewTreeObserver().addOnDrawListener(this);
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
+        @Override
+        public void onDraw() {
+            mDrew = true;
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if (mStopped) return;
+
+            // A frame that didn't draw anything means the UI is idle, which is the end of any transition
+            if (mLastFrameTime != 0) {
+                if (mDrew) {
+                    record(frameTimeNanos - mLastFrameTime, mFrameInterval);
+                } else {
+                    sTransition = null;
+                }
+            }
+            mLastFrameTime = frameTimeNanos;
+            mDrew = false;
+            for (int i = 0; i < sBindTime.length; i++) {
+                sBindTime[i] = 0;
+            }
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
+        void stop() {
+            mStopped = true;
+            Choreographer.getInstance().removeFrameCallback(this);
+            ViewTreeObserver observer = mDecorView.getViewTreeObserver();
+            if (observer.isAlive()) observer.removeOnDrawListener(this);
+        }
+    }
+}
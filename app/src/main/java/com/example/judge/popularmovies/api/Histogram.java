@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2015 Joshua Gwinn (jdgbolt@gmail.com)
+ */
+
+package com.example.judge.popularmovies.api;
+
+import java.io.PrintWriter;
+
+/**
+ * A histogram of times in milliseconds with fixed buckets, keeping the count in each of the buckets along with the
+ * total and maximum, so adding a value is only a few additions no matter how many values have been added. The
+ * percentiles are the upper bound of the bucket they fall in, so the buckets are as fine as the percentiles need
+ * to be. It isn't thread safe, the metrics using it do their own locking.
+ */
+
+final class Histogram {
+
+    private final long[] mBounds;
+    private final int[] mBuckets;
+    private int mCount;
+    private long mTotal;
+    private long mMax;
+
+    /**
+     * Creates the histogram
+     *
+     * @param bounds The upper bounds of the buckets in increasing order, anything above the last goes in an extra bucket
+     */
+    Histogram(long[] bounds) {
+        mBounds = bounds;
+        mBuckets = new int[bounds.length + 1];
+    }
+
+    void add(long value) {
+        int bucket = 0;
+        while (bucket < mBounds.length && value > mBounds[bucket]) {
+            bucket++;
+        }
+        mBuckets[bucket]++;
+        mCount++;
+        mTotal += value;
+        mMax = Math.max(mMax, value);
+    }
+
+    int getCount() {
+        return mCount;
+    }
+
+    // The upper bound of the bucket the percentile falls in, which is never more than the largest value added
+    long getPercentile(double percentile) {
+        int rank = (int) Math.ceil(mCount * percentile);
+        int seen = 0;
+        for (int i = 0; i < mBounds.length; i++) {
+            seen += mBuckets[i];
+            if (seen >= rank) return Math.min(mBounds[i], mMax);
+        }
+        return mMax;
+    }
+
+    // Writes a line with the count, mean, percentiles and maximum, if anything has been added
+    void dump(PrintWriter writer, String name) {
+        if (mCount == 0) return;
+        writer.printf("  %s n=%d mean=%.1f p50=%d p90=%d p99=%d max=%d\n", name, mCount, (double) mTotal / mCount,
+                getPercentile(0.5), getPercentile(0.9), getPercentile(0.99), mMax);
+    }
+}
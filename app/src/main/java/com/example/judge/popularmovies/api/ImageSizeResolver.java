@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2015 Joshua Gwinn (jdgbolt@gmail.com)
+ */
+
+package com.example.judge.popularmovies.api;
+
+import android.content.Context;
+
+import com.example.judge.popularmovies.R;
+
+/**
+ * Picks which of the image sizes offered by TheMovieDB to download for a view, using the smallest size that is
+ * at least as wide as the view in pixels, so the images are neither upscaled nor far bigger than they need to be.
+ * The size is part of the image url, so each size is cached separately, and volley samples the downloaded image
+ * down to the width of the view when decoding it.
+ */
+
+public class ImageSizeResolver {
+
+    // The widths that TheMovieDB offers for posters and backdrops, anything wider uses the original image
+    private static final int[] POSTER_WIDTHS = {92, 154, 185, 342, 500, 780};
+    private static final int[] BACKDROP_WIDTHS = {300, 780, 1280};
+    private static final String ORIGINAL_SIZE = "original";
+    private static final String WIDTH_PREFIX = "w";
+
+    /**
+     * Returns the base path of the posters for a view of the given width, the poster path just needs appending to it
+     *
+     * @param context The context for the application
+     * @param width   The width of the view in pixels
+     * @return Returns the base path of the posters
+     */
+    public static String getPosterBasePath(Context context, int width) {
+        return context.getString(R.string.api_image_base_path) + getSize(POSTER_WIDTHS, width);
+    }
+
+    /**
+     * Returns the base path of the backdrops for a view of the given width, the backdrop path just needs appending to it
+     *
+     * @param context The context for the application
+     * @param width   The width of the view in pixels
+     * @return Returns the base path of the backdrops
+     */
+    public static String getBackdropBasePath(Context context, int width) {
+        return context.getString(R.string.api_image_base_path) + getSize(BACKDROP_WIDTHS, width);
+    }
+
+    // Returns the smallest of the sizes that is at least the width
+    private static String getSize(int[] widths, int width) {
+        for (int size : widths) {
+            if (size >= width) return WIDTH_PREFIX + size;
+        }
+        return ORIGINAL_SIZE;
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2015 Joshua Gwinn (jdgbolt@gmail.com)
+ */
+
+package com.example.judge.popularmovies.api;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+import android.util.Log;
+import android.widget.ImageView.ScaleType;
+
+import com.android.volley.DefaultRetryPolicy;
+import com.android.volley.NetworkResponse;
+import com.android.volley.ParseError;
+import com.android.volley.Request;
+import com.android.volley.Response;
+import com.android.volley.toolbox.HttpHeaderParser;
+
+/**
+ * Image request that decodes the downloaded image into a bitmap taken from the bitmap pool where there is one
+ * that fits, rather than allocating a new bitmap for every image. The image is sampled down towards the size
+ * of the view in the same way as the volley ImageRequest, but unlike it the sampled bitmap isn't scaled again
+ * to exactly the size of the view, as that would allocate a second bitmap for every image and the view scales
+ * the image anyway. The bitmaps are decoded as mutable so that they can go back into the pool once unused.
+ */
+
+public class PooledImageRequest extends Request<Bitmap> {
+
+    // The same timeout and retries as the volley image requests
+    private static final int IMAGE_TIMEOUT_MS = 1000;
+    private static final int IMAGE_MAX_RETRIES = 2;
+    private static final float IMAGE_BACKOFF_MULT = 2f;
+    private static final String LOG_TAG = PooledImageRequest.class.getSimpleName();
+
+    // Decoding is done one image at a time, to limit how much memory is used at once
+    private static final Object sDecodeLock = new Object();
+
+    private final Response.Listener<Bitmap> mListener;
+    private final BitmapPool mBitmapPool;
+    private final Bitmap.Config mDecodeConfig;
+    private final int mMaxWidth;
+    private final int mMaxHeight;
+    private final ScaleType mScaleType;
+    private final Priority mPriority;
+
+    /**
+     * Creates a request for an image, which is decoded as close to the maximum size as sampling allows while
+     * keeping its aspect ratio, a maximum of 0 for both the width and height decodes the image at full size.
+     *
+     * @param url           The url of the image
+     * @param listener      Listener to receive the decoded bitmap
+     * @param maxWidth      The maximum width to decode the image to, or 0 for no maximum
+     * @param maxHeight     The maximum height to decode the image to, or 0 for no maximum
+     * @param scaleType     The scale type of the view the image is for
+     * @param decodeConfig  The config to decode the image to
+     * @param priority      The priority of the request
+     * @param pool          The pool to take the bitmap to decode into from, can be null to always allocate
+     * @param errorListener Listener to receive the error if the image can't be downloaded or decoded
+     */
+    public PooledImageRequest(String url, Response.Listener<Bitmap> listener, int maxWidth, int maxHeight,
+                              ScaleType scaleType, Bitmap.Config decodeConfig, Priority priority, BitmapPool pool,
+                              Response.ErrorListener errorListener) {
+        super(Method.GET, url, errorListener);
+        setRetryPolicy(new DefaultRetryPolicy(IMAGE_TIMEOUT_MS, IMAGE_MAX_RETRIES, IMAGE_BACKOFF_MULT));
+        mListener = listener;
+        mDecodeConfig = decodeConfig;
+        mMaxWidth = maxWidth;
+        mMaxHeight = maxHeight;
+        mScaleType = scaleType;
+        mPriority = priority;
+        mBitmapPool = pool;
+    }
+
+    @Override
+    public Priority getPriority() {
+        return mPriority;
+    }
+
+    // Works out the size to decode one side of the image to, the same way as the volley ImageRequest
+    private static int getResizedDimension(int maxPrimary, int maxSecondary, int actualPrimary,
+                                           int actualSecondary, ScaleType scaleType) {
+        if (maxPrimary == 0 && maxSecondary == 0) return actualPrimary;
+
+        if (scaleType == ScaleType.FIT_XY) {
+            return (maxPrimary == 0) ? actualPrimary : maxPrimary;
+        }
+        if (maxPrimary == 0) {
+            double ratio = (double) maxSecondary / (double) actualSecondary;
+            return (int) (actualPrimary * ratio);
+        }
+        if (maxSecondary == 0) return maxPrimary;
+
+        double ratio = (double) actualSecondary / (double) actualPrimary;
+        int resized = maxPrimary;
+        if (scaleType == ScaleType.CENTER_CROP) {
+            if ((resized * ratio) < maxSecondary) resized = (int) (maxSecondary / ratio);
+            return resized;
+        }
+        if ((resized * ratio) > maxSecondary) resized = (int) (maxSecondary / ratio);
+        return resized;
+    }
+
+    // Returns the largest power of two sample size that doesn't take the image below the desired size
+    private static int findBestSampleSize(int actualWidth, int actualHeight, int desiredWidth, int desiredHeight) {
+        double ratio = Math.min((double) actualWidth / desiredWidth, (double) actualHeight / desiredHeight);
+        int sampleSize = 1;
+        while ((sampleSize * 2) <= ratio) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    @Override
+    protected Response<Bitmap> parseNetworkResponse(NetworkResponse response) {
+        synchronized (sDecodeLock) {
+            try {
+                Bitmap bitmap = decode(response.data);
+                if (bitmap == null) return Response.error(new ParseError(response));
+                return Response.success(bitmap, HttpHeaderParser.parseCacheHeaders(response));
+            } catch (OutOfMemoryError e) {
+                Log.e(LOG_TAG, String.format("Out of memory decoding %d bytes from %s", response.data.length, getUrl()));
+                return Response.error(new ParseError(e));
+            }
+        }
+    }
+
+    // Decodes the image sampled towards the maximum size, into a pooled bitmap if there is one that fits
+    private Bitmap decode(byte[] data) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = mDecodeConfig;
+        options.inMutable = true;
+
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        int actualWidth = options.outWidth;
+        int actualHeight = options.outHeight;
+        if (actualWidth <= 0 || actualHeight <= 0) return null;
+
+        int desiredWidth = getResizedDimension(mMaxWidth, mMaxHeight, actualWidth, actualHeight, mScaleType);
+        int desiredHeight = getResizedDimension(mMaxHeight, mMaxWidth, actualHeight, actualWidth, mScaleType);
+        int sampleSize = findBestSampleSize(actualWidth, actualHeight, Math.max(desiredWidth, 1), Math.max(desiredHeight, 1));
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+
+        // Before kitkat a bitmap can only be reused for an image of exactly its size, which isn't known once sampled
+        if (mBitmapPool != null && (sampleSize == 1 || Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT)) {
+            int width = (actualWidth + sampleSize - 1) / sampleSize;
+            int height = (actualHeight + sampleSize - 1) / sampleSize;
+            options.inBitmap = mBitmapPool.get(width, height, mDecodeConfig);
+        }
+
+        try {
+            return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        } catch (IllegalArgumentException e) {
+            // The pooled bitmap couldn't be used for this image after all, so just decode it into a new bitmap
+            options.inBitmap = null;
+            return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        }
+    }
+
+    @Override
+    protected void deliverResponse(Bitmap response) {
+        mListener.onResponse(response);
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2015 Joshua Gwinn (jdgbolt@gmail.com)
+ */
+
+package com.example.judge.popularmovies.api;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.util.AttributeSet;
+
+import com.android.volley.toolbox.NetworkImageView;
+
+/**
+ * NetworkImageView which lets the bitmap pool know which bitmaps it is showing, retaining the bitmap when it
+ * is set and releasing it when the view moves on to another image, is cleared, or is detached. This is what
+ * stops the pool from handing out a bitmap that was evicted from the cache but is still on screen. Only the
+ * mutable bitmaps decoded by the image requests are tracked, not the placeholder images from the resources.
+ */
+
+public class PooledNetworkImageView extends NetworkImageView {
+
+    // The decoded bitmap currently shown by the view
+    private Bitmap mBitmap;
+
+    public PooledNetworkImageView(Context context) {
+        super(context);
+    }
+
+    public PooledNetworkImageView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+    }
+
+    public PooledNetworkImageView(Context context, AttributeSet attrs, int defStyle) {
+        super(context, attrs, defStyle);
+    }
+
+    // The network image view sets its images through here, other than the default and error images
+    @Override
+    public void setImageDrawable(Drawable drawable) {
+        super.setImageDrawable(drawable);
+        setPooledBitmap((drawable instanceof BitmapDrawable) ? ((BitmapDrawable) drawable).getBitmap() : null);
+    }
+
+    @Override
+    public void setImageResource(int resId) {
+        super.setImageResource(resId);
+        setPooledBitmap(null);
+    }
+
+    // Retains the new bitmap before releasing the old one, so a bitmap set again is never pooled in between
+    private void setPooledBitmap(Bitmap bitmap) {
+        if (bitmap != null && !bitmap.isMutable()) bitmap = null;
+        if (bitmap == mBitmap || isInEditMode()) return;
+
+        BitmapPool pool = VolleySingleton.getInstance(getContext()).getBitmapPool();
+        if (bitmap != null) pool.retain(bitmap);
+        if (mBitmap != null) pool.release(mBitmap);
+        mBitmap = bitmap;
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2015 Joshua Gwinn (jdgbolt@gmail.com)
+ */
+
+package com.example.judge.popularmovies.api;
+
+import android.graphics.Bitmap;
+import android.widget.ImageView.ScaleType;
+
+import com.android.volley.Request;
+import com.android.volley.RequestQueue;
+import com.android.volley.Response;
+import com.android.volley.VolleyError;
+import com.android.volley.toolbox.ImageLoader;
+
+/**
+ * Image loader which separates the images that are being shown from the ones that are only being prefetched.
+ * The requests made for views, such as by a NetworkImageView, are given a normal priority, while the prefetch
+ * requests are given a low priority, so the request queue always downloads the visible images first. As the
+ * prefetches go through the same loader, they use the same cache keys and are batched with the requests of
+ * the views, so a view that is bound while its image is still being prefetched just waits on that download.
+ * The images are decoded into bitmaps reused from the bitmap pool where possible.
+ */
+
+public class PriorityImageLoader extends ImageLoader {
+
+    // No-op listener for the prefetches, the image only needs to end up in the cache
+    private static final ImageListener sPrefetchListener = new ImageListener() {
+        @Override
+        public void onResponse(ImageContainer response, boolean isImmediate) {
+        }
+
+        @Override
+        public void onErrorResponse(VolleyError error) {
+        }
+    };
+
+    // Whether the request currently being made is a prefetch, only touched on the main thread
+    private boolean mPrefetching;
+    private final BitmapPool mBitmapPool;
+
+    public PriorityImageLoader(RequestQueue queue, ImageCache imageCache, BitmapPool pool) {
+        super(queue, imageCache);
+        mBitmapPool = pool;
+    }
+
+    /**
+     * Starts a low priority download of an image into the cache, the size and scale type need to match
+     * the ones of the view that is going to show the image, as they are part of the cache key.
+     *
+     * @param requestUrl The url of the image
+     * @param maxWidth   The maximum width of the view, or 0 if it wraps its content
+     * @param maxHeight  The maximum height of the view, or 0 if it wraps its content
+     * @param scaleType  The scale type of the view
+     * @return Returns the container of the prefetch, which can be used to cancel it
+     */
+    public ImageContainer prefetch(String requestUrl, int maxWidth, int maxHeight, ScaleType scaleType) {
+        mPrefetching = true;
+        try {
+            return get(requestUrl, sPrefetchListener, maxWidth, maxHeight, scaleType);
+        } finally {
+            mPrefetching = false;
+        }
+    }
+
+    // Creates the pooled image request with the priority depending on whether it is a prefetch
+    @Override
+    protected Request<Bitmap> makeImageRequest(String requestUrl, int maxWidth, int maxHeight,
+                                               ScaleType scaleType, final String cacheKey) {
+        Request.Priority priority = (mPrefetching) ? Request.Priority.LOW : Request.Priority.NORMAL;
+        return new PooledImageRequest(requestUrl, new Response.Listener<Bitmap>() {
+            @Override
+            public void onResponse(Bitmap response) {
+                onGetImageSuccess(cacheKey, response);
+            }
+        }, maxWidth, maxHeight, scaleType, Bitmap.Config.RGB_565, priority, mBitmapPool, new Response.ErrorListener() {
+            @Override
+            public void onErrorResponse(VolleyError error) {
+                onGetImageError(cacheKey, error);
+            }
+        });
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2015 Joshua Gwinn (jdgbolt@gmail.com)
+ */
+
+package com.example.judge.popularmovies.api;
+
+import com.android.volley.toolbox.DiskBasedCache;
+
+import java.io.File;
+
+/**
+ * Disk cache for volley that keeps track of how well it is doing, counting the hits, misses and writes of
+ * the cache. Each of the request queues has one of these in its own directory, so the stats of the image
+ * and the json caches can be looked at separately.
+ */
+
+public class StatsDiskCache extends DiskBasedCache {
+
+    private final File mRootDirectory;
+    private final int mMaxSize;
+    private int mHitCount;
+    private int mMissCount;
+    private int mPutCount;
+    private long mPutBytes;
+
+    public StatsDiskCache(File rootDirectory, int maxSize) {
+        super(rootDirectory, maxSize);
+        mRootDirectory = rootDirectory;
+        mMaxSize = maxSize;
+    }
+
+    // Count each lookup as a hit or a miss, an expired entry is still a hit as volley can revalidate it
+    @Override
+    public synchronized Entry get(String key) {
+        Entry entry = super.get(key);
+        if (entry != null) mHitCount++;
+        else mMissCount++;
+        return entry;
+    }
+
+    @Override
+    public synchronized void put(String key, Entry entry) {
+        super.put(key, entry);
+        mPutCount++;
+        mPutBytes += entry.data.length;
+    }
+
+    // The number of bytes the cache is using on disk, the size kept by the cache itself isn't visible to us
+    public synchronized long getSize() {
+        long size = 0;
+        File[] files = mRootDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                size += file.length();
+            }
+        }
+        return size;
+    }
+
+    public int getMaxSize() {
+        return mMaxSize;
+    }
+
+    // Returns a simple string with the current size and hit, miss and write counts of the cache
+    public synchronized String getStats() {
+        return String.format("size=%d/%d bytes, hits=%d, misses=%d, writes=%d (%d bytes)",
+                getSize(), mMaxSize, mHitCount, mMissCount, mPutCount, mPutBytes);
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2015 Joshua Gwinn (jdgbolt@gmail.com)
+ */
+
+package com.example.judge.popularmovies.api;
+
+import android.annotation.TargetApi;
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.Build;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import com.example.judge.popularmovies.R;
+import com.example.judge.popularmovies.data.MovieContract.MovieEntry;
+import com.example.judge.popularmovies.data.MovieContract.TVEntry;
+
+/**
+ * Job that periodically syncs all of the movie and tv sources in the background, so that when the app is
+ * started the database is already up to date and the posters can be shown without waiting on the network.
+ * As this is only a nice to have, the job only runs while the device is charging and on an unmetered
+ * network, with the period being the update interval from the settings. The job scheduler is only available
+ * from lollipop on, older devices just keep syncing when the sources are shown.
+ */
+
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class SyncJobService extends JobService implements TmdbApiHandler.OnSyncFinishedListener {
+
+    private static final int SYNC_JOB_ID = 1;
+    private static final String LOG_TAG = SyncJobService.class.getSimpleName();
+
+    // The sources that are synced by the job, the favorites are stored offline so there is nothing to sync
+    private static final String[] MOVIE_SOURCES = {
+            MovieEntry.SOURCE_POPULAR,
+            MovieEntry.SOURCE_RATING,
+            MovieEntry.SOURCE_NOW_PLAYING,
+            MovieEntry.SOURCE_UPCOMING,
+    };
+    private static final String[] TV_SOURCES = {
+            TVEntry.SOURCE_POPULAR,
+            TVEntry.SOURCE_RATING,
+            TVEntry.SOURCE_ON_THE_AIR,
+            TVEntry.SOURCE_AIRING_TODAY,
+    };
+
+    // The job currently running, and how many of its syncs haven't finished, only touched on the UI thread
+    private JobParameters mParams;
+    private int mPendingSyncs;
+    private boolean mFailed;
+
+    /**
+     * Schedules the background sync with the update interval from the settings, if it isn't already scheduled
+     * with that interval. This is safe to call every time the app starts.
+     *
+     * @param context The context for the application
+     */
+    public static void schedule(Context context) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) return;
+
+        long interval = 60000 * Long.parseLong(PreferenceManager.getDefaultSharedPreferences(context)
+                .getString(context.getString(R.string.pref_update_interval_key), context.getString(R.string.pref_update_interval_default)));
+
+        JobScheduler scheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        for (JobInfo job : scheduler.getAllPendingJobs()) {
+            if (job.getId() == SYNC_JOB_ID && job.getIntervalMillis() == interval) return;
+        }
+
+        JobInfo job = new JobInfo.Builder(SYNC_JOB_ID, new ComponentName(context, SyncJobService.class))
+                .setRequiredNetworkType(JobInfo.NETWORK_TYPE_UNMETERED)
+                .setRequiresCharging(true)
+                .setPeriodic(interval)
+                .setPersisted(true)
+                .build();
+        if (scheduler.schedule(job) != JobScheduler.RESULT_SUCCESS) {
+            Log.e(LOG_TAG, "Unable to schedule the background sync");
+        }
+    }
+
+    // Starts the sync of all of the sources, the job is kept running until all of them have finished
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        mParams = params;
+        mFailed = false;
+        mPendingSyncs = MOVIE_SOURCES.length + TV_SOURCES.length;
+        for (String source : MOVIE_SOURCES) {
+            TmdbApiHandler.sync(TmdbApiHandler.SYNC_MOVIE, source, this, true, this);
+        }
+        for (String source : TV_SOURCES) {
+            TmdbApiHandler.sync(TmdbApiHandler.SYNC_TV, source, this, true, this);
+        }
+        return true;
+    }
+
+    // The syncs can't be stopped once requested, so they are left to finish, and the job will run again next period
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        mParams = null;
+        return false;
+    }
+
+    // Once the last of the syncs has finished let the scheduler know, asking for a retry if any of them failed
+    @Override
+    public void onSyncFinished(@TmdbApiHandler.SyncType int syncType, String source, boolean success) {
+        mFailed |= !success;
+        if (--mPendingSyncs == 0 && mParams != null) {
+            Log.v(LOG_TAG, "Finished the background sync, failed: " + mFailed);
+            jobFinished(mParams, mFailed);
+            mParams = null;
+        }
+    }
+}
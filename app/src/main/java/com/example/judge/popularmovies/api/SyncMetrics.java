@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2015 Joshua Gwinn (jdgbolt@gmail.com)
+ */
+
+package com.example.judge.popularmovies.api;
+
+import android.os.Build;
+import android.os.SystemClock;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Registry of the metrics of the syncing, so the time a sync takes can be broken down into the stages it goes
+ * through and compared between devices. Each sync fills in a sample as it goes, the time it waited in the queue,
+ * the time spent on the network and the bytes received, the time taken to parse the response, and the time of
+ * the database transaction along with the rows written and the change notifications it sent. Once the sync has
+ * finished the sample is added to the metrics of its sync type and source, which are counters and histograms
+ * with fixed buckets, so recording a sync is only a few additions no matter how many syncs have been recorded.
+ * The metrics can be dumped as plain text, which is what the debug screen of the settings shows and shares.
+ */
+
+public final class SyncMetrics {
+
+    // The source used for the syncs of a single media or a search, which would otherwise have a source for every media or query
+    public static final String ALL_SOURCES = "*";
+
+    // The upper bounds of the buckets of the histograms in milliseconds, anything above the last goes in an extra bucket
+    private static final long[] BUCKET_BOUNDS = {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 30000};
+
+    // The metrics of each sync type and source, sorted so the dump is in the same order every time
+    private static final TreeMap<String, SourceMetrics> sMetrics = new TreeMap<>();
+    private static long sStartTime = SystemClock.elapsedRealtime();
+
+    private SyncMetrics() {
+    }
+
+    /**
+     * Adds the sample of a finished sync to the metrics of its sync type and source
+     *
+     * @param sample  The sample of the sync
+     * @param success Whether the sync succeeded
+     */
+    public static void record(Sample sample, boolean success) {
+        String name = sample.NAME + "/" + sample.SOURCE;
+        synchronized (sMetrics) {
+            SourceMetrics metrics = sMetrics.get(name);
+            if (metrics == null) {
+                metrics = new SourceMetrics();
+                sMetrics.put(name, metrics);
+            }
+            metrics.add(sample, success);
+        }
+    }
+
+    // Clears all of the metrics, so the next ones can be looked at on their own
+    public static void reset() {
+        synchronized (sMetrics) {
+            sMetrics.clear();
+            sStartTime = SystemClock.elapsedRealtime();
+        }
+    }
+
+    /**
+     * Writes all of the metrics as plain text, starting with the device so dumps from different devices can be
+     * told apart. Each sync type and source has a line with its counters, followed by a line for each of the stages
+     * with the count, mean and the percentiles of the histogram, which are the upper bound of the bucket they fall in.
+     *
+     * @param writer The writer to dump the metrics to
+     */
+    public static void dump(PrintWriter writer) {
+        synchronized (sMetrics) {
+            writer.printf("sync metrics: %s %s, api %d, over %d s\n", Build.MANUFACTURER, Build.MODEL, Build.VERSION.SDK_INT,
+                    (SystemClock.elapsedRealtime() - sStartTime) / 1000);
+            for (Map.Entry<String, SourceMetrics> entry : sMetrics.entrySet()) {
+                SourceMetrics metrics = entry.getValue();
+                writer.printf("%s syncs=%d failures=%d not_modified=%d bytes=%d rows=%d notifications=%d\n", entry.getKey(),
+                        metrics.mSyncs, metrics.mFailures, metrics.mNotModified, metrics.mBytes, metrics.mRows, metrics.mNotifications);
+                metrics.mQueueWait.dump(writer, "queue_wait_ms");
+                metrics.mNetwork.dump(writer, "network_ms");
+                metrics.mParse.dump(writer, "parse_ms");
+                metrics.mWrite.dump(writer, "write_ms");
+            }
+        }
+    }
+
+    // Returns the dump of the metrics as a string
+    public static String dump() {
+        StringWriter out = new StringWriter();
+        PrintWriter writer = new PrintWriter(out);
+        dump(writer);
+        writer.flush();
+        return out.toString();
+    }
+
+    /**
+     * The measurements of a single sync, which are filled in by the request and the callback of the sync as it goes
+     * through each stage. Each stage is only filled in by one thread, and volley hands the request between its threads
+     * through its queues, so the sample doesn't need any locking of its own.
+     */
+    public static final class Sample {
+        public final String NAME;
+        public final String SOURCE;
+
+        // The times the request was queued and when the network part started and finished, zero until they happen
+        private long mQueuedAt;
+        private long mNetworkStart;
+        private long mNetworkEnd;
+        private boolean mNotModified;
+        private long mBytes;
+        private long mParseTime;
+        private long mWriteTime;
+        private int mRows;
+        private int mNotifications;
+
+        /**
+         * Creates the sample of a sync
+         *
+         * @param name   The name of the sync type
+         * @param source The source being synced, or ALL_SOURCES for the syncs of a single media or a search
+         */
+        public Sample(String name, String source) {
+            NAME = name;
+            SOURCE = source;
+        }
+
+        // The request has been added to the queue
+        void queued() {
+            mQueuedAt = SystemClock.elapsedRealtime();
+        }
+
+        // The request has been taken off the queue, either to go to the network or to be answered from the cache
+        void networkStarted() {
+            mNetworkStart = SystemClock.elapsedRealtime();
+        }
+
+        // The response has been received, the time from the start is the time spent on the network
+        void networkFinished(long bytes, boolean notModified) {
+            mNetworkEnd = SystemClock.elapsedRealtime();
+            mBytes = bytes;
+            mNotModified = notModified;
+        }
+
+        // The response has been parsed, taking the given time in nanoseconds
+        void parsed(long parseTime) {
+            mParseTime = parseTime;
+        }
+
+        /**
+         * The response has been written to the database
+         *
+         * @param writeTime     The time taken by the database transaction in nanoseconds
+         * @param rows          The number of rows written
+         * @param notifications The number of change notifications sent by the transaction
+         */
+        void written(long writeTime, int rows, int notifications) {
+            mWriteTime = writeTime;
+            mRows = rows;
+            mNotifications = notifications;
+        }
+    }
+
+    // The counters and histograms of a sync type and source
+    private static final class SourceMetrics {
+        private final Histogram mQueueWait = new Histogram(BUCKET_BOUNDS);
+        private final Histogram mNetwork = new Histogram(BUCKET_BOUNDS);
+        private final Histogram mParse = new Histogram(BUCKET_BOUNDS);
+        private final Histogram mWrite = new Histogram(BUCKET_BOUNDS);
+        private int mSyncs;
+        private int mFailures;
+        private int mNotModified;
+        private long mBytes;
+        private long mRows;
+        private long mNotifications;
+
+        // Adds a sample, the stages it never reached aren't added to their histograms
+        void add(Sample sample, boolean success) {
+            mSyncs++;
+            if (!success) mFailures++;
+            if (sample.mNotModified) mNotModified++;
+            mBytes += sample.mBytes;
+            mRows += sample.mRows;
+            mNotifications += sample.mNotifications;
+            if (sample.mQueuedAt > 0 && sample.mNetworkStart > 0) mQueueWait.add(sample.mNetworkStart - sample.mQueuedAt);
+            if (sample.mNetworkStart > 0 && sample.mNetworkEnd > 0) mNetwork.add(sample.mNetworkEnd - sample.mNetworkStart);
+            if (sample.mParseTime > 0) mParse.add(sample.mParseTime / 1000000);
+            if (sample.mWriteTime > 0) mWrite.add(sample.mWriteTime / 1000000);
+        }
+    }
+}
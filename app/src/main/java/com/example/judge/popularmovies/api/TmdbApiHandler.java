@@ -4,29 +4,42 @@
 
 package com.example.judge.popularmovies.api;
 
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.content.SharedPreferences;
+import android.database.Cursor;
 import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.RemoteException;
 import android.preference.PreferenceManager;
+import android.provider.BaseColumns;
 import android.support.annotation.IntDef;
 import android.util.Log;
 
 import com.android.volley.Response;
 import com.android.volley.VolleyError;
-import com.android.volley.toolbox.JsonObjectRequest;
 import com.example.judge.popularmovies.R;
 import com.example.judge.popularmovies.data.MovieContract;
 import com.example.judge.popularmovies.data.MovieContract.MovieEntry;
 import com.example.judge.popularmovies.data.MovieContract.ReviewEntry;
+import com.example.judge.popularmovies.data.MovieContract.SearchEntry;
+import com.example.judge.popularmovies.data.MovieContract.SourceEntry;
+import com.example.judge.popularmovies.data.MovieContract.SyncStateEntry;
 import com.example.judge.popularmovies.data.MovieContract.TVEntry;
 import com.example.judge.popularmovies.data.MovieContract.TrailerEntry;
+import com.example.judge.popularmovies.data.MovieProvider;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Random;
 
 /**
  * This is the class that is responsible for all syncing to the database from TheMovieDB, this is
@@ -36,10 +49,10 @@ import java.util.Date;
  * are passed in to the single sync method. This then sets up various parameters needed for the syncing
  * process, it then calls volley to perform the json download and parsing, and in the callback it
  * uses the set parameters such as column data and database/content provider names in order to correctly
- * sync the database. It first performs the download, then once it has the JSONObject it pulls the results
- * array outside of it. It then uses this array in order to populate an array of ContentValues. Once all
- * of the values are setup correctly it will then do removal of the required rows in the database and a bulk
- * insert of the content values.
+ * sync the database. It first performs the download, which the TmdbRequest streams straight into an array
+ * of ContentValues using the column data. Once all of the values are setup correctly it will then merge
+ * them into the database, which only writes the rows that have changed and removes the ones that are no
+ * longer part of the synced data.
  */
 public class TmdbApiHandler {
 
@@ -53,9 +66,27 @@ public class TmdbApiHandler {
     public static final int SYNC_TV_TRAILER = 6;
     public static final int SYNC_TV_DETAIL = 7;
     public static final int SYNC_TV_SEARCH = 8;
+    public static final int SYNC_MOVIE_FULL_DETAIL = 9;
+    public static final int SYNC_TV_FULL_DETAIL = 10;
+
+    // The names of the sync types used in the metrics, in the order of the sync types
+    private static final String[] SYNC_NAMES = {
+            "movie",
+            "movie_review",
+            "movie_trailer",
+            "movie_detail",
+            "movie_search",
+            "tv",
+            "tv_trailer",
+            "tv_detail",
+            "tv_search",
+            "movie_full_detail",
+            "tv_full_detail"
+    };
 
     // The base uri and paths required for the various calls
     private static final Uri API_BASE_URI = Uri.parse("http://api.themoviedb.org/3");
+    private static Uri sApiBaseUri = API_BASE_URI;
     private static final String MOVIE_PATH = "movie";
     private static final String TV_PATH = "tv";
     private static final String REVIEW_PATH = "reviews";
@@ -73,9 +104,29 @@ public class TmdbApiHandler {
     // These are the various key parameters and other parameters needed for the syncing.
     private static final String API_KEY_PARAM = "api_key";
     private static final String API_QUERY_PARAM = "query";
-    private static final String API_RESULT_ARRAY_KEY = "results";
+    private static final String API_PAGE_PARAM = "page";
+    private static final String API_APPEND_PARAM = "append_to_response";
     private static final String LOG_TAG = TmdbApiHandler.class.getSimpleName();
 
+    // The backoff of a failing sync doubles with each failure from the base delay up to the maximum, and only the
+    // first few failures are retried in the background, after that the sync waits until it is next asked for
+    private static final long RETRY_BASE_DELAY = 30 * 1000;
+    private static final long RETRY_MAX_DELAY = 30 * 60 * 1000;
+    private static final int MAX_BACKGROUND_RETRIES = 4;
+
+    // TheMovieDB always returns this many results for each page of a list, used to rank the media of the later pages
+    private static final int RESULTS_PER_PAGE = 20;
+    private static final Random sRandom = new Random();
+
+    // Handler used to post the completion of a sync back to the UI thread
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+
+    // The syncs that are currently in flight, with the listeners waiting on each of them, and the counts of the
+    // syncs that were requested and the ones that were coalesced into a sync already in flight
+    private static final HashMap<String, ArrayList<OnSyncFinishedListener>> sInFlight = new HashMap<>();
+    private static int sRequestCount;
+    private static int sCoalescedCount;
+
     /**
      * This is the most often used sync function, and doesn't force the syncing of the data
      * @param syncType The type of syncing to perform
@@ -96,6 +147,78 @@ public class TmdbApiHandler {
      * @param force Whether to force syncing even if the minimum time between syncs hasn't elapsed
      */
     public static void sync(final @SyncType int syncType, final String source, final Context context, final boolean force) {
+        sync(syncType, source, context, force, null);
+    }
+
+    /**
+     * The full sync function, which in addition to the above takes a listener that is notified on the UI thread
+     * once the sync has finished, whether it succeeded, failed, or was skipped as it wasn't yet needed.
+     * @param syncType The type of syncing to perform
+     * @param source The source to sync, such as most popular
+     * @param context The context for the application
+     * @param force Whether to force syncing even if the minimum time between syncs hasn't elapsed
+     * @param listener The listener to notify once the sync has finished, can be null
+     */
+    public static void sync(final @SyncType int syncType, final String source, final Context context, final boolean force,
+                            final OnSyncFinishedListener listener) {
+        sync(syncType, source, context, force, 1, listener, false);
+    }
+
+    /**
+     * Syncs the source straight away on behalf of the user, such as when pulling to refresh, this is forced and
+     * also ignores any backoff from earlier failures of the sync.
+     * @param syncType The type of syncing to perform
+     * @param source The source to sync, such as most popular
+     * @param context The context for the application
+     * @param listener The listener to notify once the sync has finished, can be null
+     */
+    public static void refresh(final @SyncType int syncType, final String source, final Context context,
+                               final OnSyncFinishedListener listener) {
+        sync(syncType, source, context, true, 1, listener, true);
+    }
+
+    /**
+     * Syncs the page after the last one loaded for the given source, only if there are more pages available
+     * and the first page has already been loaded. Only the movie and tv source lists are paged.
+     * @param syncType The type of syncing to perform, either SYNC_MOVIE or SYNC_TV
+     * @param source The source to sync, such as most popular
+     * @param context The context for the application
+     * @param listener The listener to notify once the page has been synced, can be null
+     * @return Returns whether a sync of the next page was started
+     */
+    public static boolean syncNextPage(final @SyncType int syncType, final String source, final Context context,
+                                       final OnSyncFinishedListener listener) {
+        if (syncType != SYNC_MOVIE && syncType != SYNC_TV) return false;
+
+        final SharedPreferences pref = getUpdatePreferences(context);
+        final String type = (syncType == SYNC_MOVIE) ? MovieContract.PATH_MOVIE : MovieContract.PATH_TV;
+        final int page = pref.getInt(String.format("%s_%s_page", type, source), 0);
+        final int totalPages = pref.getInt(String.format("%s_%s_total_pages", type, source), 0);
+
+        if (page < 1 || page >= totalPages) return false;
+        sync(syncType, source, context, true, page + 1, listener, false);
+        return true;
+    }
+
+    // Points the syncs at another server standing in for TheMovieDB, which the tests use, null goes back to TheMovieDB
+    static void setApiBaseUri(Uri uri) {
+        sApiBaseUri = (uri != null) ? uri : API_BASE_URI;
+    }
+
+    // The shared preference file that contains the sync times, validators and page information for each source
+    private static SharedPreferences getUpdatePreferences(Context context) {
+        return context.getSharedPreferences(context.getPackageName() + "_updates", Context.MODE_PRIVATE);
+    }
+
+    /**
+     * The actual sync function, which also takes the page of the source list to sync, and whether to ignore the backoff.
+     * The request is run through the sync queue of the VolleySingleton, so the callbacks and all of the database work
+     * happen on the sync executor, with only the completion of the sync being posted back to the UI thread. A sync that
+     * is already in flight isn't requested again, the duplicate just waits for it to finish. Every sync that goes out
+     * to TheMovieDB is measured in the SyncMetrics, from the wait in the queue through to the database transaction.
+     */
+    private static void sync(final @SyncType int syncType, final String source, final Context context, final boolean force,
+                             final int page, final OnSyncFinishedListener listener, final boolean ignoreBackoff) {
 
         // The various parameters required for the sync process, final in order to be accessible within the callback
 
@@ -114,6 +237,15 @@ public class TmdbApiHandler {
         // The URI's used, uri is the TheMovieDB url to sync against, and contentUri is which Content Provider uri to access.
         final Uri uri, contentUri;
 
+        // Whether the sync is of a paged source list, in which case the page is added to the request
+        final boolean paged = (syncType == SYNC_MOVIE || syncType == SYNC_TV);
+
+        // Whether the sync is a remote search, which only fills in the results that aren't already stored locally
+        final boolean search = (syncType == SYNC_MOVIE_SEARCH || syncType == SYNC_TV_SEARCH);
+
+        // The sections appended to the response, which are written along with it, only the full detail syncs have these
+        TmdbRequest.Section[] appended = null;
+
         // Massive switch statement which for each sync type sets the parameters
         switch (syncType) {
             case SYNC_MOVIE: {
@@ -121,33 +253,36 @@ public class TmdbApiHandler {
                 switch (source) {
                     case MovieEntry.SOURCE_FAVORITE: {
                         Log.v(LOG_TAG, "Attempted to sync offline source " + source);
+                        postSyncFinished(listener, syncType, source, false);
                         return;
                     }
                     case MovieEntry.SOURCE_NOW_PLAYING: {
-                        uri = API_BASE_URI.buildUpon().appendPath(MOVIE_PATH).appendPath(NOW_PLAYING_PATH)
+                        uri = sApiBaseUri.buildUpon().appendPath(MOVIE_PATH).appendPath(NOW_PLAYING_PATH)
                                 .appendQueryParameter(API_KEY_PARAM, TmdbApiKey.KEY).build();
                         break;
                     }
                     case MovieEntry.SOURCE_POPULAR: {
-                        uri = API_BASE_URI.buildUpon().appendPath(MOVIE_PATH).appendPath(POPULAR_PATH)
+                        uri = sApiBaseUri.buildUpon().appendPath(MOVIE_PATH).appendPath(POPULAR_PATH)
                                 .appendQueryParameter(API_KEY_PARAM, TmdbApiKey.KEY).build();
                         break;
                     }
                     case MovieEntry.SOURCE_RATING: {
-                        uri = API_BASE_URI.buildUpon().appendPath(MOVIE_PATH).appendPath(RATING_PATH)
+                        uri = sApiBaseUri.buildUpon().appendPath(MOVIE_PATH).appendPath(RATING_PATH)
                                 .appendQueryParameter(API_KEY_PARAM, TmdbApiKey.KEY).build();
                         break;
                     }
                     case MovieEntry.SOURCE_SEARCH: {
+                        postSyncFinished(listener, syncType, source, false);
                         return;
                     }
                     case MovieEntry.SOURCE_UPCOMING: {
-                        uri = API_BASE_URI.buildUpon().appendPath(MOVIE_PATH).appendPath(UPCOMING_PATH)
+                        uri = sApiBaseUri.buildUpon().appendPath(MOVIE_PATH).appendPath(UPCOMING_PATH)
                                 .appendQueryParameter(API_KEY_PARAM, TmdbApiKey.KEY).build();
                         break;
                     }
                     default: {
                         Log.e(LOG_TAG, "Unknown source: " + source);
+                        postSyncFinished(listener, syncType, source, false);
                         return;
                     }
                 }
@@ -163,7 +298,7 @@ public class TmdbApiHandler {
             }
             case SYNC_MOVIE_REVIEW: {
 
-                uri = API_BASE_URI.buildUpon()
+                uri = sApiBaseUri.buildUpon()
                         .appendPath(MOVIE_PATH)
                         .appendPath(source).appendPath(REVIEW_PATH)
                         .appendQueryParameter(API_KEY_PARAM, TmdbApiKey.KEY).build();
@@ -178,7 +313,7 @@ public class TmdbApiHandler {
                 break;
             }
             case SYNC_MOVIE_SEARCH: {
-                uri = API_BASE_URI.buildUpon()
+                uri = sApiBaseUri.buildUpon()
                         .appendPath(SEARCH_PATH)
                         .appendPath(MOVIE_PATH)
                         .appendQueryParameter(API_QUERY_PARAM, source)
@@ -193,7 +328,7 @@ public class TmdbApiHandler {
                 break;
             }
             case SYNC_MOVIE_TRAILER: {
-                uri = API_BASE_URI.buildUpon()
+                uri = sApiBaseUri.buildUpon()
                         .appendPath(MOVIE_PATH)
                         .appendPath(source).appendPath(TRAILER_PATH)
                         .appendQueryParameter(API_KEY_PARAM, TmdbApiKey.KEY).build();
@@ -208,7 +343,7 @@ public class TmdbApiHandler {
                 break;
             }
             case SYNC_MOVIE_DETAIL: {
-                uri = API_BASE_URI.buildUpon()
+                uri = sApiBaseUri.buildUpon()
                         .appendPath(MOVIE_PATH)
                         .appendPath(source)
                         .appendQueryParameter(API_KEY_PARAM, TmdbApiKey.KEY).build();
@@ -222,38 +357,63 @@ public class TmdbApiHandler {
                 update = true;
                 break;
             }
+            case SYNC_MOVIE_FULL_DETAIL: {
+                uri = sApiBaseUri.buildUpon()
+                        .appendPath(MOVIE_PATH)
+                        .appendPath(source)
+                        .appendQueryParameter(API_APPEND_PARAM, TRAILER_PATH + "," + REVIEW_PATH)
+                        .appendQueryParameter(API_KEY_PARAM, TmdbApiKey.KEY).build();
+
+                key = new String[]{source};
+                contentUri = MovieEntry.CONTENT_URI;
+                apiColumns = MovieEntry.API_COLUMNS;
+                nonApiColumns = MovieEntry.NONAPI_COLUMNS;
+                type = MovieContract.PATH_MOVIE;
+                selection = MovieEntry.selectId();
+                update = true;
+                appended = new TmdbRequest.Section[]{
+                        new TmdbRequest.Section(TRAILER_PATH, TrailerEntry.CONTENT_URI, TrailerEntry.API_COLUMNS,
+                                TrailerEntry.NONAPI_COLUMNS, TrailerEntry.selectId(), new String[]{source, MovieContract.PATH_MOVIE}),
+                        new TmdbRequest.Section(REVIEW_PATH, ReviewEntry.CONTENT_URI, ReviewEntry.API_COLUMNS,
+                                ReviewEntry.NONAPI_COLUMNS, ReviewEntry.selectId(), new String[]{source})
+                };
+                break;
+            }
             case SYNC_TV: {
 
                 switch (source) {
                     case TVEntry.SOURCE_FAVORITE: {
                         Log.v(LOG_TAG, "Attempted to sync offline source " + source);
+                        postSyncFinished(listener, syncType, source, false);
                         return;
                     }
                     case TVEntry.SOURCE_AIRING_TODAY: {
-                        uri = API_BASE_URI.buildUpon().appendPath(TV_PATH).appendPath(AIRING_TODAY_PATH)
+                        uri = sApiBaseUri.buildUpon().appendPath(TV_PATH).appendPath(AIRING_TODAY_PATH)
                                 .appendQueryParameter(API_KEY_PARAM, TmdbApiKey.KEY).build();
                         break;
                     }
                     case TVEntry.SOURCE_ON_THE_AIR: {
-                        uri = API_BASE_URI.buildUpon().appendPath(TV_PATH).appendPath(ON_THE_AIR_PATH)
+                        uri = sApiBaseUri.buildUpon().appendPath(TV_PATH).appendPath(ON_THE_AIR_PATH)
                                 .appendQueryParameter(API_KEY_PARAM, TmdbApiKey.KEY).build();
                         break;
                     }
                     case TVEntry.SOURCE_POPULAR: {
-                        uri = API_BASE_URI.buildUpon().appendPath(TV_PATH).appendPath(POPULAR_PATH)
+                        uri = sApiBaseUri.buildUpon().appendPath(TV_PATH).appendPath(POPULAR_PATH)
                                 .appendQueryParameter(API_KEY_PARAM, TmdbApiKey.KEY).build();
                         break;
                     }
                     case TVEntry.SOURCE_RATING: {
-                        uri = API_BASE_URI.buildUpon().appendPath(TV_PATH).appendPath(RATING_PATH)
+                        uri = sApiBaseUri.buildUpon().appendPath(TV_PATH).appendPath(RATING_PATH)
                                 .appendQueryParameter(API_KEY_PARAM, TmdbApiKey.KEY).build();
                         break;
                     }
                     case TVEntry.SOURCE_SEARCH: {
+                        postSyncFinished(listener, syncType, source, false);
                         return;
                     }
                     default: {
                         Log.e(LOG_TAG, "Unknown source: " + source);
+                        postSyncFinished(listener, syncType, source, false);
                         return;
                     }
                 }
@@ -268,7 +428,7 @@ public class TmdbApiHandler {
                 break;
             }
             case SYNC_TV_SEARCH: {
-                uri = API_BASE_URI.buildUpon()
+                uri = sApiBaseUri.buildUpon()
                         .appendPath(SEARCH_PATH)
                         .appendPath(TV_PATH)
                         .appendQueryParameter(API_QUERY_PARAM, source)
@@ -283,7 +443,7 @@ public class TmdbApiHandler {
                 break;
             }
             case SYNC_TV_TRAILER: {
-                uri = API_BASE_URI.buildUpon()
+                uri = sApiBaseUri.buildUpon()
                         .appendPath(TV_PATH)
                         .appendPath(source).appendPath(TRAILER_PATH)
                         .appendQueryParameter(API_KEY_PARAM, TmdbApiKey.KEY).build();
@@ -298,9 +458,25 @@ public class TmdbApiHandler {
                 break;
             }
             case SYNC_TV_DETAIL: {
-                uri = API_BASE_URI.buildUpon()
+                uri = sApiBaseUri.buildUpon()
+                        .appendPath(TV_PATH)
+                        .appendPath(source)
+                        .appendQueryParameter(API_KEY_PARAM, TmdbApiKey.KEY).build();
+
+                key = new String[]{source};
+                contentUri = TVEntry.CONTENT_URI;
+                apiColumns = TVEntry.API_COLUMNS;
+                nonApiColumns = TVEntry.NONAPI_COLUMNS;
+                type = MovieContract.PATH_TV;
+                selection = TVEntry.selectId();
+                update = true;
+                break;
+            }
+            case SYNC_TV_FULL_DETAIL: {
+                uri = sApiBaseUri.buildUpon()
                         .appendPath(TV_PATH)
                         .appendPath(source)
+                        .appendQueryParameter(API_APPEND_PARAM, TRAILER_PATH)
                         .appendQueryParameter(API_KEY_PARAM, TmdbApiKey.KEY).build();
 
                 key = new String[]{source};
@@ -310,6 +486,10 @@ public class TmdbApiHandler {
                 type = MovieContract.PATH_TV;
                 selection = TVEntry.selectId();
                 update = true;
+                appended = new TmdbRequest.Section[]{
+                        new TmdbRequest.Section(TRAILER_PATH, TrailerEntry.CONTENT_URI, TrailerEntry.API_COLUMNS,
+                                TrailerEntry.NONAPI_COLUMNS, TrailerEntry.selectId(), new String[]{source, MovieContract.PATH_TV})
+                };
                 break;
             }
             default:
@@ -318,96 +498,454 @@ public class TmdbApiHandler {
 
         /**
          * This section uses a shared preference file in order to store the last sync time, and checks it against a minimum
-         * time set in the settings panel.
+         * time set in the settings panel. The first page of the source lists also stores the validators of the last response,
+         * which are used to make the next request conditional, and when the response expires according to the server.
          */
-        final SharedPreferences pref = context.getSharedPreferences(context.getPackageName() + "_updates", Context.MODE_PRIVATE);
+        final Context appContext = context.getApplicationContext();
+        final SharedPreferences pref = getUpdatePreferences(context);
         final String updateKey = String.format("%s_%s_updated", type, source);
+        final String pageKey = String.format("%s_%s_page", type, source);
+        final String totalPagesKey = String.format("%s_%s_total_pages", type, source);
+        final String eTagKey = String.format("%s_%s_etag", type, source);
+        final String lastModifiedKey = String.format("%s_%s_last_modified", type, source);
+        final String expiresKey = String.format("%s_%s_expires", type, source);
+        final String failuresKey = String.format("%s_%s_failures", type, source);
+        final String retryAtKey = String.format("%s_%s_retry_at", type, source);
+        final boolean conditional = paged && page == 1;
+        final Uri requestUri = (paged) ? uri.buildUpon().appendQueryParameter(API_PAGE_PARAM, Integer.toString(page)).build() : uri;
         final long updateInterval = 60000 * Long.parseLong(PreferenceManager.getDefaultSharedPreferences(context)
                 .getString(context.getString(R.string.pref_update_interval_key), context.getString(R.string.pref_update_interval_default)));
         final long updateTime = pref.getLong(updateKey, 0);
         final long currentTime = (new Date()).getTime();
 
+        // The sources aren't stored in the media tables, so the rows of the source lists are counted through the source view
+        final Uri countUri = (paged || search) ? SourceEntry.buildTypeUri(type) : contentUri;
+        final TmdbRequest.Section[] sections = appended;
+
+        // Only the source lists and the detail of a media are shown as stale, so only those keep a sync state, the
+        // state of the detail is removed by the database along with the media
+        final boolean recordState = paged || update;
+
+        // A source list that the server said is still fresh doesn't need to be synced, even once the minimum time is past
+        final boolean fresh = conditional && currentTime < pref.getLong(expiresKey, 0);
+
         // Check if we are past the minimum sync time or we are force updating
-        if ((currentTime - updateTime) > updateInterval || force) {
+        if (((currentTime - updateTime) > updateInterval && !fresh) || force) {
+
+            // A sync that has been failing is left alone until its backoff is over, rather than being requested every time
+            final long retryAt = pref.getLong(retryAtKey, 0);
+            if (currentTime < retryAt && !ignoreBackoff) {
+                Log.v(LOG_TAG, String.format("Backing off the %s %s sync for another %d seconds", type, source, (retryAt - currentTime) / 1000));
+                postSyncFinished(listener, syncType, source, false);
+                return;
+            }
+
+            // If the same sync is already in flight just wait for it to finish instead of requesting it again
+            final String inFlightKey = String.format("%d_%s_%d", syncType, source, page);
+            synchronized (sInFlight) {
+                ArrayList<OnSyncFinishedListener> listeners = sInFlight.get(inFlightKey);
+                if (listeners != null) {
+                    listeners.add(listener);
+                    sCoalescedCount++;
+                    return;
+                }
+                listeners = new ArrayList<>();
+                listeners.add(listener);
+                sInFlight.put(inFlightKey, listeners);
+                sRequestCount++;
+            }
+
+            // The metrics of the sync, the syncs of a single media or a search are all measured together
+            final SyncMetrics.Sample sample = new SyncMetrics.Sample(SYNC_NAMES[syncType], (paged) ? source : SyncMetrics.ALL_SOURCES);
 
-            // Creates the JSON request object to pass to volley.
-            JsonObjectRequest request = new JsonObjectRequest(uri.toString(), new Response.Listener<JSONObject>() {
+            // Creates the request object to pass to volley, which parses the response on the network thread,
+            // and has the callbacks run on the sync executor rather than the UI thread.
+            TmdbRequest request = new TmdbRequest(requestUri.toString(), apiColumns, nonApiColumns, key, update,
+                    new Response.Listener<TmdbRequest.Result>() {
 
                 @Override
-                public void onResponse(JSONObject response) {
-                    try {
-                        // After we get the response try to get the results array, inserting the data in a new one if not present
-                        JSONArray data = (response.has(API_RESULT_ARRAY_KEY)) ?
-                                response.getJSONArray(API_RESULT_ARRAY_KEY) : new JSONArray().put(response);
-
-                        // Check the length of the data received, and only do an update if there is actually data to use
-                        int dataLength = data.length();
-                        int inserted;
-                        if (dataLength > 0) {
-                            ContentValues[] values = new ContentValues[dataLength];
-
-                            // For loop that goes through each element in the data array
-                            for (int i = 0; i < dataLength; i++) {
-                                JSONObject object = data.getJSONObject(i);
-                                values[i] = new ContentValues(apiColumns.length + nonApiColumns.length);
-
-                                // Add our non api columns with their values
-                                if (!update) {
-                                    for (int j = 0; j < nonApiColumns.length; j++) {
-                                        values[i].put(nonApiColumns[j].COLUMN, key[j]);
-                                    }
-                                }
-
-                                // Go through each of the api columns and pull the data from the response into a content value column
-                                // We have it getting optional values in order to ensure that there are no nulls in the database
-                                for (MovieContract.DatabaseColumn apiColumn : apiColumns) {
-                                    switch (apiColumn.TYPE) {
-                                        case "integer": {
-                                            values[i].put(apiColumn.COLUMN, object.optInt(apiColumn.API, -1));
-                                            break;
-                                        }
-                                        case "text": {
-                                            values[i].put(apiColumn.COLUMN, object.optString(apiColumn.API, "null"));
-                                            break;
-                                        }
-                                        case "real": {
-                                            values[i].put(apiColumn.COLUMN, object.optDouble(apiColumn.API, -1));
-                                            break;
-                                        }
-                                    }
-                                }
-                            }
+                public void onResponse(TmdbRequest.Result response) {
+
+                    // Store the validators of the response for the next request of the source list, a validator the
+                    // response left out is kept, as a not modified response doesn't have to repeat them
+                    if (conditional) {
+                        SharedPreferences.Editor editor = pref.edit().putLong(expiresKey, response.EXPIRES);
+                        if (response.ETAG != null) editor.putString(eTagKey, response.ETAG);
+                        if (response.LAST_MODIFIED != null) editor.putString(lastModifiedKey, response.LAST_MODIFIED);
+                        editor.apply();
+                    }
 
-                            // If we have to update, update the rows, otherwise we delete the required rows and do a bulk insert
-                            if (update) {
-                                inserted = 0;
-                                for (ContentValues value : values) {
-                                    inserted += context.getContentResolver().update(contentUri, value, selection, key);
-                                }
-                            } else {
-                                context.getContentResolver().delete(contentUri, selection, key);
-                                inserted = context.getContentResolver().bulkInsert(contentUri, values);
-                            }
-                            // Simple message to print out how much the database was altered.
-                            Log.e(LOG_TAG, String.format("Inserted %d %s's into the %s ContentProvider", inserted, type, contentUri));
+                    // Nothing has changed since the last sync, so there is nothing to parse or write
+                    if (response.NOT_MODIFIED) {
+                        Log.v(LOG_TAG, String.format("The %s %s source hasn't been modified", type, source));
+                        int rowCount = countRows(appContext.getContentResolver(), countUri, selection, key);
+                        pref.edit().putLong(updateKey, (new Date()).getTime()).remove(failuresKey).remove(retryAtKey).apply();
+                        clearFailure(appContext.getContentResolver(), type, source, currentTime, rowCount);
+                        SyncMetrics.record(sample, true);
+                        finishSync(inFlightKey, syncType, source, true);
+
+                        // If the rows of the source are gone, such as the database being recreated, the validators and
+                        // the pages loaded are of no use, so drop them and sync the source again in full
+                        if (rowCount == 0) {
+                            pref.edit().remove(eTagKey).remove(lastModifiedKey).remove(expiresKey).remove(pageKey).apply();
+                            sync(syncType, source, appContext, true, page, null, false);
+                        }
+                        return;
+                    }
+
+                    // The media of a search that the local search index already finds are left out, so only the rest
+                    // are written into the search source, which also clears the results of the previous search
+                    ContentValues[] values = response.VALUES;
+                    if (search) {
+                        values = removeStored(appContext.getContentResolver(), type, source, values);
+                    }
+
+                    // Only do an update if there is actually data to use
+                    if (values.length > 0 || search) {
+                        long writeStart = System.nanoTime();
+                        int notifyStart = MovieProvider.getNotifyCount();
+                        int inserted = (sections != null) ?
+                                writeDetail(appContext.getContentResolver(), contentUri, response, selection, key, sections) :
+                                writeValues(appContext.getContentResolver(), contentUri, values, nonApiColumns, selection, key, update, page);
+                        sample.written(System.nanoTime() - writeStart, inserted, MovieProvider.getNotifyCount() - notifyStart);
+
+                        // Simple message to print out how much the database was altered, only formatted when it is logged
+                        if (Log.isLoggable(LOG_TAG, Log.VERBOSE)) {
+                            Log.v(LOG_TAG, String.format("Changed %d %s's in the %s ContentProvider", inserted, type, contentUri));
+                        }
 
-                            // Update the last sync time in the shared preferences
+                        // Update the last sync time in the shared preferences, later pages don't count as a full sync of the source
+                        if (page == 1) {
                             pref.edit().putLong(updateKey, (new Date()).getTime()).apply();
                         }
+                    }
 
-                    } catch (JSONException e) {
-                        Log.e(LOG_TAG, String.format("Error parsing the %s JSON Object: %s", type, e.getLocalizedMessage()));
+                    // Store which page we are on and how many there are, so the next page can be requested, a refresh
+                    // of the first page keeps the later pages that were loaded, as long as the source still has them
+                    if (paged) {
+                        int loaded = Math.min(Math.max(page, pref.getInt(pageKey, 0)), Math.max(response.TOTAL_PAGES, 1));
+                        pref.edit().putInt(pageKey, loaded).putInt(totalPagesKey, response.TOTAL_PAGES).apply();
+
+                        // The later pages are synced again along with the first, so they don't keep the media that
+                        // have dropped out of them, or the media that have moved into the first page
+                        if (page == 1) {
+                            for (int later = 2; later <= loaded; later++) {
+                                sync(syncType, source, appContext, true, later, null, false);
+                            }
+                        }
+                    }
+
+                    // The sync worked, so any backoff from earlier failures is over
+                    pref.edit().remove(failuresKey).remove(retryAtKey).apply();
+                    if (recordState) {
+                        recordSuccess(appContext.getContentResolver(), type, source, currentTime,
+                                countRows(appContext.getContentResolver(), countUri, selection, key));
                     }
+                    SyncMetrics.record(sample, true);
+                    finishSync(inFlightKey, syncType, source, true);
                 }
             }, new Response.ErrorListener() {
                 @Override
                 public void onErrorResponse(VolleyError error) {
                     Log.e(LOG_TAG, String.format("Error retrieving the %s data from theMovieDB: %s", type, error.getLocalizedMessage()));
+
+                    // Back the sync off, and record the failure so the data can be shown as stale
+                    int failures = pref.getInt(failuresKey, 0) + 1;
+                    long delay = getRetryDelay(failures);
+                    long retryTime = (new Date()).getTime() + delay;
+                    pref.edit().putInt(failuresKey, failures).putLong(retryAtKey, retryTime).apply();
+                    if (recordState) {
+                        recordFailure(appContext.getContentResolver(), type, source, currentTime, describeError(error), failures, retryTime);
+                    }
+                    SyncMetrics.record(sample, false);
+                    finishSync(inFlightKey, syncType, source, false);
+
+                    // Retry the first page in the background once the backoff is over, for the first few failures
+                    if (page == 1 && failures <= MAX_BACKGROUND_RETRIES) {
+                        Log.v(LOG_TAG, String.format("Retrying the %s %s sync in %d seconds", type, source, delay / 1000));
+                        sMainHandler.postDelayed(new Runnable() {
+                            @Override
+                            public void run() {
+                                sync(syncType, source, appContext, true, page, null, true);
+                            }
+                        }, delay);
+                    }
                 }
             });
 
-            VolleySingleton.getInstance(context).getRequestQueue().add(request);
+            if (conditional) {
+                request.setValidators(pref.getString(eTagKey, null), pref.getString(lastModifiedKey, null));
+            }
+            if (sections != null) {
+                request.setSections(sections);
+            }
+            request.setMetrics(sample);
+            VolleySingleton.getInstance(context).getSyncQueue().add(request);
+        } else {
+            postSyncFinished(listener, syncType, source, true);
+        }
+    }
+
+    /**
+     * Writes the parsed values into the content provider. If we have to update, update the rows in a single batch,
+     * otherwise we merge the values into the existing rows of the source, removing the ones that are gone. The media
+     * of the source lists are ranked by their position in the results, carrying on from the earlier pages, so the
+     * lists are shown in the same order as TheMovieDB has them, and only the media ranked within the page are removed.
+     *
+     * @return Returns the number of rows that were changed
+     */
+    static int writeValues(ContentResolver resolver, Uri contentUri, ContentValues[] values,
+                           MovieContract.DatabaseColumn[] nonApiColumns, String selection, String[] key, boolean update, int page) {
+        if (update) {
+
+            // All of the updates are applied as one batch, so they share a transaction and a change notification
+            ArrayList<ContentProviderOperation> operations = new ArrayList<>(values.length);
+            for (ContentValues value : values) {
+                operations.add(ContentProviderOperation.newUpdate(contentUri).withValues(value).withSelection(selection, key).build());
+            }
+            try {
+                int updated = 0;
+                for (ContentProviderResult result : resolver.applyBatch(MovieContract.CONTENT_AUTHORITY, operations)) {
+                    updated += result.count;
+                }
+                return updated;
+            } catch (RemoteException | OperationApplicationException e) {
+                Log.e(LOG_TAG, String.format("Error updating the %s ContentProvider: %s", contentUri, e.getLocalizedMessage()));
+                return 0;
+            }
+        }
+
+        boolean ranked = contentUri.equals(MovieEntry.CONTENT_URI) || contentUri.equals(TVEntry.CONTENT_URI);
+        if (ranked) {
+            for (int i = 0; i < values.length; i++) {
+                values[i].put(SourceEntry.RANK.COLUMN, (page - 1) * RESULTS_PER_PAGE + i);
+            }
+        }
+        if (ranked) {
+            // Each page only replaces the media ranked within it, the other pages stay until they are synced again
+            return resolver.bulkInsert(MovieContract.buildMergeUri(contentUri, nonApiColumns, key,
+                    (page - 1) * RESULTS_PER_PAGE, page * RESULTS_PER_PAGE), values);
+        } else {
+            return resolver.bulkInsert(MovieContract.buildMergeUri(contentUri, nonApiColumns, key), values);
+        }
+    }
+
+    /**
+     * Writes the values of a detail response along with the sections appended to it as a single batch, so the media
+     * and the rows of all of its sections are written within one transaction, with one change notification for each
+     * table. The media is updated, while the rows of each section are merged into the rows stored for the media, with
+     * the ones that are gone being removed. A section missing from the response leaves its stored rows alone.
+     *
+     * @return Returns the number of media rows that were updated and section rows that were removed
+     */
+    static int writeDetail(ContentResolver resolver, Uri contentUri, TmdbRequest.Result result, String selection,
+                           String[] key, TmdbRequest.Section[] sections) {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        for (ContentValues value : result.VALUES) {
+            operations.add(ContentProviderOperation.newUpdate(contentUri).withValues(value).withSelection(selection, key).build());
+        }
+        for (TmdbRequest.Section section : sections) {
+            TmdbRequest.Result sectionResult = result.SECTIONS.get(section.NAME);
+            if (sectionResult == null) continue;
+
+            // Merging nothing removes all of the rows, which the batch has to be told to do directly
+            if (sectionResult.VALUES.length == 0) {
+                operations.add(ContentProviderOperation.newDelete(section.CONTENT_URI).withSelection(section.SELECTION, section.KEY).build());
+                continue;
+            }
+            Uri mergeUri = MovieContract.buildMergeUri(section.CONTENT_URI, section.NONAPI_COLUMNS, section.KEY);
+            for (ContentValues value : sectionResult.VALUES) {
+                operations.add(ContentProviderOperation.newInsert(mergeUri).withValues(value).build());
+            }
+        }
+
+        try {
+            int changed = 0;
+            for (ContentProviderResult operationResult : resolver.applyBatch(MovieContract.CONTENT_AUTHORITY, operations)) {
+                if (operationResult.count != null) changed += operationResult.count;
+            }
+            return changed;
+        } catch (RemoteException | OperationApplicationException e) {
+            Log.e(LOG_TAG, String.format("Error writing the %s detail to the ContentProvider: %s", contentUri, e.getLocalizedMessage()));
+            return 0;
+        }
+    }
+
+    // Counts the rows that are stored for the selection
+    private static int countRows(ContentResolver resolver, Uri contentUri, String selection, String[] key) {
+        Cursor cursor = resolver.query(contentUri, new String[]{BaseColumns._ID}, selection, key, null);
+        if (cursor == null) return 0;
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Removes the values of the media that the local search already finds for the query, and that are stored within a
+     * source other than the search, leaving the media that only the remote search knows about. TheMovieDB also
+     * matches on the alternative and translated titles, which aren't in the local search index, so a stored media
+     * that the local search doesn't find is kept, otherwise it wouldn't show up in either of the results.
+     *
+     * @param type  The media type of the values
+     * @param query The text that was searched for
+     * @return Returns the values of the media that the local search doesn't find
+     */
+    private static ContentValues[] removeStored(ContentResolver resolver, String type, String query, ContentValues[] values) {
+        if (values.length == 0) return values;
+
+        String[] args = new String[values.length];
+        String ids = "";
+        for (int i = 0; i < values.length; i++) {
+            args[i] = values[i].getAsString(MovieContract.COLUMN_MEDIA_ID);
+            ids += (ids.isEmpty() ? "" : ", ") + "?";
+        }
+        String selection = MovieContract.COLUMN_MEDIA_ID + " in (" + ids + ")";
+
+        // The media found locally are only left out if they don't depend on the search source to stay stored
+        HashSet<Long> found = queryMediaIds(resolver, SearchEntry.buildSearchUri(type, query), selection, args);
+        String[] sourceArgs = Arrays.copyOf(args, values.length + 1);
+        sourceArgs[values.length] = MovieEntry.SOURCE_SEARCH;
+        found.retainAll(queryMediaIds(resolver, SourceEntry.buildTypeUri(type),
+                selection + " and " + SourceEntry.SOURCE.COLUMN + " != ?", sourceArgs));
+
+        ArrayList<ContentValues> missing = new ArrayList<>(values.length);
+        for (ContentValues value : values) {
+            if (!found.contains(value.getAsLong(MovieContract.COLUMN_MEDIA_ID))) missing.add(value);
+        }
+        return missing.toArray(new ContentValues[missing.size()]);
+    }
+
+    // Returns the media ids of the rows of the uri that match the selection
+    private static HashSet<Long> queryMediaIds(ContentResolver resolver, Uri uri, String selection, String[] selectionArgs) {
+        HashSet<Long> mediaIds = new HashSet<>();
+        Cursor cursor = resolver.query(uri, new String[]{MovieContract.COLUMN_MEDIA_ID}, selection, selectionArgs, null);
+        if (cursor != null) {
+            try {
+                while (cursor.moveToNext()) {
+                    mediaIds.add(cursor.getLong(0));
+                }
+            } finally {
+                cursor.close();
+            }
         }
+        return mediaIds;
+    }
+
+    /**
+     * Works out how long to back a sync off for after it has failed the given number of times in a row. The delay
+     * doubles with each failure up to the maximum, and a random half of it is taken off, so that all of the syncs
+     * that failed at the same time, such as when the network went down, don't all retry at the same time.
+     *
+     * @param failures The number of times in a row the sync has failed
+     * @return Returns the delay in milliseconds
+     */
+    static long getRetryDelay(int failures) {
+        long delay = Math.min(RETRY_MAX_DELAY, RETRY_BASE_DELAY << Math.min(failures - 1, 16));
+        return delay / 2 + (long) (sRandom.nextDouble() * (delay / 2));
+    }
+
+    // Returns a short description of the error, the type of the error along with the http status if there was one
+    private static String describeError(VolleyError error) {
+        String description = error.getClass().getSimpleName();
+        if (error.networkResponse != null) {
+            description += " " + error.networkResponse.statusCode;
+        }
+        return description;
+    }
+
+    // Records a successful sync in the sync state table, which clears the error and the backoff
+    private static void recordSuccess(ContentResolver resolver, String type, String source, long attemptTime, int rowCount) {
+        writeSyncState(resolver, type, source, getSuccessValues(attemptTime, rowCount));
+    }
+
+    /**
+     * Records a not modified sync in the sync state table, only if the state still holds the error of an earlier
+     * failure. Otherwise the state is left as it is, as the stale text is only shown after a failure, so nothing is
+     * written and the loaders of the sync state aren't restarted every time the source turns out to be unchanged.
+     */
+    private static void clearFailure(ContentResolver resolver, String type, String source, long attemptTime, int rowCount) {
+        String selection = SyncStateEntry.selectSource() + " and (" + SyncStateEntry.ERROR.COLUMN + " is not null or "
+                + SyncStateEntry.FAILURES.COLUMN + " > 0)";
+        resolver.update(SyncStateEntry.CONTENT_URI, getSuccessValues(attemptTime, rowCount), selection, new String[]{type, source});
+    }
+
+    // The sync state of a successful sync, with the error and the backoff cleared
+    private static ContentValues getSuccessValues(long attemptTime, int rowCount) {
+        ContentValues values = new ContentValues();
+        values.put(SyncStateEntry.LAST_SUCCESS.COLUMN, (new Date()).getTime());
+        values.put(SyncStateEntry.LAST_ATTEMPT.COLUMN, attemptTime);
+        values.putNull(SyncStateEntry.ERROR.COLUMN);
+        values.put(SyncStateEntry.ROW_COUNT.COLUMN, rowCount);
+        values.put(SyncStateEntry.FAILURES.COLUMN, 0);
+        values.put(SyncStateEntry.RETRY_AT.COLUMN, 0);
+        return values;
+    }
+
+    // Records a failed sync in the sync state table, leaving the time of the last success and the row count as they were
+    private static void recordFailure(ContentResolver resolver, String type, String source, long attemptTime,
+                                      String error, int failures, long retryAt) {
+        ContentValues values = new ContentValues();
+        values.put(SyncStateEntry.LAST_ATTEMPT.COLUMN, attemptTime);
+        values.put(SyncStateEntry.ERROR.COLUMN, error);
+        values.put(SyncStateEntry.FAILURES.COLUMN, failures);
+        values.put(SyncStateEntry.RETRY_AT.COLUMN, retryAt);
+        writeSyncState(resolver, type, source, values);
+    }
+
+    // Updates the state of the sync if it has one, otherwise inserts it
+    private static void writeSyncState(ContentResolver resolver, String type, String source, ContentValues values) {
+        String[] selectionArgs = new String[]{type, source};
+        if (resolver.update(SyncStateEntry.CONTENT_URI, values, SyncStateEntry.selectSource(), selectionArgs) == 0) {
+            values.put(SyncStateEntry.TYPE.COLUMN, type);
+            values.put(SyncStateEntry.SOURCE.COLUMN, source);
+            resolver.insert(SyncStateEntry.CONTENT_URI, values);
+        }
+    }
+
+    // Removes a sync from the ones in flight, and posts its completion to all of the listeners that were waiting on it
+    private static void finishSync(String inFlightKey, final @SyncType int syncType, final String source, final boolean success) {
+        ArrayList<OnSyncFinishedListener> listeners;
+        synchronized (sInFlight) {
+            listeners = sInFlight.remove(inFlightKey);
+        }
+        if (listeners == null) return;
+        for (OnSyncFinishedListener listener : listeners) {
+            postSyncFinished(listener, syncType, source, success);
+        }
+    }
+
+    /**
+     * Returns the counts of the syncs that were requested from TheMovieDB, the ones that were coalesced into a sync that
+     * was already in flight rather than being requested again, and the ones that are currently in flight.
+     *
+     * @return Returns a simple string with the counts
+     */
+    public static String getSyncStats() {
+        synchronized (sInFlight) {
+            return String.format("requested=%d, coalesced=%d, in flight=%d", sRequestCount, sCoalescedCount, sInFlight.size());
+        }
+    }
+
+    // Posts the completion of a sync to the listener on the UI thread, if there is a listener to notify
+    private static void postSyncFinished(final OnSyncFinishedListener listener, final @SyncType int syncType,
+                                         final String source, final boolean success) {
+        if (listener == null) return;
+        sMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                listener.onSyncFinished(syncType, source, success);
+            }
+        });
+    }
+
+    /**
+     * Listener that is notified on the UI thread when a sync has finished, this is the only part of the
+     * sync that comes back to the UI thread.
+     */
+    public interface OnSyncFinishedListener {
+        void onSyncFinished(@SyncType int syncType, String source, boolean success);
     }
 
     // Simple Definition for all of the synctypes, for static checking of the sync type
@@ -420,7 +958,9 @@ public class TmdbApiHandler {
             SYNC_TV,
             SYNC_TV_TRAILER,
             SYNC_TV_DETAIL,
-            SYNC_TV_SEARCH
+            SYNC_TV_SEARCH,
+            SYNC_MOVIE_FULL_DETAIL,
+            SYNC_TV_FULL_DETAIL
     })
     public @interface SyncType {
     }
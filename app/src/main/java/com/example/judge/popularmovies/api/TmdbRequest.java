@@ -0,0 +1,430 @@
+/*
+ * Copyright (C) 2015 Joshua Gwinn (jdgbolt@gmail.com)
+ */
+
+package com.example.judge.popularmovies.api;
+
+import android.content.ContentValues;
+import android.net.Uri;
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.Cache;
+import com.android.volley.NetworkResponse;
+import com.android.volley.ParseError;
+import com.android.volley.Request;
+import com.android.volley.Response;
+import com.android.volley.toolbox.HttpHeaderParser;
+import com.example.judge.popularmovies.data.MovieContract.DatabaseColumn;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Volley request for TheMovieDB which parses the response straight into the content values for the database.
+ * Rather than building a whole JSONObject tree and then walking it, the response is streamed through a JsonReader
+ * and only the fields that have a matching api column are read into the values, with everything else being
+ * skipped over. The parsing happens on the network thread of volley, so the listener only gets the finished values.
+ */
+
+public class TmdbRequest extends Request<TmdbRequest.Result> {
+
+    // The keys within the response that are used, other than the api columns
+    private static final String RESULT_ARRAY_KEY = "results";
+    private static final String PAGE_KEY = "page";
+    private static final String TOTAL_PAGES_KEY = "total_pages";
+    private static final String DEFAULT_CHARSET = "UTF-8";
+
+    // The headers used for the conditional requests
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+
+    // The markers volley adds as the request goes through its queues, used for the metrics of the request
+    private static final String MARKER_QUEUED = "add-to-queue";
+    private static final String MARKER_CACHE_HIT = "cache-hit";
+    private static final String MARKER_NETWORK_TAKE = "network-queue-take";
+
+    private final Response.Listener<Result> mListener;
+    private final DatabaseColumn[] mApiColumns;
+    private final DatabaseColumn[] mNonApiColumns;
+    private final String[] mKey;
+    private final boolean mUpdate;
+    private Section[] mSections;
+    private String mETag;
+    private String mLastModified;
+    private SyncMetrics.Sample mSample;
+
+    /**
+     * Creates the request, with the column information used to parse the response
+     *
+     * @param url           The url to request
+     * @param apiColumns    The columns to pull out of each result
+     * @param nonApiColumns The columns that don't come from the results, set to the key values
+     * @param key           The values of the non api columns
+     * @param update        Whether the values are used for an update, in which case the non api columns are left out
+     */
+    public TmdbRequest(String url, DatabaseColumn[] apiColumns, DatabaseColumn[] nonApiColumns, String[] key, boolean update,
+                       Response.Listener<Result> listener, Response.ErrorListener errorListener) {
+        super(Method.GET, url, errorListener);
+        mListener = listener;
+        mApiColumns = apiColumns;
+        mNonApiColumns = nonApiColumns;
+        mKey = key;
+        mUpdate = update;
+    }
+
+    /**
+     * Parses a response from TheMovieDB into the values to write into the database. Each entry of the results array
+     * becomes a row, and if there is no results array the response itself is used as the only row. Any api column
+     * missing from a row is given a default value, in order to ensure that there are no nulls in the database.
+     *
+     * @param in The reader containing the response
+     * @return Returns the parsed rows along with the paging information
+     */
+    static Result parse(Reader in, DatabaseColumn[] apiColumns, DatabaseColumn[] nonApiColumns, String[] key, boolean update)
+            throws IOException {
+        return parse(in, apiColumns, nonApiColumns, key, update, null);
+    }
+
+    /**
+     * Parses a response from TheMovieDB along with the sections appended to it, each of which is an object within the
+     * response with its own results array, parsed the same way as a response using the columns of the section.
+     *
+     * @param in       The reader containing the response
+     * @param sections The sections appended to the response, can be null if there aren't any
+     * @return Returns the parsed rows along with the paging information, and the result of each section found
+     */
+    static Result parse(Reader in, DatabaseColumn[] apiColumns, DatabaseColumn[] nonApiColumns, String[] key, boolean update,
+                        Section[] sections) throws IOException {
+        JsonReader reader = new JsonReader(in);
+        try {
+            return readResult(reader, apiColumns, nonApiColumns, key, update, sections);
+        } finally {
+            reader.close();
+        }
+    }
+
+    // Reads the object of a response, or of a section appended to it, into its result
+    private static Result readResult(JsonReader reader, DatabaseColumn[] apiColumns, DatabaseColumn[] nonApiColumns,
+                                     String[] key, boolean update, Section[] sections) throws IOException {
+        ContentValues root = newValues(apiColumns, nonApiColumns, key, update);
+        ArrayList<ContentValues> results = null;
+        HashMap<String, Result> sectionResults = new HashMap<>();
+        int page = 1, totalPages = -1;
+
+        // Go through the top level of the response, reading the results array and the root object at the same time
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            Section section = findSection(sections, name);
+            if (name.equals(RESULT_ARRAY_KEY) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                results = new ArrayList<>();
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    ContentValues values = newValues(apiColumns, nonApiColumns, key, update);
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        readField(reader, reader.nextName(), values, apiColumns);
+                    }
+                    reader.endObject();
+                    results.add(fillDefaults(values, apiColumns));
+                }
+                reader.endArray();
+            } else if (name.equals(PAGE_KEY) && reader.peek() == JsonToken.NUMBER) {
+                page = reader.nextInt();
+            } else if (name.equals(TOTAL_PAGES_KEY) && reader.peek() == JsonToken.NUMBER) {
+                totalPages = reader.nextInt();
+            } else if (section != null && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                sectionResults.put(name, readResult(reader, section.API_COLUMNS, section.NONAPI_COLUMNS, section.KEY, false, null));
+            } else {
+                readField(reader, name, root, apiColumns);
+            }
+        }
+        reader.endObject();
+
+        ContentValues[] values = (results != null) ?
+                results.toArray(new ContentValues[results.size()]) : new ContentValues[]{fillDefaults(root, apiColumns)};
+        // Without the total pages the response is treated as the last page
+        return new Result(values, page, (totalPages < 0) ? page : totalPages, sectionResults);
+    }
+
+    // Finds the section appended to the response under the given name, if there is one
+    private static Section findSection(Section[] sections, String name) {
+        if (sections == null) return null;
+        for (Section section : sections) {
+            if (section.NAME.equals(name)) return section;
+        }
+        return null;
+    }
+
+    // Creates the values for a row, adding our non api columns with their values
+    private static ContentValues newValues(DatabaseColumn[] apiColumns, DatabaseColumn[] nonApiColumns, String[] key, boolean update) {
+        ContentValues values = new ContentValues(apiColumns.length + nonApiColumns.length);
+        if (!update) {
+            for (int j = 0; j < nonApiColumns.length; j++) {
+                values.put(nonApiColumns[j].COLUMN, key[j]);
+            }
+        }
+        return values;
+    }
+
+    // Reads the value of a field into its api column, skipping the value if there is no column for it
+    private static void readField(JsonReader reader, String name, ContentValues values, DatabaseColumn[] apiColumns) throws IOException {
+        DatabaseColumn column = null;
+        for (DatabaseColumn apiColumn : apiColumns) {
+            if (apiColumn.API.equals(name)) {
+                column = apiColumn;
+                break;
+            }
+        }
+
+        JsonToken token = reader.peek();
+        if (column == null || token == JsonToken.NULL || token == JsonToken.BEGIN_OBJECT || token == JsonToken.BEGIN_ARRAY) {
+            reader.skipValue();
+            return;
+        }
+
+        switch (column.TYPE) {
+            case "integer": {
+                if (token == JsonToken.NUMBER) {
+                    values.put(column.COLUMN, (int) reader.nextDouble());
+                } else if (token == JsonToken.STRING) {
+                    putNumber(values, column, reader.nextString(), true);
+                } else {
+                    reader.skipValue();
+                }
+                break;
+            }
+            case "text": {
+                if (token == JsonToken.BOOLEAN) {
+                    values.put(column.COLUMN, Boolean.toString(reader.nextBoolean()));
+                } else {
+                    values.put(column.COLUMN, reader.nextString());
+                }
+                break;
+            }
+            case "real": {
+                if (token == JsonToken.NUMBER) {
+                    values.put(column.COLUMN, reader.nextDouble());
+                } else if (token == JsonToken.STRING) {
+                    putNumber(values, column, reader.nextString(), false);
+                } else {
+                    reader.skipValue();
+                }
+                break;
+            }
+            default: {
+                reader.skipValue();
+            }
+        }
+    }
+
+    // Puts a number that was given as a string, leaving it out if it isn't actually a number
+    private static void putNumber(ContentValues values, DatabaseColumn column, String value, boolean integer) {
+        try {
+            double number = Double.parseDouble(value);
+            if (integer) {
+                values.put(column.COLUMN, (int) number);
+            } else {
+                values.put(column.COLUMN, number);
+            }
+        } catch (NumberFormatException e) {
+            // Left out, so it gets the default value
+        }
+    }
+
+    // Fills in the default values of any api columns that were missing from the row
+    private static ContentValues fillDefaults(ContentValues values, DatabaseColumn[] apiColumns) {
+        for (DatabaseColumn apiColumn : apiColumns) {
+            if (values.containsKey(apiColumn.COLUMN)) continue;
+            Object value = apiColumn.getDefault();
+            if (value instanceof Integer) {
+                values.put(apiColumn.COLUMN, (Integer) value);
+            } else if (value instanceof Double) {
+                values.put(apiColumn.COLUMN, (Double) value);
+            } else {
+                values.put(apiColumn.COLUMN, (String) value);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Sets the sections appended to the response that are parsed along with it, which have to be asked for in the url.
+     * Each section, such as the videos or reviews of a movie, is parsed with its own columns in the same pass, so a
+     * single request can fill in several tables.
+     *
+     * @param sections The sections appended to the response
+     */
+    public void setSections(Section... sections) {
+        mSections = sections;
+    }
+
+    /**
+     * Makes the request conditional on the validators of the last response, so the server can reply with not
+     * modified if nothing has changed. As we are keeping the validators ourselves volley's own cache isn't used.
+     *
+     * @param eTag         The entity tag of the last response, can be null
+     * @param lastModified The last modified date of the last response, can be null
+     */
+    public void setValidators(String eTag, String lastModified) {
+        mETag = eTag;
+        mLastModified = lastModified;
+        setShouldCache(false);
+    }
+
+    /**
+     * Sets the metrics sample of the sync, which the request fills in as it goes through the queue, the network and
+     * the parsing, with the time it waited in the queue, the time spent on the network along with the size of the
+     * response, and the time it took to parse.
+     *
+     * @param sample The sample of the sync
+     */
+    public void setMetrics(SyncMetrics.Sample sample) {
+        mSample = sample;
+    }
+
+    // Volley marks each step the request goes through, which is the only way to see when it is taken off the queues
+    @Override
+    public void addMarker(String tag) {
+        super.addMarker(tag);
+        if (mSample == null) return;
+        switch (tag) {
+            case MARKER_QUEUED: {
+                mSample.queued();
+                break;
+            }
+            case MARKER_CACHE_HIT:
+            case MARKER_NETWORK_TAKE: {
+                mSample.networkStarted();
+                break;
+            }
+        }
+    }
+
+    @Override
+    public Map<String, String> getHeaders() throws AuthFailureError {
+        Map<String, String> headers = new HashMap<>(super.getHeaders());
+        if (mETag != null) headers.put(HEADER_IF_NONE_MATCH, mETag);
+        if (mLastModified != null) headers.put(HEADER_IF_MODIFIED_SINCE, mLastModified);
+        return headers;
+    }
+
+    // Parse the response on the network thread, so only the finished values are delivered, a not modified response is not parsed
+    @Override
+    protected Response<Result> parseNetworkResponse(NetworkResponse response) {
+        boolean notModified = response.statusCode == HttpURLConnection.HTTP_NOT_MODIFIED || response.data == null;
+        if (mSample != null) mSample.networkFinished((response.data != null) ? response.data.length : 0, notModified);
+
+        Cache.Entry cacheEntry = HttpHeaderParser.parseCacheHeaders(response);
+        String eTag = response.headers.get(HEADER_ETAG);
+        String lastModified = response.headers.get(HEADER_LAST_MODIFIED);
+        long expires = (cacheEntry != null) ? cacheEntry.softTtl : 0;
+
+        if (notModified) {
+            return Response.success(new Result(eTag, lastModified, expires), cacheEntry);
+        }
+        try {
+            long parseStart = System.nanoTime();
+            Reader in = new InputStreamReader(new ByteArrayInputStream(response.data),
+                    HttpHeaderParser.parseCharset(response.headers, DEFAULT_CHARSET));
+            Result result = parse(in, mApiColumns, mNonApiColumns, mKey, mUpdate, mSections);
+            if (mSample != null) mSample.parsed(System.nanoTime() - parseStart);
+            return Response.success(result.withValidators(eTag, lastModified, expires), cacheEntry);
+        } catch (IOException | RuntimeException e) {
+            return Response.error(new ParseError(e));
+        }
+    }
+
+    @Override
+    protected void deliverResponse(Result response) {
+        mListener.onResponse(response);
+    }
+
+    /**
+     * A section appended to a response, with the columns to parse its results with and where its rows are stored.
+     * The rows of a section are always merged into the rows stored for the key, rather than used for an update.
+     */
+    public static final class Section {
+        public final String NAME;
+        public final Uri CONTENT_URI;
+        public final DatabaseColumn[] API_COLUMNS;
+        public final DatabaseColumn[] NONAPI_COLUMNS;
+        public final String SELECTION;
+        public final String[] KEY;
+
+        /**
+         * @param name          The name of the section within the response, the same as it is asked for in the url
+         * @param contentUri    The content uri the rows of the section are stored in
+         * @param apiColumns    The columns to pull out of each result of the section
+         * @param nonApiColumns The columns that don't come from the results, set to the key values
+         * @param selection     The selection of the rows stored for the key
+         * @param key           The values of the non api columns
+         */
+        public Section(String name, Uri contentUri, DatabaseColumn[] apiColumns, DatabaseColumn[] nonApiColumns,
+                       String selection, String[] key) {
+            NAME = name;
+            CONTENT_URI = contentUri;
+            API_COLUMNS = apiColumns;
+            NONAPI_COLUMNS = nonApiColumns;
+            SELECTION = selection;
+            KEY = key;
+        }
+    }
+
+    /**
+     * The result of a request, the parsed rows and which page of how many was returned, along with the validators
+     * of the response for making the next request conditional, and when the response expires, 0 if it doesn't say.
+     * A not modified result has no rows at all. The results of the sections appended to the response are kept by
+     * the name of the section, a section that was missing from the response has no result.
+     */
+    public static final class Result {
+        public final ContentValues[] VALUES;
+        public final int PAGE;
+        public final int TOTAL_PAGES;
+        public final boolean NOT_MODIFIED;
+        public final String ETAG;
+        public final String LAST_MODIFIED;
+        public final long EXPIRES;
+        public final Map<String, Result> SECTIONS;
+
+        public Result(ContentValues[] values, int page, int totalPages) {
+            this(values, page, totalPages, new HashMap<String, Result>());
+        }
+
+        public Result(ContentValues[] values, int page, int totalPages, Map<String, Result> sections) {
+            this(values, page, totalPages, false, null, null, 0, sections);
+        }
+
+        // Creates the result of a not modified response
+        public Result(String eTag, String lastModified, long expires) {
+            this(new ContentValues[0], 0, 0, true, eTag, lastModified, expires, new HashMap<String, Result>());
+        }
+
+        private Result(ContentValues[] values, int page, int totalPages, boolean notModified,
+                       String eTag, String lastModified, long expires, Map<String, Result> sections) {
+            VALUES = values;
+            PAGE = page;
+            TOTAL_PAGES = totalPages;
+            NOT_MODIFIED = notModified;
+            ETAG = eTag;
+            LAST_MODIFIED = lastModified;
+            EXPIRES = expires;
+            SECTIONS = sections;
+        }
+
+        // Returns the same result with the validators of the response
+        Result withValidators(String eTag, String lastModified, long expires) {
+            return new Result(VALUES, PAGE, TOTAL_PAGES, NOT_MODIFIED, eTag, lastModified, expires, SECTIONS);
+        }
+    }
+}
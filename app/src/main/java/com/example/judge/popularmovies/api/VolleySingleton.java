@@ -5,53 +5,66 @@
 package com.example.judge.popularmovies.api;
 
 import android.content.Context;
-import android.graphics.Bitmap;
-import android.util.LruCache;
+import android.os.Build;
+import android.os.StatFs;
 
-import com.android.volley.Cache;
 import com.android.volley.Network;
 import com.android.volley.RequestQueue;
+import com.android.volley.ExecutorDelivery;
 import com.android.volley.toolbox.BasicNetwork;
-import com.android.volley.toolbox.DiskBasedCache;
 import com.android.volley.toolbox.HurlStack;
-import com.android.volley.toolbox.ImageLoader;
+
+import java.io.File;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Custom implementation of Volley Request Queue, serves to contain volley data for the lifetime of
- * the application.
+ * the application. The images and the json from TheMovieDB go through separate queues, each with its own
+ * disk cache and network threads, so scrolling through a lot of images can't push the json out of the cache.
  * Sourced from http://www.truiton.com/2015/03/android-volley-imageloader-networkimageview-example/
  */
 
 public class VolleySingleton {
 
-    private static final int sCacheSize = 10 * 1024 * 1024;
-    private static final int sLruCacheSize = 20;
+    // The image cache takes a fraction of the free storage, within these bounds
+    private static final int sMinImageCacheSize = 10 * 1024 * 1024;
+    private static final int sMaxImageCacheSize = 100 * 1024 * 1024;
+    private static final int sImageCacheFraction = 20;
+    private static final int sImageThreadPoolSize = 4;
+    private static final String sImageCacheDir = "images";
+    private static final int sBitmapPoolFraction = 4;
+    private static final int sSyncCacheSize = 2 * 1024 * 1024;
+    private static final int sSyncThreadPoolSize = 2;
+    private static final String sSyncCacheDir = "sync";
+
+    // The disk cache both queues used to share was kept in the root of the cache directory, with files named by the
+    // hash codes of the two halves of the cache key
+    private static final String sLegacyCacheFilePattern = "-?\\d+-?\\d+";
     private static VolleySingleton sInstance;
     private static Context sCtx;
-    private final ImageLoader mImageLoader;
+    private final PriorityImageLoader mImageLoader;
+    private final BitmapLruCache mImageCache;
+    private final BitmapPool mBitmapPool;
+    private final ExecutorService mSyncExecutor;
     private RequestQueue mRequestQueue;
+    private RequestQueue mSyncQueue;
+    private StatsDiskCache mImageDiskCache;
+    private StatsDiskCache mSyncDiskCache;
 
 
     private VolleySingleton(Context context) {
-        sCtx = context;
+        sCtx = context.getApplicationContext();
+        mSyncExecutor = Executors.newSingleThreadExecutor();
         mRequestQueue = getRequestQueue();
 
-        // Includes an LruCache, for storing image data downloaded in memory
-        mImageLoader = new ImageLoader(mRequestQueue,
-                new ImageLoader.ImageCache() {
-                    private final LruCache<String, Bitmap>
-                            cache = new LruCache<>(sLruCacheSize);
-
-                    @Override
-                    public Bitmap getBitmap(String url) {
-                        return cache.get(url);
-                    }
-
-                    @Override
-                    public void putBitmap(String url, Bitmap bitmap) {
-                        cache.put(url, bitmap);
-                    }
-                });
+        // Includes an LruCache sized in bytes from the memory class, for storing image data downloaded in memory
+        // The bitmaps evicted from it go into a pool a quarter of its size, which the loader decodes the images into
+        // The loader gives the images being shown priority over the ones being prefetched
+        mImageCache = BitmapLruCache.create(sCtx);
+        mBitmapPool = new BitmapPool(mImageCache.maxSize() / sBitmapPoolFraction);
+        mImageCache.setBitmapPool(mBitmapPool);
+        mImageLoader = new PriorityImageLoader(mRequestQueue, mImageCache, mBitmapPool);
     }
 
     /**
@@ -65,7 +78,44 @@ public class VolleySingleton {
     }
 
     /**
-     * Returns the current request queue, or creates a new one, which will be backed up by both
+     * Works out the size of the image disk cache from the storage that is free in the cache directory
+     *
+     * @return Returns the size in bytes
+     */
+    @SuppressWarnings("deprecation")
+    private static int getImageCacheSize(File cacheDir) {
+        long available;
+        try {
+            StatFs stats = new StatFs(cacheDir.getAbsolutePath());
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+                available = stats.getAvailableBytes();
+            } else {
+                available = (long) stats.getAvailableBlocks() * stats.getBlockSize();
+            }
+        } catch (IllegalArgumentException e) {
+            available = 0;
+        }
+        return (int) Math.max(sMinImageCacheSize, Math.min(sMaxImageCacheSize, available / sImageCacheFraction));
+    }
+
+    /**
+     * Removes the files of the disk cache that was shared by both queues, which upgraded installs still have in the
+     * root of the cache directory. Only the files named the way that cache named them are removed.
+     *
+     * @param cacheDir The cache directory of the application
+     */
+    private static void deleteLegacyCache(File cacheDir) {
+        File[] files = cacheDir.listFiles();
+        if (files == null) return;
+        for (File file : files) {
+            if (file.isFile() && file.getName().matches(sLegacyCacheFilePattern)) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Returns the current request queue used for the images, or creates a new one, which will be backed up by both
      * a memory and disk cache, before finally reaching out to the internet in order to download the data.
      *
      * @return Returns the existing request queue
@@ -73,17 +123,66 @@ public class VolleySingleton {
 
     public RequestQueue getRequestQueue() {
         if (mRequestQueue == null) {
-            Cache cache = new DiskBasedCache(sCtx.getCacheDir(), sCacheSize);
+            File cacheDir = new File(sCtx.getCacheDir(), sImageCacheDir);
+
+            // The first time the image cache is created the files of the cache it replaced are removed, off the UI thread
+            if (!cacheDir.exists()) {
+                mSyncExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        deleteLegacyCache(sCtx.getCacheDir());
+                    }
+                });
+            }
+            mImageDiskCache = new StatsDiskCache(cacheDir, getImageCacheSize(sCtx.getCacheDir()));
             Network network = new BasicNetwork(new HurlStack());
-            mRequestQueue = new RequestQueue(cache, network);
+            mRequestQueue = new RequestQueue(mImageDiskCache, network, sImageThreadPoolSize);
             // Don't forget to start the volley request queue
             mRequestQueue.start();
         }
         return mRequestQueue;
     }
 
-    public ImageLoader getImageLoader() {
+    /**
+     * Returns the request queue used for syncing with TheMovieDB. Unlike the main queue the responses
+     * of this queue are not delivered on the UI thread, but on a single background sync executor, so
+     * the parsing and the database writes done within the response callbacks never block the UI, and
+     * the writes are serialized against each other.
+     *
+     * @return Returns the existing sync request queue
+     */
+
+    public RequestQueue getSyncQueue() {
+        if (mSyncQueue == null) {
+            mSyncDiskCache = new StatsDiskCache(new File(sCtx.getCacheDir(), sSyncCacheDir), sSyncCacheSize);
+            Network network = new BasicNetwork(new HurlStack());
+            mSyncQueue = new RequestQueue(mSyncDiskCache, network, sSyncThreadPoolSize, new ExecutorDelivery(mSyncExecutor));
+            mSyncQueue.start();
+        }
+        return mSyncQueue;
+    }
+
+    public PriorityImageLoader getImageLoader() {
         return mImageLoader;
     }
 
+    public BitmapLruCache getImageCache() {
+        return mImageCache;
+    }
+
+    public BitmapPool getBitmapPool() {
+        return mBitmapPool;
+    }
+
+    /**
+     * Returns the stats of each of the caches, the memory cache, bitmap pool and disk cache of the images and the disk cache of the json,
+     * the sync queue is only created once something is synced so its cache may not be there yet.
+     *
+     * @return Returns a line for each of the caches
+     */
+    public String getCacheStats() {
+        return String.format("image memory: %s\nbitmap pool: %s\nimage disk: %s\njson disk: %s", mImageCache.getStats(),
+                mBitmapPool.getStats(), mImageDiskCache.getStats(), (mSyncDiskCache != null) ? mSyncDiskCache.getStats() : "not created");
+    }
+
 }
\ No newline at end of file
@@ -24,11 +24,22 @@ public class MovieContract {
     public static final Uri BASE_CONTENT_URI = Uri.parse("content://" + CONTENT_AUTHORITY);
 
     // Paths available within the Content Provider
+    public static final String PATH_FAVORITE = "favorite";
     public static final String PATH_MOVIE = "movie";
     public static final String PATH_REVIEW = "review";
+    public static final String PATH_SEARCH = "search";
+    public static final String PATH_SOURCE = "source";
+    public static final String PATH_SYNC_STATE = "sync_state";
     public static final String PATH_TRAILER = "trailer";
     public static final String PATH_TV = "tv";
 
+    // Query parameter marking a bulk insert as a merge into the existing rows rather than a plain insert
+    public static final String PARAM_MERGE = "merge";
+
+    // Query parameters limiting the source memberships a merge can remove to the ones ranked from the start up to the limit
+    public static final String PARAM_RANK_START = "rank_start";
+    public static final String PARAM_RANK_LIMIT = "rank_limit";
+
     // Shared Column Names
     public static final String COLUMN_BACKDROP_PATH = "backdrop_path";
     public static final String COLUMN_MEDIA_ID = "media_id";
@@ -66,12 +77,13 @@ public class MovieContract {
         public static final DatabaseColumn RUNTIME = new DatabaseColumn("runtime", "runtime", "integer", "not null");
         public static final DatabaseColumn TITLE = new DatabaseColumn("title", "title", "text", "not null");
         public static final DatabaseColumn RATING = new DatabaseColumn("vote_average", "rating", "real", "not null");
-        public static final DatabaseColumn SOURCE = new DatabaseColumn("", "source", "text", "not null");
+        public static final DatabaseColumn SOURCE = SourceEntry.SOURCE;
         public static final DatabaseColumn STATUS = new DatabaseColumn("status", "status", "text", "not null");
         public static final DatabaseColumn TAGLINE = new DatabaseColumn("tagline", "tagline", "text", "not null");
         public static final DatabaseColumn VOTE_COUNT = new DatabaseColumn("vote_count", "votes", "integer", "not null");
 
-        // These are 2 different sets of columns, ones that don't have an analogue in TheMovieDB and those that do
+        // These are 2 different sets of columns, ones that don't have an analogue in TheMovieDB and those that do, the
+        // source isn't stored in the media table but in the source membership of the media
         public static final DatabaseColumn[] NONAPI_COLUMNS = {
                 SOURCE
         };
@@ -96,8 +108,13 @@ public class MovieContract {
                 VOTE_COUNT
         };
 
-        // Collection of all columns
-        public static final DatabaseColumn[] COLUMNS = DatabaseColumn.concat(NONAPI_COLUMNS, API_COLUMNS);
+        // Collection of all columns of the media table, there is only ever one row for each media
+        public static final DatabaseColumn[] COLUMNS = API_COLUMNS;
+
+        // The columns that identify a row when merging synced data into the table, which has a unique index on them
+        public static final DatabaseColumn[] MATCH_COLUMNS = {
+                MEDIA_ID
+        };
 
         // Build the movie URI with an id, though this is never used other than in the content provider
         public static Uri buildMovieUri(long id) {
@@ -109,7 +126,7 @@ public class MovieContract {
             return MEDIA_ID.COLUMN + " = ?";
         }
 
-        // Selection required for the source
+        // Selection required for the source, which is only available through the source view
         public static String selectSource() {
             return SOURCE.COLUMN + " = ?";
         }
@@ -147,11 +164,12 @@ public class MovieContract {
         public static final DatabaseColumn POSTER_PATH = new DatabaseColumn("poster_path", COLUMN_POSTER_PATH, "text", "not null");
         public static final DatabaseColumn TITLE = new DatabaseColumn("name", "title", "text", "not null");
         public static final DatabaseColumn RATING = new DatabaseColumn("vote_average", "rating", "real", "not null");
-        public static final DatabaseColumn SOURCE = new DatabaseColumn("", "source", "text", "not null");
+        public static final DatabaseColumn SOURCE = SourceEntry.SOURCE;
         public static final DatabaseColumn STATUS = new DatabaseColumn("status", "status", "text", "not null");
         public static final DatabaseColumn VOTE_COUNT = new DatabaseColumn("vote_count", "votes", "integer", "not null");
 
-        // These are 2 different sets of columns, ones that don't have an analogue in TheMovieDB and those that do
+        // These are 2 different sets of columns, ones that don't have an analogue in TheMovieDB and those that do, the
+        // source isn't stored in the media table but in the source membership of the media
         public static final DatabaseColumn[] NONAPI_COLUMNS = {
                 SOURCE
         };
@@ -176,8 +194,13 @@ public class MovieContract {
                 VOTE_COUNT
         };
 
-        // Collection of all columns
-        public static final DatabaseColumn[] COLUMNS = DatabaseColumn.concat(NONAPI_COLUMNS, API_COLUMNS);
+        // Collection of all columns of the media table, there is only ever one row for each media
+        public static final DatabaseColumn[] COLUMNS = API_COLUMNS;
+
+        // The columns that identify a row when merging synced data into the table, which has a unique index on them
+        public static final DatabaseColumn[] MATCH_COLUMNS = {
+                MEDIA_ID
+        };
 
         // Build the tv URI with an id, though this is never used other than in the content provider
         public static Uri buildTVUri(long id) {
@@ -189,7 +212,7 @@ public class MovieContract {
             return MEDIA_ID.COLUMN + " = ?";
         }
 
-        // Selection required for the source
+        // Selection required for the source, which is only available through the source view
         public static String selectSource() {
             return SOURCE.COLUMN + " = ?";
         }
@@ -205,9 +228,10 @@ public class MovieContract {
         public static final String TABLE_NAME = "review";
 
         // Set all the database columns, including the column name, the API that would be pulled from for population, and column settings
-        public static final DatabaseColumn MEDIA_ID = new DatabaseColumn("", COLUMN_MEDIA_ID, "integer", "not null");
+        public static final DatabaseColumn MEDIA_ID = new DatabaseColumn("", COLUMN_MEDIA_ID, "integer", "not null", true);
         public static final DatabaseColumn AUTHOR = new DatabaseColumn("author", "author", "text", "not null");
         public static final DatabaseColumn REVIEW = new DatabaseColumn("content", "review", "text", "not null");
+        public static final DatabaseColumn REVIEW_ID = new DatabaseColumn("id", "review_id", "text", "not null");
 
         // These are 2 different sets of columns, ones that don't have an analogue in TheMovieDB and those that do
         public static final DatabaseColumn[] NONAPI_COLUMNS = {
@@ -216,12 +240,19 @@ public class MovieContract {
 
         public static final DatabaseColumn[] API_COLUMNS = {
                 AUTHOR,
-                REVIEW
+                REVIEW,
+                REVIEW_ID
         };
 
         // Collection of all columns
         public static final DatabaseColumn[] COLUMNS = DatabaseColumn.concat(NONAPI_COLUMNS, API_COLUMNS);
 
+        // The columns that identify a row when merging synced data into the table, an author can review a media more than once
+        public static final DatabaseColumn[] MATCH_COLUMNS = {
+                MEDIA_ID,
+                REVIEW_ID
+        };
+
         // Build the review URI with an id, though this is never used other than in the content provider
         public static Uri buildReviewUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
@@ -243,7 +274,7 @@ public class MovieContract {
         public static final String TABLE_NAME = "trailer";
 
         // Set all the database columns, including the column name, the API that would be pulled from for population, and column settings
-        public static final DatabaseColumn MEDIA_ID = new DatabaseColumn("", COLUMN_MEDIA_ID, "integer", "not null");
+        public static final DatabaseColumn MEDIA_ID = new DatabaseColumn("", COLUMN_MEDIA_ID, "integer", "not null", true);
         public static final DatabaseColumn KEY = new DatabaseColumn("key", "key", "text", "not null");
         public static final DatabaseColumn NAME = new DatabaseColumn("name", "name", "text", "not null");
         public static final DatabaseColumn SITE = new DatabaseColumn("site", "site", "text", "not null");
@@ -264,6 +295,13 @@ public class MovieContract {
         // Collection of all columns
         public static final DatabaseColumn[] COLUMNS = DatabaseColumn.concat(NONAPI_COLUMNS, API_COLUMNS);
 
+        // The columns that identify a row when merging synced data into the table
+        public static final DatabaseColumn[] MATCH_COLUMNS = {
+                MEDIA_ID,
+                TYPE,
+                KEY
+        };
+
         // Build the trailer URI with an id, though this is never used other than in the content provider
         public static Uri buildTrailerUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
@@ -275,18 +313,277 @@ public class MovieContract {
         }
     }
 
-    // This is a helper class to contain all the information required for a database column
+    // These are the settings for the source membership table, which stores which media are in each of the synced source
+    // lists and where they are ranked within them, the media itself is stored once within the movie and tv tables, with a
+    // view for each that joins it with the memberships. A media is removed once it isn't in any source or the favorites.
+    public static final class SourceEntry implements BaseColumns {
+
+        // Authority and Base Content URI's for the content provider, the source uris are built for a media type
+        public static final Uri CONTENT_URI = BASE_CONTENT_URI.buildUpon().appendPath(PATH_SOURCE).build();
+        public static final String TABLE_NAME = "source_membership";
+
+        // The views joining the memberships with the movie and tv tables
+        public static final String MOVIE_VIEW_NAME = "movie_source";
+        public static final String TV_VIEW_NAME = "tv_source";
+
+        // Set all the database columns, none of these come from TheMovieDB, the rank is the position within the source list
+        public static final DatabaseColumn TYPE = new DatabaseColumn("", "type", "text", "not null");
+        public static final DatabaseColumn SOURCE = new DatabaseColumn("", "source", "text", "not null");
+        public static final DatabaseColumn MEDIA_ID = new DatabaseColumn("", COLUMN_MEDIA_ID, "integer", "not null", true);
+        public static final DatabaseColumn RANK = new DatabaseColumn("", "rank", "integer", "not null");
+
+        // Collection of all columns
+        public static final DatabaseColumn[] COLUMNS = {
+                TYPE,
+                SOURCE,
+                MEDIA_ID,
+                RANK
+        };
+
+        // The columns that a membership is keyed by, which has a unique index on them
+        public static final DatabaseColumn[] UNIQUE_COLUMNS = {
+                TYPE,
+                SOURCE,
+                MEDIA_ID
+        };
+
+        // Build the URI of the view containing the media of the given media type along with the sources they are in
+        public static Uri buildTypeUri(String type) {
+            return CONTENT_URI.buildUpon().appendPath(type).build();
+        }
+
+        // The sort order of a source list, in the order that TheMovieDB ranked them
+        public static String sortRank() {
+            return RANK.COLUMN + " asc";
+        }
+    }
+
+    // These are the settings for the favorite table, which only stores which media have been favorited, the media itself
+    // is stored once within the movie and tv tables, with a view for each that joins it with the favorites
+    public static final class FavoriteEntry implements BaseColumns {
+
+        // Authority and Base Content URI's for the content provider
+        public static final Uri CONTENT_URI = BASE_CONTENT_URI.buildUpon().appendPath(PATH_FAVORITE).build();
+        public static final String CONTENT_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + PATH_FAVORITE;
+        public static final String CONTENT_ITEM_TYPE = ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + PATH_FAVORITE;
+        public static final String TABLE_NAME = "favorite";
+
+        // The views joining the favorites with the movie and tv tables
+        public static final String MOVIE_VIEW_NAME = "favorite_movie";
+        public static final String TV_VIEW_NAME = "favorite_tv";
+
+        // Set all the database columns, none of these come from TheMovieDB
+        public static final DatabaseColumn TYPE = new DatabaseColumn("", "type", "text", "not null");
+        public static final DatabaseColumn MEDIA_ID = new DatabaseColumn("", COLUMN_MEDIA_ID, "integer", "not null");
+
+        // Collection of all columns
+        public static final DatabaseColumn[] COLUMNS = {
+                TYPE,
+                MEDIA_ID
+        };
+
+        // The columns that a favorite is keyed by, which has a unique index on them
+        public static final DatabaseColumn[] UNIQUE_COLUMNS = {
+                TYPE,
+                MEDIA_ID
+        };
+
+        // Build the favorite URI with an id, though this is never used other than in the content provider
+        public static Uri buildFavoriteUri(long id) {
+            return ContentUris.withAppendedId(CONTENT_URI, id);
+        }
+
+        // Build the URI of the view containing the favorited media of the given media type
+        public static Uri buildTypeUri(String type) {
+            return CONTENT_URI.buildUpon().appendPath(type).build();
+        }
+
+        // The selection string required in order to select a favorite by the media type and id
+        public static String selectMedia() {
+            return TYPE.COLUMN + " = ? and " + MEDIA_ID.COLUMN + " = ?";
+        }
+    }
+
+    // These are the settings for the full text search index over the movie and tv tables, which has a table for each
+    // with a row per media, keyed by the media id, that is kept up to date by triggers on the media tables
+    public static final class SearchEntry {
+
+        // Authority and Base Content URI's for the content provider, the search uris are built for a media type
+        public static final Uri CONTENT_URI = BASE_CONTENT_URI.buildUpon().appendPath(PATH_SEARCH).build();
+        public static final String MOVIE_TABLE_NAME = "movie_search";
+        public static final String TV_TABLE_NAME = "tv_search";
+
+        // Query parameter containing the text that is being searched for
+        public static final String PARAM_QUERY = "query";
+
+        // The columns of the media tables that are indexed, tv shows don't have a tagline
+        public static final DatabaseColumn[] MOVIE_COLUMNS = {
+                MovieEntry.TITLE,
+                MovieEntry.ORIGINAL_TITLE,
+                MovieEntry.OVERVIEW,
+                MovieEntry.TAGLINE
+        };
+        public static final DatabaseColumn[] TV_COLUMNS = {
+                TVEntry.TITLE,
+                TVEntry.ORIGINAL_TITLE,
+                TVEntry.OVERVIEW
+        };
+
+        /**
+         * Build the uri searching the media of the given type, the cursor has the rows of the media table for the
+         * media that matched, one for each media, and can be given a projection and selection just like that table.
+         *
+         * @param type  The media type to search, either movie or tv
+         * @param query The text being searched for, as typed in by the user
+         * @return Returns the search uri
+         */
+        public static Uri buildSearchUri(String type, String query) {
+            return CONTENT_URI.buildUpon().appendPath(type).appendQueryParameter(PARAM_QUERY, query).build();
+        }
+
+        /**
+         * Turns the text typed by the user into a full text match, where every word has to match the start of a
+         * word in one of the indexed columns, so that the results can be updated with every character typed.
+         *
+         * @param query The text being searched for
+         * @return Returns the match, or null if there are no words to search for
+         */
+        public static String buildMatchQuery(String query) {
+            if (query == null) return null;
+            String match = "";
+            for (String word : query.split("[^\\p{L}\\p{N}]+")) {
+                if (!word.isEmpty()) match += (match.isEmpty() ? "" : " ") + word + "*";
+            }
+            return (match.isEmpty()) ? null : match;
+        }
+    }
+
+    // These are the settings for the sync state table, which stores how the last syncs of each source went, so that
+    // the stored data can be shown straight away along with how stale it is, and failing syncs can be backed off
+    public static final class SyncStateEntry implements BaseColumns {
+
+        // Authority and Base Content URI's for the content provider
+        public static final Uri CONTENT_URI = BASE_CONTENT_URI.buildUpon().appendPath(PATH_SYNC_STATE).build();
+        public static final String CONTENT_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + PATH_SYNC_STATE;
+        public static final String CONTENT_ITEM_TYPE = ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + PATH_SYNC_STATE;
+        public static final String TABLE_NAME = "sync_state";
+
+        // Set all the database columns, none of these come from TheMovieDB, the times are in milliseconds and the error is null after a success
+        public static final DatabaseColumn TYPE = new DatabaseColumn("", "type", "text", "not null");
+        public static final DatabaseColumn SOURCE = new DatabaseColumn("", "source", "text", "not null");
+        public static final DatabaseColumn LAST_SUCCESS = new DatabaseColumn("", "last_success", "integer", "not null default 0");
+        public static final DatabaseColumn LAST_ATTEMPT = new DatabaseColumn("", "last_attempt", "integer", "not null default 0");
+        public static final DatabaseColumn ERROR = new DatabaseColumn("", "error", "text", "");
+        public static final DatabaseColumn ROW_COUNT = new DatabaseColumn("", "row_count", "integer", "not null default 0");
+        public static final DatabaseColumn FAILURES = new DatabaseColumn("", "failures", "integer", "not null default 0");
+        public static final DatabaseColumn RETRY_AT = new DatabaseColumn("", "retry_at", "integer", "not null default 0");
+
+        // Collection of all columns
+        public static final DatabaseColumn[] COLUMNS = {
+                TYPE,
+                SOURCE,
+                LAST_SUCCESS,
+                LAST_ATTEMPT,
+                ERROR,
+                ROW_COUNT,
+                FAILURES,
+                RETRY_AT
+        };
+
+        // The columns that the state is keyed by, which has a unique index on them
+        public static final DatabaseColumn[] UNIQUE_COLUMNS = {
+                TYPE,
+                SOURCE
+        };
+
+        // Build the sync state URI with an id, though this is never used other than in the content provider
+        public static Uri buildSyncStateUri(long id) {
+            return ContentUris.withAppendedId(CONTENT_URI, id);
+        }
+
+        // The selection string required in order to select the state of a sync by its type and source
+        public static String selectSource() {
+            return TYPE.COLUMN + " = ? and " + SOURCE.COLUMN + " = ?";
+        }
+    }
+
+    /**
+     * Builds the uri used to merge a bulk insert into the existing rows of a table. Rows are matched on the
+     * match columns of the table, with only the changed columns being updated and new rows inserted. If
+     * scope columns are given, any row with those column values that isn't within the merged data is removed.
+     *
+     * @param contentUri   The content uri of the table to merge into
+     * @param scopeColumns The columns that limit which rows can be removed, null to not remove any rows
+     * @param scope        The values of the scope columns
+     * @return Returns the merge uri
+     */
+    public static Uri buildMergeUri(Uri contentUri, DatabaseColumn[] scopeColumns, String[] scope) {
+        Uri.Builder builder = contentUri.buildUpon().appendQueryParameter(PARAM_MERGE, "true");
+        if (scopeColumns != null) {
+            for (int i = 0; i < scopeColumns.length; i++) {
+                builder.appendQueryParameter(scopeColumns[i].COLUMN, scope[i]);
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Builds the uri used to merge a page of a source list into the media stored within the source. Only the
+     * memberships ranked within the page that aren't within the merged data are removed, so merging a page
+     * leaves the media of the other pages alone.
+     *
+     * @param contentUri   The content uri of the media table to merge into
+     * @param scopeColumns The columns that limit which memberships can be removed
+     * @param scope        The values of the scope columns
+     * @param rankStart    The first rank of the page
+     * @param rankLimit    The rank after the last one of the page
+     * @return Returns the merge uri
+     */
+    public static Uri buildMergeUri(Uri contentUri, DatabaseColumn[] scopeColumns, String[] scope, int rankStart, int rankLimit) {
+        return buildMergeUri(contentUri, scopeColumns, scope).buildUpon()
+                .appendQueryParameter(PARAM_RANK_START, Integer.toString(rankStart))
+                .appendQueryParameter(PARAM_RANK_LIMIT, Integer.toString(rankLimit)).build();
+    }
+
+    // This is a helper class to contain all the information required for a database column, including whether it is indexed
     public static final class DatabaseColumn {
         public final String API;
         public final String ARGS;
         public final String COLUMN;
         public final String TYPE;
+        public final boolean INDEX;
 
         public DatabaseColumn(String api, String column, String type, String args) {
+            this(api, column, type, args, false);
+        }
+
+        public DatabaseColumn(String api, String column, String type, String args, boolean index) {
             API = api;
             ARGS = args;
             COLUMN = column;
             TYPE = type;
+            INDEX = index;
+        }
+
+        // The value stored when the api leaves the column out, in order to ensure that there are no nulls in the database
+        public Object getDefault() {
+            switch (TYPE) {
+                case "integer": {
+                    return -1;
+                }
+                case "real": {
+                    return -1.0;
+                }
+                default: {
+                    return "null";
+                }
+            }
+        }
+
+        // Checks whether the value is one of the default values, meaning the api left the column out
+        public static boolean isDefault(Object value) {
+            if (value instanceof Number) return ((Number) value).doubleValue() == -1;
+            return "null".equals(value);
         }
 
         // Helper method to combine 2 different arrays, this is used at various points
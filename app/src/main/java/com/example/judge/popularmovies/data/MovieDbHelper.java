@@ -11,12 +11,16 @@ import android.database.sqlite.SQLiteOpenHelper;
 /**
  * This class manages the creation and management of the databases required for the application,
  * creates a database and also uses the information in the MovieContract for setting up the columns
+ * and the indexes on them.
  */
 
 public class MovieDbHelper extends SQLiteOpenHelper {
 
     static final String DATABASE_NAME = "media.db";
-    private static final int DATABASE_VERSION = 4;
+    private static final int DATABASE_VERSION = 11;
+
+    // The oldest version that can be migrated, anything older is recreated from scratch
+    private static final int MIN_MIGRATION_VERSION = 4;
 
     public MovieDbHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
@@ -32,26 +36,331 @@ public class MovieDbHelper extends SQLiteOpenHelper {
         return sql;
     }
 
-    // Creates the 4 different databases required for the application, passing in the columns from the contract for creation
+    // Helper method in order to create an index for each of the columns that are flagged as indexed
+    private void initIndexes(SQLiteDatabase db, String tableName, MovieContract.DatabaseColumn[] columns) {
+        for (MovieContract.DatabaseColumn column : columns) {
+            if (column.INDEX) {
+                db.execSQL("create index if not exists " + tableName + "_" + column.COLUMN + "_index on "
+                        + tableName + " (" + column.COLUMN + ");");
+            }
+        }
+    }
+
+    // Helper method in order to create a unique index over the given columns
+    private void initUniqueIndex(SQLiteDatabase db, String tableName, MovieContract.DatabaseColumn[] columns) {
+        String sql = "create unique index if not exists " + tableName + "_unique_index on " + tableName + " (";
+        for (int i = 0; i < columns.length; i++) {
+            sql = sql + ((i > 0) ? ", " : "") + columns[i].COLUMN;
+        }
+        sql = sql + ");";
+        db.execSQL(sql);
+    }
+
+    // Creates the unique indexes of the movie and tv tables, which only ever have a single row for each media
+    private void createMediaIndexes(SQLiteDatabase db) {
+        initUniqueIndex(db, MovieContract.MovieEntry.TABLE_NAME, MovieContract.MovieEntry.MATCH_COLUMNS);
+        initUniqueIndex(db, MovieContract.TVEntry.TABLE_NAME, MovieContract.TVEntry.MATCH_COLUMNS);
+    }
+
+    // Creates the indexes for all 4 of the media tables
+    private void createIndexes(SQLiteDatabase db) {
+        initIndexes(db, MovieContract.MovieEntry.TABLE_NAME, MovieContract.MovieEntry.COLUMNS);
+        initIndexes(db, MovieContract.ReviewEntry.TABLE_NAME, MovieContract.ReviewEntry.COLUMNS);
+        initIndexes(db, MovieContract.TrailerEntry.TABLE_NAME, MovieContract.TrailerEntry.COLUMNS);
+        initIndexes(db, MovieContract.TVEntry.TABLE_NAME, MovieContract.TVEntry.COLUMNS);
+    }
+
+    /**
+     * Creates the view joining the favorites of a media type with its media table, and the trigger removing the media
+     * once it is no longer a favorite, if it isn't in any of the synced sources either.
+     *
+     * @param type      The media type of the favorites
+     * @param tableName The media table of the media type
+     * @param viewName  The name of the view to create
+     */
+    private void initFavorites(SQLiteDatabase db, String type, String tableName, String viewName) {
+        final String favorite = MovieContract.FavoriteEntry.TABLE_NAME;
+        final String mediaId = MovieContract.COLUMN_MEDIA_ID;
+        final String typeColumn = MovieContract.FavoriteEntry.TYPE.COLUMN;
+
+        db.execSQL("create view if not exists " + viewName + " as select " + tableName + ".* from " + favorite
+                + " inner join " + tableName + " on " + tableName + "." + mediaId + " = " + favorite + "." + mediaId
+                + " where " + favorite + "." + typeColumn + " = '" + type + "';");
+
+        db.execSQL("create trigger if not exists " + tableName + "_release_favorite after delete on " + favorite
+                + " when old." + typeColumn + " = '" + type + "'"
+                + " and not exists (select 1 from " + MovieContract.SourceEntry.TABLE_NAME
+                + " where " + typeColumn + " = '" + type + "' and " + mediaId + " = old." + mediaId + ")"
+                + " begin delete from " + tableName + " where " + mediaId + " = old." + mediaId + ";"
+                + " end;");
+    }
+
+    /**
+     * Creates the view joining the source memberships of a media type with its media table, and the trigger removing
+     * the media once it has dropped out of the last of the sources it was in, if it isn't a favorite.
+     *
+     * @param type      The media type of the sources
+     * @param tableName The media table of the media type
+     * @param viewName  The name of the view to create
+     */
+    private void initSources(SQLiteDatabase db, String type, String tableName, String viewName) {
+        final String membership = MovieContract.SourceEntry.TABLE_NAME;
+        final String mediaId = MovieContract.COLUMN_MEDIA_ID;
+        final String typeColumn = MovieContract.SourceEntry.TYPE.COLUMN;
+
+        db.execSQL("create view if not exists " + viewName + " as select " + tableName + ".*, "
+                + membership + "." + MovieContract.SourceEntry.SOURCE.COLUMN + ", " + membership + "." + MovieContract.SourceEntry.RANK.COLUMN
+                + " from " + membership + " inner join " + tableName + " on " + tableName + "." + mediaId + " = " + membership + "." + mediaId
+                + " where " + membership + "." + typeColumn + " = '" + type + "';");
+
+        db.execSQL("create trigger if not exists " + tableName + "_release_source after delete on " + membership
+                + " when old." + typeColumn + " = '" + type + "'"
+                + " and not exists (select 1 from " + membership + " where " + typeColumn + " = '" + type + "' and " + mediaId + " = old." + mediaId + ")"
+                + " and not exists (select 1 from " + MovieContract.FavoriteEntry.TABLE_NAME
+                + " where " + MovieContract.FavoriteEntry.TYPE.COLUMN + " = '" + type + "' and " + mediaId + " = old." + mediaId + ")"
+                + " begin delete from " + tableName + " where " + mediaId + " = old." + mediaId + ";"
+                + " end;");
+    }
+
+    // Creates the source membership table, including its indexes, which has the sources each media is in and its rank within them
+    private void createSources(SQLiteDatabase db) {
+        db.execSQL(initTable(MovieContract.SourceEntry.TABLE_NAME, MovieContract.SourceEntry._ID, MovieContract.SourceEntry.COLUMNS));
+        initIndexes(db, MovieContract.SourceEntry.TABLE_NAME, MovieContract.SourceEntry.COLUMNS);
+        initUniqueIndex(db, MovieContract.SourceEntry.TABLE_NAME, MovieContract.SourceEntry.UNIQUE_COLUMNS);
+    }
+
+    // Creates the views and triggers joining the favorites and the source memberships with the movie and tv tables
+    private void createViews(SQLiteDatabase db) {
+        initFavorites(db, MovieContract.PATH_MOVIE, MovieContract.MovieEntry.TABLE_NAME, MovieContract.FavoriteEntry.MOVIE_VIEW_NAME);
+        initFavorites(db, MovieContract.PATH_TV, MovieContract.TVEntry.TABLE_NAME, MovieContract.FavoriteEntry.TV_VIEW_NAME);
+        initSources(db, MovieContract.PATH_MOVIE, MovieContract.MovieEntry.TABLE_NAME, MovieContract.SourceEntry.MOVIE_VIEW_NAME);
+        initSources(db, MovieContract.PATH_TV, MovieContract.TVEntry.TABLE_NAME, MovieContract.SourceEntry.TV_VIEW_NAME);
+    }
+
+    // Creates the favorite table, including its index, which only has the media that are favorites, stored once in the media tables
+    private void createFavorites(SQLiteDatabase db) {
+        db.execSQL(initTable(MovieContract.FavoriteEntry.TABLE_NAME, MovieContract.FavoriteEntry._ID, MovieContract.FavoriteEntry.COLUMNS));
+        initUniqueIndex(db, MovieContract.FavoriteEntry.TABLE_NAME, MovieContract.FavoriteEntry.UNIQUE_COLUMNS);
+    }
+
+    /**
+     * Creates the full text search index of a media table and the triggers that keep it up to date. The index has a
+     * row for each media keyed by the media id, which is rewritten whenever the media is inserted or one of its
+     * indexed columns is updated, and removed along with the media. The placeholder null values written for missing
+     * columns are left out of the index.
+     *
+     * @param tableName  The media table to index
+     * @param searchName The name of the search table to create
+     * @param columns    The columns of the media table to index
+     */
+    private void initSearch(SQLiteDatabase db, String tableName, String searchName, MovieContract.DatabaseColumn[] columns) {
+        final String mediaId = MovieContract.COLUMN_MEDIA_ID;
+        String names = "", newValues = "";
+        for (MovieContract.DatabaseColumn column : columns) {
+            names += ", " + column.COLUMN;
+            newValues += ", nullif(new." + column.COLUMN + ", 'null')";
+        }
+        String reindex = " delete from " + searchName + " where docid = new." + mediaId + ";"
+                + " insert into " + searchName + " (docid" + names + ") values (new." + mediaId + newValues + ");";
+
+        db.execSQL("create virtual table if not exists " + searchName + " using fts4(" + names.substring(2) + ");");
+
+        db.execSQL("create trigger if not exists " + searchName + "_insert after insert on " + tableName
+                + " begin" + reindex + " end;");
+
+        db.execSQL("create trigger if not exists " + searchName + "_update after update of " + names.substring(2) + " on " + tableName
+                + " begin" + reindex + " end;");
+
+        db.execSQL("create trigger if not exists " + searchName + "_delete after delete on " + tableName
+                + " begin delete from " + searchName + " where docid = old." + mediaId + "; end;");
+    }
+
+    // Fills the search index of a media table from the rows it already has, one for each media
+    private void populateSearch(SQLiteDatabase db, String tableName, String searchName, MovieContract.DatabaseColumn[] columns) {
+        final String mediaId = MovieContract.COLUMN_MEDIA_ID;
+        String names = "", values = "";
+        for (MovieContract.DatabaseColumn column : columns) {
+            names += ", " + column.COLUMN;
+            values += ", nullif(" + column.COLUMN + ", 'null')";
+        }
+        db.execSQL("insert into " + searchName + " (docid" + names + ") select " + mediaId + values
+                + " from " + tableName + " group by " + mediaId + ";");
+    }
+
+    // Creates the search indexes of the movie and tv tables
+    private void createSearch(SQLiteDatabase db) {
+        initSearch(db, MovieContract.MovieEntry.TABLE_NAME, MovieContract.SearchEntry.MOVIE_TABLE_NAME, MovieContract.SearchEntry.MOVIE_COLUMNS);
+        initSearch(db, MovieContract.TVEntry.TABLE_NAME, MovieContract.SearchEntry.TV_TABLE_NAME, MovieContract.SearchEntry.TV_COLUMNS);
+    }
+
+    // Creates the sync state table, including its index, which has the outcome of the last sync of each source list and detail
+    private void createSyncState(SQLiteDatabase db) {
+        db.execSQL(initTable(MovieContract.SyncStateEntry.TABLE_NAME, MovieContract.SyncStateEntry._ID, MovieContract.SyncStateEntry.COLUMNS));
+        initUniqueIndex(db, MovieContract.SyncStateEntry.TABLE_NAME, MovieContract.SyncStateEntry.UNIQUE_COLUMNS);
+    }
+
+    /**
+     * Creates the trigger removing the sync state of the detail of a media along with the media, so the sync state
+     * only ever has a row for the media that are still stored, along with the rows of the source lists.
+     *
+     * @param type      The media type, which is the type of the sync state of its detail
+     * @param tableName The media table of the media type
+     */
+    private void initSyncStateRelease(SQLiteDatabase db, String type, String tableName) {
+        db.execSQL("create trigger if not exists " + tableName + "_release_sync_state after delete on " + tableName
+                + " begin delete from " + MovieContract.SyncStateEntry.TABLE_NAME
+                + " where " + MovieContract.SyncStateEntry.TYPE.COLUMN + " = '" + type + "'"
+                + " and " + MovieContract.SyncStateEntry.SOURCE.COLUMN + " = old." + MovieContract.COLUMN_MEDIA_ID + ";"
+                + " end;");
+    }
+
+    /**
+     * Removes the sync state of the trailers and reviews, which aren't shown as stale, and of the detail of the media
+     * that are no longer stored. The sources of the detail are the media ids, while the source lists never are numbers.
+     */
+    private void migrateSyncState(SQLiteDatabase db) {
+        final String syncState = MovieContract.SyncStateEntry.TABLE_NAME;
+        final String type = MovieContract.SyncStateEntry.TYPE.COLUMN;
+        final String mediaId = "cast(" + MovieContract.SyncStateEntry.SOURCE.COLUMN + " as integer)";
+
+        db.execSQL("delete from " + syncState + " where " + type + " not in ('" + MovieContract.PATH_MOVIE + "', '" + MovieContract.PATH_TV + "');");
+        db.execSQL("delete from " + syncState + " where " + type + " = '" + MovieContract.PATH_MOVIE + "' and " + mediaId + " > 0"
+                + " and " + mediaId + " not in (select " + MovieContract.COLUMN_MEDIA_ID + " from " + MovieContract.MovieEntry.TABLE_NAME + ");");
+        db.execSQL("delete from " + syncState + " where " + type + " = '" + MovieContract.PATH_TV + "' and " + mediaId + " > 0"
+                + " and " + mediaId + " not in (select " + MovieContract.COLUMN_MEDIA_ID + " from " + MovieContract.TVEntry.TABLE_NAME + ");");
+    }
+
+    // Creates the triggers removing the sync state of the detail of the movies and tv along with them
+    private void createSyncStateReleases(SQLiteDatabase db) {
+        initSyncStateRelease(db, MovieContract.PATH_MOVIE, MovieContract.MovieEntry.TABLE_NAME);
+        initSyncStateRelease(db, MovieContract.PATH_TV, MovieContract.TVEntry.TABLE_NAME);
+    }
+
+    /**
+     * Moves the favorites of a media type that were stored as full copies with the favorite source into the favorite
+     * table, removing the copies of any media that is still stored within another source.
+     */
+    private void migrateFavorites(SQLiteDatabase db, String type, String tableName) {
+        final String mediaId = MovieContract.COLUMN_MEDIA_ID;
+        final String source = MovieContract.MovieEntry.SOURCE.COLUMN;
+        final String sourceFavorite = MovieContract.MovieEntry.SOURCE_FAVORITE;
+
+        db.execSQL("insert or ignore into " + MovieContract.FavoriteEntry.TABLE_NAME
+                + " (" + MovieContract.FavoriteEntry.TYPE.COLUMN + ", " + mediaId + ")"
+                + " select distinct '" + type + "', " + mediaId + " from " + tableName
+                + " where " + source + " = '" + sourceFavorite + "';");
+        db.execSQL("delete from " + tableName + " where " + source + " = '" + sourceFavorite + "' and " + mediaId
+                + " in (select " + mediaId + " from " + tableName + " where " + source + " != '" + sourceFavorite + "');");
+    }
+
+    /**
+     * Moves the sources of a media type out of its media table into the source membership table, ranking the media of
+     * each source by their position in the order they were stored, counting from 0 the same way as the synced pages,
+     * and then rebuilds the media table with a single row for each media. The favorite views and triggers have to be
+     * dropped before this and created again afterwards.
+     */
+    private void migrateSources(SQLiteDatabase db, String type, String tableName, MovieContract.DatabaseColumn[] columns) {
+        final String mediaId = MovieContract.COLUMN_MEDIA_ID;
+        final String source = MovieContract.SourceEntry.SOURCE.COLUMN;
+        final String newTableName = tableName + "_new";
+
+        db.execSQL("insert or ignore into " + MovieContract.SourceEntry.TABLE_NAME
+                + " (" + MovieContract.SourceEntry.TYPE.COLUMN + ", " + source + ", " + mediaId + ", " + MovieContract.SourceEntry.RANK.COLUMN + ")"
+                + " select '" + type + "', " + source + ", " + mediaId + ", (select count(*) from " + tableName + " earlier"
+                + " where earlier." + source + " = " + tableName + "." + source + " and earlier._id < " + tableName + "._id)"
+                + " from " + tableName + " where " + source + " != '" + MovieContract.MovieEntry.SOURCE_FAVORITE + "';");
+
+        String names = "_id";
+        for (MovieContract.DatabaseColumn column : columns) {
+            names += ", " + column.COLUMN;
+        }
+        db.execSQL(initTable(newTableName, "_id", columns));
+        db.execSQL("insert into " + newTableName + " (" + names + ") select " + names + " from " + tableName
+                + " where _id in (select max(_id) from " + tableName + " group by " + mediaId + ");");
+        db.execSQL("drop table " + tableName + ";");
+        db.execSQL("alter table " + newTableName + " rename to " + tableName + ";");
+    }
+
+    // Creates the 4 different media databases required for the application, passing in the columns from the contract for creation, and the favorites
     @Override
     public void onCreate(SQLiteDatabase db) {
         db.execSQL(initTable(MovieContract.MovieEntry.TABLE_NAME, MovieContract.MovieEntry._ID, MovieContract.MovieEntry.COLUMNS));
         db.execSQL(initTable(MovieContract.ReviewEntry.TABLE_NAME, MovieContract.ReviewEntry._ID, MovieContract.ReviewEntry.COLUMNS));
         db.execSQL(initTable(MovieContract.TrailerEntry.TABLE_NAME, MovieContract.TrailerEntry._ID, MovieContract.TrailerEntry.COLUMNS));
         db.execSQL(initTable(MovieContract.TVEntry.TABLE_NAME, MovieContract.TVEntry._ID, MovieContract.TVEntry.COLUMNS));
+        createIndexes(db);
+        createMediaIndexes(db);
+        createFavorites(db);
+        createSources(db);
+        createViews(db);
+        createSyncState(db);
+        createSyncStateReleases(db);
+        createSearch(db);
     }
 
     /**
-     * For upgrading of the database, currently just clears out the old database and puts the new information in
-     * the database, mostly to ensure the application doesn't crash when adding new columns and such.
+     * For upgrading of the database, each version from the minimum migration version on has a migration to
+     * the next version, and these are run one after the other until the database is at the current version.
+     * Versions older than that didn't have any stored data worth keeping, so those are dropped and recreated.
      */
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
 
-        db.execSQL("DROP TABLE IF EXISTS " + MovieContract.MovieEntry.TABLE_NAME);
-        db.execSQL("DROP TABLE IF EXISTS " + MovieContract.ReviewEntry.TABLE_NAME);
-        db.execSQL("DROP TABLE IF EXISTS " + MovieContract.TrailerEntry.TABLE_NAME);
-        db.execSQL("DROP TABLE IF EXISTS " + MovieContract.TVEntry.TABLE_NAME);
-        onCreate(db);
+        if (oldVersion < MIN_MIGRATION_VERSION) {
+            db.execSQL("DROP TABLE IF EXISTS " + MovieContract.MovieEntry.TABLE_NAME);
+            db.execSQL("DROP TABLE IF EXISTS " + MovieContract.ReviewEntry.TABLE_NAME);
+            db.execSQL("DROP TABLE IF EXISTS " + MovieContract.TrailerEntry.TABLE_NAME);
+            db.execSQL("DROP TABLE IF EXISTS " + MovieContract.TVEntry.TABLE_NAME);
+            onCreate(db);
+            return;
+        }
+
+        // Each migration falls through to the next one until we reach the current version
+        switch (oldVersion) {
+            case 4: {
+                // Version 5 added the indexes on the media id columns of the reviews and trailers
+                createIndexes(db);
+            }
+            case 5: {
+                // Version 6 moved the favorites out of the media tables into their own table, the views are created by version 9
+                createFavorites(db);
+                migrateFavorites(db, MovieContract.PATH_MOVIE, MovieContract.MovieEntry.TABLE_NAME);
+                migrateFavorites(db, MovieContract.PATH_TV, MovieContract.TVEntry.TABLE_NAME);
+            }
+            case 6: {
+                // Version 7 added the sync state of each source
+                createSyncState(db);
+            }
+            case 7: {
+                // Version 8 added the full text search indexes, which are filled from the media already stored
+                createSearch(db);
+                populateSearch(db, MovieContract.MovieEntry.TABLE_NAME, MovieContract.SearchEntry.MOVIE_TABLE_NAME, MovieContract.SearchEntry.MOVIE_COLUMNS);
+                populateSearch(db, MovieContract.TVEntry.TABLE_NAME, MovieContract.SearchEntry.TV_TABLE_NAME, MovieContract.SearchEntry.TV_COLUMNS);
+            }
+            case 8: {
+                // Version 9 moved the sources out of the media tables, which now only have a single row for each media
+                db.execSQL("drop view if exists " + MovieContract.FavoriteEntry.MOVIE_VIEW_NAME);
+                db.execSQL("drop view if exists " + MovieContract.FavoriteEntry.TV_VIEW_NAME);
+                db.execSQL("drop trigger if exists " + MovieContract.MovieEntry.TABLE_NAME + "_release_favorite");
+                db.execSQL("drop trigger if exists " + MovieContract.TVEntry.TABLE_NAME + "_release_favorite");
+                createSources(db);
+                migrateSources(db, MovieContract.PATH_MOVIE, MovieContract.MovieEntry.TABLE_NAME, MovieContract.MovieEntry.COLUMNS);
+                migrateSources(db, MovieContract.PATH_TV, MovieContract.TVEntry.TABLE_NAME, MovieContract.TVEntry.COLUMNS);
+                createMediaIndexes(db);
+                createViews(db);
+                createSearch(db);
+            }
+            case 9: {
+                // Version 10 only kept the sync state of the source lists and of the detail of the media still stored
+                migrateSyncState(db);
+                createSyncStateReleases(db);
+            }
+            case 10: {
+                // Version 11 added the review id, the reviews already stored are replaced by the next sync of their media
+                final MovieContract.DatabaseColumn reviewId = MovieContract.ReviewEntry.REVIEW_ID;
+                db.execSQL("alter table " + MovieContract.ReviewEntry.TABLE_NAME + " add column " + reviewId.COLUMN + " "
+                        + reviewId.TYPE + " " + reviewId.ARGS + " default '" + reviewId.getDefault() + "';");
+            }
+        }
     }
 }
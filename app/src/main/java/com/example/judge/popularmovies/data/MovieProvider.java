@@ -5,13 +5,25 @@
 package com.example.judge.popularmovies.data;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.provider.BaseColumns;
 import android.support.annotation.NonNull;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 /**
  * This is the content provider that is used within the application, it's a fairly bog standard content
  * provider created in the same vein as the one that was used in sunshine. It's a little different in that
@@ -27,12 +39,31 @@ public class MovieProvider extends ContentProvider {
     private static final int REVIEW = 101;
     private static final int TRAILER = 102;
     private static final int TV = 103;
+    private static final int FAVORITE = 104;
+    private static final int FAVORITE_MOVIE = 105;
+    private static final int FAVORITE_TV = 106;
+    private static final int SYNC_STATE = 107;
+    private static final int SEARCH_MOVIE = 108;
+    private static final int SEARCH_TV = 109;
+    private static final int SOURCE_MOVIE = 110;
+    private static final int SOURCE_TV = 111;
 
     private static final UriMatcher sUriMatcher = buildUriMatcher();
 
     private MovieDbHelper mOpenHelper;
 
-    // Method to create the URI matcher required for the provider, there are only 4 types directly accessing the tables.
+    // The batch being applied on the current thread, if there is one
+    private final ThreadLocal<Batch> mBatch = new ThreadLocal<>();
+
+    // The number of change notifications sent on each thread, so a writer can tell how many its writes sent
+    private static final ThreadLocal<int[]> sNotifyCount = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[1];
+        }
+    };
+
+    // Method to create the URI matcher required for the provider, the types directly access the tables, other than the favorite views.
     private static UriMatcher buildUriMatcher() {
         UriMatcher matcher = new UriMatcher(UriMatcher.NO_MATCH);
         final String authority = MovieContract.CONTENT_AUTHORITY;
@@ -41,6 +72,14 @@ public class MovieProvider extends ContentProvider {
         matcher.addURI(authority, MovieContract.PATH_REVIEW, REVIEW);
         matcher.addURI(authority, MovieContract.PATH_TRAILER, TRAILER);
         matcher.addURI(authority, MovieContract.PATH_TV, TV);
+        matcher.addURI(authority, MovieContract.PATH_FAVORITE, FAVORITE);
+        matcher.addURI(authority, MovieContract.PATH_FAVORITE + "/" + MovieContract.PATH_MOVIE, FAVORITE_MOVIE);
+        matcher.addURI(authority, MovieContract.PATH_FAVORITE + "/" + MovieContract.PATH_TV, FAVORITE_TV);
+        matcher.addURI(authority, MovieContract.PATH_SYNC_STATE, SYNC_STATE);
+        matcher.addURI(authority, MovieContract.PATH_SEARCH + "/" + MovieContract.PATH_MOVIE, SEARCH_MOVIE);
+        matcher.addURI(authority, MovieContract.PATH_SEARCH + "/" + MovieContract.PATH_TV, SEARCH_TV);
+        matcher.addURI(authority, MovieContract.PATH_SOURCE + "/" + MovieContract.PATH_MOVIE, SOURCE_MOVIE);
+        matcher.addURI(authority, MovieContract.PATH_SOURCE + "/" + MovieContract.PATH_TV, SOURCE_TV);
 
         return matcher;
     }
@@ -58,6 +97,22 @@ public class MovieProvider extends ContentProvider {
                 return MovieContract.TrailerEntry.CONTENT_TYPE;
             case TV:
                 return MovieContract.TVEntry.CONTENT_TYPE;
+            case FAVORITE:
+                return MovieContract.FavoriteEntry.CONTENT_TYPE;
+            case FAVORITE_MOVIE:
+                return MovieContract.MovieEntry.CONTENT_TYPE;
+            case FAVORITE_TV:
+                return MovieContract.TVEntry.CONTENT_TYPE;
+            case SYNC_STATE:
+                return MovieContract.SyncStateEntry.CONTENT_TYPE;
+            case SEARCH_MOVIE:
+                return MovieContract.MovieEntry.CONTENT_TYPE;
+            case SEARCH_TV:
+                return MovieContract.TVEntry.CONTENT_TYPE;
+            case SOURCE_MOVIE:
+                return MovieContract.MovieEntry.CONTENT_TYPE;
+            case SOURCE_TV:
+                return MovieContract.TVEntry.CONTENT_TYPE;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -92,6 +147,38 @@ public class MovieProvider extends ContentProvider {
                 table = MovieContract.TVEntry.TABLE_NAME;
                 break;
             }
+            case FAVORITE: {
+                table = MovieContract.FavoriteEntry.TABLE_NAME;
+                break;
+            }
+            case FAVORITE_MOVIE: {
+                table = MovieContract.FavoriteEntry.MOVIE_VIEW_NAME;
+                break;
+            }
+            case FAVORITE_TV: {
+                table = MovieContract.FavoriteEntry.TV_VIEW_NAME;
+                break;
+            }
+            case SYNC_STATE: {
+                table = MovieContract.SyncStateEntry.TABLE_NAME;
+                break;
+            }
+            case SEARCH_MOVIE: {
+                return search(uri, MovieContract.MovieEntry.TABLE_NAME, MovieContract.SearchEntry.MOVIE_TABLE_NAME,
+                        MovieContract.MovieEntry.CONTENT_URI, projection, selection, selectionArgs, sortOrder);
+            }
+            case SEARCH_TV: {
+                return search(uri, MovieContract.TVEntry.TABLE_NAME, MovieContract.SearchEntry.TV_TABLE_NAME,
+                        MovieContract.TVEntry.CONTENT_URI, projection, selection, selectionArgs, sortOrder);
+            }
+            case SOURCE_MOVIE: {
+                return querySource(MovieContract.SourceEntry.MOVIE_VIEW_NAME, MovieContract.MovieEntry.CONTENT_URI,
+                        projection, selection, selectionArgs, sortOrder);
+            }
+            case SOURCE_TV: {
+                return querySource(MovieContract.SourceEntry.TV_VIEW_NAME, MovieContract.TVEntry.CONTENT_URI,
+                        projection, selection, selectionArgs, sortOrder);
+            }
             default: {
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
             }
@@ -110,12 +197,71 @@ public class MovieProvider extends ContentProvider {
         return retCursor;
     }
 
+    /**
+     * Queries the view joining the media with the sources they are in, in the order of their rank unless another order
+     * is given. The cursor is notified when the media table changes, which includes the merges into the sources.
+     *
+     * @param view       The source view of the media type
+     * @param contentUri The content uri of the media table
+     * @return Returns the cursor of the media, with a row for each source it is in that was selected
+     */
+    private Cursor querySource(String view, Uri contentUri, String[] projection, String selection,
+                               String[] selectionArgs, String sortOrder) {
+        Cursor cursor = mOpenHelper.getReadableDatabase().query(view, projection, selection, selectionArgs, null, null,
+                (sortOrder != null) ? sortOrder : MovieContract.SourceEntry.sortRank());
+        cursor.setNotificationUri(getContext().getContentResolver(), contentUri);
+        return cursor;
+    }
+
+    /**
+     * Searches the media table through its full text index, returning one row for each media that matches the query
+     * in the uri, most popular first unless another order is given. The cursor is notified when the media table
+     * changes, so results filled in by a remote search show up straight away.
+     *
+     * @param table       The media table to search
+     * @param searchTable The full text index of the media table
+     * @param contentUri  The content uri of the media table
+     * @return Returns the cursor of the matching media, which is empty if there is nothing to search for
+     */
+    private Cursor search(Uri uri, String table, String searchTable, Uri contentUri, String[] projection,
+                          String selection, String[] selectionArgs, String sortOrder) {
+        final String mediaId = MovieContract.COLUMN_MEDIA_ID;
+        String match = MovieContract.SearchEntry.buildMatchQuery(uri.getQueryParameter(MovieContract.SearchEntry.PARAM_QUERY));
+
+        String searchSelection = (match == null) ? "0" : mediaId + " in (select docid from " + searchTable
+                + " where " + searchTable + " match ?)";
+        ArrayList<String> args = new ArrayList<>();
+        if (match != null) args.add(match);
+        if (selection != null && !selection.isEmpty()) {
+            searchSelection += " and (" + selection + ")";
+            if (selectionArgs != null) args.addAll(Arrays.asList(selectionArgs));
+        }
+
+        Cursor cursor = mOpenHelper.getReadableDatabase().query(table, projection, searchSelection,
+                args.toArray(new String[args.size()]), null, null,
+                (sortOrder != null) ? sortOrder : MovieContract.MovieEntry.POPULARITY.COLUMN + " desc");
+        cursor.setNotificationUri(getContext().getContentResolver(), contentUri);
+        return cursor;
+    }
 
     // Method for inserting rows into the database, again simple as operates directly on the tables
     @Override
     public Uri insert(Uri uri, ContentValues values) {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        final Batch batch = mBatch.get();
         Uri returnUri;
+
+        // Within a batch the rows inserted with a merge uri are collected, and merged together at the end of the batch
+        if (batch != null && uri.getBooleanQueryParameter(MovieContract.PARAM_MERGE, false)) {
+            ArrayList<ContentValues> merge = batch.mMerges.get(uri);
+            if (merge == null) {
+                merge = new ArrayList<>();
+                batch.mMerges.put(uri, merge);
+            }
+            merge.add(values);
+            return uri;
+        }
+
         switch (sUriMatcher.match(uri)) {
             case MOVIE: {
                 long _id = db.insert(MovieContract.MovieEntry.TABLE_NAME, null, values);
@@ -153,10 +299,30 @@ public class MovieProvider extends ContentProvider {
                 }
                 break;
             }
+            case FAVORITE: {
+                // Favoriting something that is already a favorite simply replaces it
+                long _id = db.insertWithOnConflict(MovieContract.FavoriteEntry.TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+                if (_id > 0) {
+                    returnUri = MovieContract.FavoriteEntry.buildFavoriteUri(_id);
+                } else {
+                    throw new android.database.SQLException("Failed to insert row into " + uri);
+                }
+                break;
+            }
+            case SYNC_STATE: {
+                // There is only ever one state for each sync, the newest replaces the old one
+                long _id = db.insertWithOnConflict(MovieContract.SyncStateEntry.TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+                if (_id > 0) {
+                    returnUri = MovieContract.SyncStateEntry.buildSyncStateUri(_id);
+                } else {
+                    throw new android.database.SQLException("Failed to insert row into " + uri);
+                }
+                break;
+            }
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        getContext().getContentResolver().notifyChange(uri, null);
+        notifyChange(uri);
         return returnUri;
     }
 
@@ -164,6 +330,7 @@ public class MovieProvider extends ContentProvider {
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        Uri notifyUri = uri;
         int rowsDeleted;
 
         switch (sUriMatcher.match(uri)) {
@@ -183,74 +350,251 @@ public class MovieProvider extends ContentProvider {
                 rowsDeleted = db.delete(MovieContract.TVEntry.TABLE_NAME, selection, selectionArgs);
                 break;
             }
+            case FAVORITE: {
+                rowsDeleted = db.delete(MovieContract.FavoriteEntry.TABLE_NAME, selection, selectionArgs);
+                break;
+            }
+            case SYNC_STATE: {
+                rowsDeleted = db.delete(MovieContract.SyncStateEntry.TABLE_NAME, selection, selectionArgs);
+                break;
+            }
+            case SOURCE_MOVIE: {
+                // Removing media from a source removes the media itself if it isn't in any other source or the favorites
+                rowsDeleted = deleteSource(db, MovieContract.PATH_MOVIE, selection, selectionArgs);
+                notifyUri = MovieContract.MovieEntry.CONTENT_URI;
+                break;
+            }
+            case SOURCE_TV: {
+                rowsDeleted = deleteSource(db, MovieContract.PATH_TV, selection, selectionArgs);
+                notifyUri = MovieContract.TVEntry.CONTENT_URI;
+                break;
+            }
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(notifyUri);
         }
         return rowsDeleted;
     }
 
-    // Method to update rows in the database.
+    // Deletes the source memberships of the media type that match the selection
+    private static int deleteSource(SQLiteDatabase db, String type, String selection, String[] selectionArgs) {
+        String typeSelection = MovieContract.SourceEntry.TYPE.COLUMN + " = ?";
+        ArrayList<String> args = new ArrayList<>();
+        args.add(type);
+        if (selection != null && !selection.isEmpty()) {
+            typeSelection += " and (" + selection + ")";
+            if (selectionArgs != null) args.addAll(Arrays.asList(selectionArgs));
+        }
+        return db.delete(MovieContract.SourceEntry.TABLE_NAME, typeSelection, args.toArray(new String[args.size()]));
+    }
+
+    // Method to update rows in the database, within a batch the updates go through the compiled statements of the batch.
     @Override
     public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
-        int rowsUpdated;
+        final Batch batch = mBatch.get();
+        String table;
 
         switch (sUriMatcher.match(uri)) {
             case MOVIE: {
-                rowsUpdated = db.update(MovieContract.MovieEntry.TABLE_NAME, values, selection, selectionArgs);
+                table = MovieContract.MovieEntry.TABLE_NAME;
                 break;
             }
             case REVIEW: {
-                rowsUpdated = db.update(MovieContract.ReviewEntry.TABLE_NAME, values, selection, selectionArgs);
+                table = MovieContract.ReviewEntry.TABLE_NAME;
                 break;
             }
             case TRAILER: {
-                rowsUpdated = db.update(MovieContract.TrailerEntry.TABLE_NAME, values, selection, selectionArgs);
+                table = MovieContract.TrailerEntry.TABLE_NAME;
                 break;
             }
             case TV: {
-                rowsUpdated = db.update(MovieContract.TVEntry.TABLE_NAME, values, selection, selectionArgs);
+                table = MovieContract.TVEntry.TABLE_NAME;
+                break;
+            }
+            case SYNC_STATE: {
+                table = MovieContract.SyncStateEntry.TABLE_NAME;
                 break;
             }
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
+
+        int rowsUpdated = (batch != null && values.size() > 0) ?
+                batchUpdate(db, batch, table, values, selection, selectionArgs) :
+                db.update(table, values, selection, selectionArgs);
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
         return rowsUpdated;
     }
 
-    // Method to bulk insert into the database, this is used quite a bit in the syncing.
+    /**
+     * Applies the operations of a batch within a single transaction, so they are either all applied or none of them
+     * are. The updates of the batch are done with compiled statements that are reused for every update with the same
+     * table, columns and selection, and only touch the rows where at least one of the columns is actually changing.
+     * The inserts with a merge uri are merged the same way as a bulk insert with that uri, once the rest of the batch
+     * has been applied, with all of the rows for the same uri merged together. The change notifications are held
+     * back until the end of the batch, with only one sent for each uri changed.
+     *
+     * @param operations The operations to apply
+     * @return Returns the results of each of the operations
+     */
+    @NonNull
+    @Override
+    public ContentProviderResult[] applyBatch(@NonNull ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        final Batch batch = new Batch();
+        ContentProviderResult[] results;
+
+        mBatch.set(batch);
+        db.beginTransaction();
+        try {
+            results = super.applyBatch(operations);
+            for (Map.Entry<Uri, ArrayList<ContentValues>> merge : batch.mMerges.entrySet()) {
+                bulkInsert(merge.getKey(), merge.getValue().toArray(new ContentValues[merge.getValue().size()]));
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            mBatch.remove();
+            for (SQLiteStatement statement : batch.mStatements.values()) {
+                statement.close();
+            }
+        }
+
+        for (Uri uri : batch.mNotifyUris) {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+        sNotifyCount.get()[0] += batch.mNotifyUris.size();
+        return results;
+    }
+
+    /**
+     * Returns the number of change notifications the provider has sent for the writes made on the calling thread.
+     * The provider is called directly on the thread of a caller within the same process, so the difference before
+     * and after a write is the number of notifications that write sent.
+     *
+     * @return Returns the number of notifications sent on this thread
+     */
+    public static int getNotifyCount() {
+        return sNotifyCount.get()[0];
+    }
+
+    // Updates the rows using the compiled statement of the batch for the table, columns and selection
+    private static int batchUpdate(SQLiteDatabase db, Batch batch, String table, ContentValues values,
+                                   String selection, String[] selectionArgs) {
+        ArrayList<Map.Entry<String, Object>> entries = new ArrayList<>(values.valueSet());
+        String columns = "";
+        for (Map.Entry<String, Object> entry : entries) {
+            columns += (columns.isEmpty() ? "" : ", ") + entry.getKey();
+        }
+
+        String statementKey = table + "|" + columns + "|" + selection;
+        SQLiteStatement statement = batch.mStatements.get(statementKey);
+        if (statement == null) {
+            String set = "", changed = "";
+            for (Map.Entry<String, Object> entry : entries) {
+                set += (set.isEmpty() ? "" : ", ") + entry.getKey() + " = ?";
+                changed += (changed.isEmpty() ? "" : " or ") + entry.getKey() + " is not ?";
+            }
+            String sql = "update " + table + " set " + set + " where ";
+            sql += (selection != null && !selection.isEmpty()) ? "(" + changed + ") and (" + selection + ")" : changed;
+            statement = db.compileStatement(sql);
+            batch.mStatements.put(statementKey, statement);
+        }
+
+        // The values are bound twice, once for setting the columns and once for checking if they have changed,
+        // followed by the arguments of the selection
+        statement.clearBindings();
+        int index = 1;
+        for (int pass = 0; pass < 2; pass++) {
+            for (Map.Entry<String, Object> entry : entries) {
+                bindValue(statement, index++, entry.getValue());
+            }
+        }
+        if (selectionArgs != null) {
+            for (String arg : selectionArgs) {
+                bindValue(statement, index++, arg);
+            }
+        }
+        return statement.executeUpdateDelete();
+    }
+
+    // Binds a value of a content value to the statement, using the type of the value
+    private static void bindValue(SQLiteStatement statement, int index, Object value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else if (value instanceof Double || value instanceof Float) {
+            statement.bindDouble(index, ((Number) value).doubleValue());
+        } else if (value instanceof Number) {
+            statement.bindLong(index, ((Number) value).longValue());
+        } else if (value instanceof Boolean) {
+            statement.bindLong(index, ((Boolean) value) ? 1 : 0);
+        } else if (value instanceof byte[]) {
+            statement.bindBlob(index, (byte[]) value);
+        } else {
+            statement.bindString(index, value.toString());
+        }
+    }
+
+    // Sends a change notification for the uri, or holds it until the end of the batch if one is being applied
+    private void notifyChange(Uri uri) {
+        Batch batch = mBatch.get();
+        if (batch != null) {
+            batch.mNotifyUris.add(uri);
+        } else {
+            getContext().getContentResolver().notifyChange(uri, null);
+            sNotifyCount.get()[0]++;
+        }
+    }
+
+    // Method to bulk insert into the database, this is used quite a bit in the syncing. With a merge uri the values are
+    // merged into the stored rows instead, so the syncing doesn't rewrite the data that hasn't changed.
     @Override
     public int bulkInsert(Uri uri, @NonNull ContentValues[] values) {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         String table;
+        MovieContract.DatabaseColumn[] columns, matchColumns;
         switch (match) {
             case MOVIE: {
                 table = MovieContract.MovieEntry.TABLE_NAME;
+                columns = MovieContract.MovieEntry.COLUMNS;
+                matchColumns = MovieContract.MovieEntry.MATCH_COLUMNS;
                 break;
             }
             case REVIEW: {
                 table = MovieContract.ReviewEntry.TABLE_NAME;
+                columns = MovieContract.ReviewEntry.COLUMNS;
+                matchColumns = MovieContract.ReviewEntry.MATCH_COLUMNS;
                 break;
             }
             case TRAILER: {
                 table = MovieContract.TrailerEntry.TABLE_NAME;
+                columns = MovieContract.TrailerEntry.COLUMNS;
+                matchColumns = MovieContract.TrailerEntry.MATCH_COLUMNS;
                 break;
             }
             case TV: {
                 table = MovieContract.TVEntry.TABLE_NAME;
+                columns = MovieContract.TVEntry.COLUMNS;
+                matchColumns = MovieContract.TVEntry.MATCH_COLUMNS;
                 break;
             }
             default:
                 return super.bulkInsert(uri, values);
         }
 
+        if (uri.getBooleanQueryParameter(MovieContract.PARAM_MERGE, false)) {
+            if (match == MOVIE) return mergeMedia(db, uri, MovieContract.PATH_MOVIE, table, matchColumns, values);
+            if (match == TV) return mergeMedia(db, uri, MovieContract.PATH_TV, table, matchColumns, values);
+            return mergeInsert(db, uri, table, columns, matchColumns, values);
+        }
+
         db.beginTransaction();
         int returnCount = 0;
         try {
@@ -264,8 +608,244 @@ public class MovieProvider extends ContentProvider {
         } finally {
             db.endTransaction();
         }
-        getContext().getContentResolver().notifyChange(uri, null);
+        notifyChange(uri);
         return returnCount;
     }
-}
 
+    /**
+     * Merges the values into the table within a single transaction. Each value is matched to an existing row
+     * using the match columns, if one is found only the columns that have changed are updated, otherwise the
+     * value is inserted. If the uri contains scope columns, any row within that scope that wasn't matched is
+     * removed. Only a single change notification is sent, and only if something actually changed.
+     *
+     * @return Returns the number of rows that were inserted, updated or removed
+     */
+    private int mergeInsert(SQLiteDatabase db, Uri uri, String table, MovieContract.DatabaseColumn[] columns,
+                            MovieContract.DatabaseColumn[] matchColumns, ContentValues[] values) {
+        String matchSelection = buildMatchSelection(matchColumns);
+
+        // Build the selection of rows that can be removed out of the scope columns in the uri
+        String scopeSelection = "";
+        ArrayList<String> scopeArgs = new ArrayList<>();
+        for (String name : uri.getQueryParameterNames()) {
+            if (name.equals(MovieContract.PARAM_MERGE)) continue;
+            if (!hasColumn(columns, name)) {
+                throw new UnsupportedOperationException("Unknown merge scope column " + name + " in uri: " + uri);
+            }
+            scopeSelection += (scopeSelection.isEmpty() ? "" : " and ") + name + " = ?";
+            scopeArgs.add(uri.getQueryParameter(name));
+        }
+
+        HashSet<Long> matched = new HashSet<>();
+        int changed = 0;
+
+        db.beginTransaction();
+        try {
+            for (ContentValues value : values) {
+                changed += mergeRow(db, table, matchSelection, getMatchArgs(value, matchColumns), value, matched, false);
+            }
+
+            // Remove the rows within the scope that no longer exist in the synced data
+            if (!scopeSelection.isEmpty()) {
+                changed += removeUnmatched(db, table, scopeSelection, scopeArgs.toArray(new String[scopeArgs.size()]), matched);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        if (changed != 0) {
+            notifyChange(uri.buildUpon().clearQuery().build());
+        }
+        return changed;
+    }
+
+    /**
+     * Merges the values of synced media into a media table and the source memberships within a single transaction.
+     * The media columns of each value are merged into the single row of the media, and the source and rank of the
+     * value into the membership of the media within that source. If the uri contains the source as its scope, any
+     * membership of that source that wasn't matched is removed, or only those ranked within the rank range if the uri
+     * has one, which removes the media as well if it isn't in any other source or the favorites. A column the api
+     * left out of a value keeps what is stored for the media. Only a single change notification is sent, and only
+     * if something changed.
+     *
+     * @param type The media type of the media table
+     * @return Returns the number of media and memberships that were inserted, updated or removed
+     */
+    private int mergeMedia(SQLiteDatabase db, Uri uri, String type, String table,
+                           MovieContract.DatabaseColumn[] matchColumns, ContentValues[] values) {
+        final String source = MovieContract.SourceEntry.SOURCE.COLUMN;
+        final String rank = MovieContract.SourceEntry.RANK.COLUMN;
+        final String mediaId = MovieContract.COLUMN_MEDIA_ID;
+        final String matchSelection = buildMatchSelection(matchColumns);
+        final String membershipSelection = buildMatchSelection(MovieContract.SourceEntry.UNIQUE_COLUMNS);
+
+        // The only scope the media can be merged within is a source, optionally limited to the memberships within a rank range
+        String scope = null;
+        String rankStart = null;
+        String rankLimit = null;
+        for (String name : uri.getQueryParameterNames()) {
+            if (name.equals(MovieContract.PARAM_MERGE)) continue;
+            if (name.equals(MovieContract.PARAM_RANK_START)) {
+                rankStart = uri.getQueryParameter(name);
+                continue;
+            }
+            if (name.equals(MovieContract.PARAM_RANK_LIMIT)) {
+                rankLimit = uri.getQueryParameter(name);
+                continue;
+            }
+            if (!name.equals(source)) {
+                throw new UnsupportedOperationException("Unknown merge scope column " + name + " in uri: " + uri);
+            }
+            scope = uri.getQueryParameter(name);
+        }
+
+        HashSet<Long> matched = new HashSet<>();
+        HashSet<Long> members = new HashSet<>();
+        int changed = 0;
+
+        db.beginTransaction();
+        try {
+            for (ContentValues value : values) {
+                // The lists leave out the columns only the detail has, so their defaults mustn't replace the stored detail
+                ContentValues media = new ContentValues(value);
+                media.remove(source);
+                media.remove(rank);
+                changed += mergeRow(db, table, matchSelection, getMatchArgs(media, matchColumns), media, matched, true);
+
+                // Only the values of a source list have a source to be a member of
+                if (value.containsKey(source)) {
+                    ContentValues membership = new ContentValues(4);
+                    membership.put(MovieContract.SourceEntry.TYPE.COLUMN, type);
+                    membership.put(source, value.getAsString(source));
+                    membership.put(mediaId, value.getAsLong(mediaId));
+                    membership.put(rank, (value.containsKey(rank)) ? value.getAsInteger(rank) : 0);
+                    changed += mergeRow(db, MovieContract.SourceEntry.TABLE_NAME, membershipSelection,
+                            getMatchArgs(membership, MovieContract.SourceEntry.UNIQUE_COLUMNS), membership, members, false);
+                }
+            }
+
+            // Remove the memberships of the source that no longer exist in the synced data, the triggers remove the media
+            if (scope != null && rankStart != null && rankLimit != null) {
+                changed += removeUnmatched(db, MovieContract.SourceEntry.TABLE_NAME,
+                        MovieContract.SourceEntry.TYPE.COLUMN + " = ? and " + source + " = ? and " + rank + " >= ? and " + rank + " < ?",
+                        new String[]{type, scope, rankStart, rankLimit}, members);
+            } else if (scope != null) {
+                changed += removeUnmatched(db, MovieContract.SourceEntry.TABLE_NAME,
+                        MovieContract.SourceEntry.TYPE.COLUMN + " = ? and " + source + " = ?", new String[]{type, scope}, members);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        if (changed != 0) {
+            notifyChange(uri.buildUpon().clearQuery().build());
+        }
+        return changed;
+    }
+
+    // Build the selection used to find the row matching a value
+    private static String buildMatchSelection(MovieContract.DatabaseColumn[] matchColumns) {
+        String matchSelection = "";
+        for (MovieContract.DatabaseColumn column : matchColumns) {
+            matchSelection += (matchSelection.isEmpty() ? "" : " and ") + column.COLUMN + " = ?";
+        }
+        return matchSelection;
+    }
+
+    // Returns the values of the match columns, as the arguments of the match selection
+    private static String[] getMatchArgs(ContentValues value, MovieContract.DatabaseColumn[] matchColumns) {
+        String[] matchArgs = new String[matchColumns.length];
+        for (int i = 0; i < matchColumns.length; i++) {
+            matchArgs[i] = value.getAsString(matchColumns[i].COLUMN);
+        }
+        return matchArgs;
+    }
+
+    /**
+     * Merges a single value into the table, finding the existing row and either updating the changed columns or
+     * inserting the new row. The id of the row is added to the matched rows.
+     *
+     * @param keepStored Whether the columns of the value holding a default value leave the stored columns alone when
+     *                   updating, as the default only means the synced data left the column out
+     * @return Returns the number of rows that were inserted or updated
+     */
+    private static int mergeRow(SQLiteDatabase db, String table, String matchSelection, String[] matchArgs,
+                                ContentValues value, HashSet<Long> matched, boolean keepStored) {
+        Cursor existing = db.query(table, null, matchSelection, matchArgs, null, null, null, "1");
+        try {
+            if (existing.moveToFirst()) {
+                long _id = existing.getLong(existing.getColumnIndex(BaseColumns._ID));
+                matched.add(_id);
+                ContentValues changes = getChangedValues(existing, value, keepStored);
+                if (changes.size() > 0) {
+                    return db.update(table, changes, BaseColumns._ID + " = ?", new String[]{Long.toString(_id)});
+                }
+                return 0;
+            }
+            long _id = db.insert(table, null, value);
+            if (_id == -1) return 0;
+            matched.add(_id);
+            return 1;
+        } finally {
+            existing.close();
+        }
+    }
+
+    // Removes the rows within the scope that weren't matched, returning the number of rows removed
+    private static int removeUnmatched(SQLiteDatabase db, String table, String scopeSelection, String[] scopeArgs,
+                                       HashSet<Long> matched) {
+        int removed = 0;
+        Cursor scoped = db.query(table, new String[]{BaseColumns._ID}, scopeSelection, scopeArgs, null, null, null);
+        try {
+            while (scoped.moveToNext()) {
+                long _id = scoped.getLong(0);
+                if (!matched.contains(_id)) {
+                    removed += db.delete(table, BaseColumns._ID + " = ?", new String[]{Long.toString(_id)});
+                }
+            }
+        } finally {
+            scoped.close();
+        }
+        return removed;
+    }
+
+    // Returns the values that differ from the current row, numbers are compared by value rather than their text
+    private static ContentValues getChangedValues(Cursor row, ContentValues value, boolean keepStored) {
+        ContentValues changes = new ContentValues(value);
+        for (String column : value.keySet()) {
+            int index = row.getColumnIndex(column);
+            Object newValue = value.get(column);
+            boolean same;
+            if (index == -1) {
+                same = false;
+            } else if (keepStored && MovieContract.DatabaseColumn.isDefault(newValue)) {
+                same = true;
+            } else if (newValue == null) {
+                same = row.isNull(index);
+            } else if (newValue instanceof Number) {
+                same = !row.isNull(index) && row.getDouble(index) == ((Number) newValue).doubleValue();
+            } else {
+                same = newValue.toString().equals(row.getString(index));
+            }
+            if (same) changes.remove(column);
+        }
+        return changes;
+    }
+
+    // Checks whether the given column name is one of the columns
+    private static boolean hasColumn(MovieContract.DatabaseColumn[] columns, String name) {
+        for (MovieContract.DatabaseColumn column : columns) {
+            if (column.COLUMN.equals(name)) return true;
+        }
+        return false;
+    }
+
+    // The state of a batch being applied, the compiled update statements, the rows to merge, and the uris to notify once it is done
+    private static class Batch {
+        private final HashMap<String, SQLiteStatement> mStatements = new HashMap<>();
+        private final LinkedHashMap<Uri, ArrayList<ContentValues>> mMerges = new LinkedHashMap<>();
+        private final HashSet<Uri> mNotifyUris = new HashSet<>();
+    }
+}
@@ -6,11 +6,11 @@ package com.example.judge.popularmovies.frag;
 
 import android.content.ContentValues;
 import android.database.Cursor;
-import android.database.DatabaseUtils;
 import android.net.Uri;
 import android.os.Bundle;
 import android.support.design.widget.CollapsingToolbarLayout;
 import android.support.design.widget.FloatingActionButton;
+import android.support.design.widget.Snackbar;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.LoaderManager;
 import android.support.v4.content.ContextCompat;
@@ -19,6 +19,7 @@ import android.support.v4.content.Loader;
 import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
 import android.support.v7.widget.Toolbar;
+import android.text.TextUtils;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -27,11 +28,14 @@ import com.android.volley.toolbox.NetworkImageView;
 import com.example.judge.popularmovies.R;
 import com.example.judge.popularmovies.act.MainActivity;
 import com.example.judge.popularmovies.adap.DetailAdaptor;
+import com.example.judge.popularmovies.api.ImageSizeResolver;
 import com.example.judge.popularmovies.api.TmdbApiHandler;
 import com.example.judge.popularmovies.api.VolleySingleton;
 import com.example.judge.popularmovies.data.MovieContract;
+import com.example.judge.popularmovies.data.MovieContract.FavoriteEntry;
 import com.example.judge.popularmovies.data.MovieContract.MovieEntry;
 import com.example.judge.popularmovies.data.MovieContract.ReviewEntry;
+import com.example.judge.popularmovies.data.MovieContract.SyncStateEntry;
 import com.example.judge.popularmovies.data.MovieContract.TVEntry;
 import com.example.judge.popularmovies.data.MovieContract.TrailerEntry;
 
@@ -41,7 +45,8 @@ import butterknife.ButterKnife;
 
 /**
  * Fragment for the Detailed Movie information window, contains various movie information, including
- * movie poster, year of release, synopsis, average rating, and movie title.
+ * movie poster, year of release, synopsis, average rating, and movie title. The details are shown straight
+ * from the database, with a snackbar letting the user know if they couldn't be synced.
  */
 
 public class DetailFragment extends Fragment implements LoaderManager.LoaderCallbacks<Cursor>, View.OnClickListener {
@@ -68,13 +73,17 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
     public static final int COLUMN_NUMBER_OF_EPISODES = 15;
     public static final int COLUMN_AUTHOR = 0;
     public static final int COLUMN_REVIEW = 1;
+    public static final int COLUMN_REVIEW_ID = 2;
     public static final int COLUMN_NAME = 0;
     public static final int COLUMN_SITE = 1;
     public static final int COLUMN_KEY = 2;
+    public static final int COLUMN_TRAILER_ID = 3;
     // Loader ID's
     private static final int DETAIL_LOADER = 0;
     private static final int REVIEW_LOADER = 1;
     private static final int TRAILER_LOADER = 2;
+    private static final int FAVORITE_LOADER = 3;
+    private static final int SYNC_STATE_LOADER = 4;
     // Column data for cursors shared by both Movie and TV media types
     private static final String[] DETAIL_SHARED_COLUMNS = {
             MovieEntry.BACKDROP_PATH.COLUMN,
@@ -107,13 +116,15 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
     // Review cursor column information
     private static final String[] REVIEW_COLUMNS = {
             ReviewEntry.AUTHOR.COLUMN,
-            ReviewEntry.REVIEW.COLUMN
+            ReviewEntry.REVIEW.COLUMN,
+            ReviewEntry._ID
     };
     // Trailer cursor column information
     private static final String[] TRAILER_COLUMNS = {
             TrailerEntry.NAME.COLUMN,
             TrailerEntry.SITE.COLUMN,
-            TrailerEntry.KEY.COLUMN
+            TrailerEntry.KEY.COLUMN,
+            TrailerEntry._ID
     };
     private static final String LOG_TAG = DetailFragment.class.getSimpleName();
 
@@ -128,19 +139,22 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
     FloatingActionButton mFab;
     @Bind(R.id.detail_collapsing_toolbar)
     CollapsingToolbarLayout mCollapsing;
+    @Bind(R.id.detail_layout)
+    View mCoordinator;
     private DetailAdaptor mAdaptor;
 
     // Selection settings for the cursor initialization
     private Uri mDetailUri;
     private String[] mColumns;
-    private String mMediaSelection;
-    private Cursor mDetailCursor;
 
     // Detail on the media type and whether it is favorited
     private int mMediaId;
     private boolean mFavorited;
     private String mType;
 
+    // The staleness last shown, so the snackbar isn't shown again every time the sync state is reloaded
+    private String mStaleText;
+
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container,
                              Bundle savedInstanceState) {
@@ -172,12 +186,9 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
 
                 mDetailUri = MovieEntry.CONTENT_URI;
                 mColumns = MovieContract.DatabaseColumn.concat(DETAIL_SHARED_COLUMNS, DETAIL_MOVIE_COLUMNS);
-                mMediaSelection = MovieEntry.selectSource() + " and " + MovieEntry.selectId();
 
-                // Setup up the Syncing
-                TmdbApiHandler.sync(TmdbApiHandler.SYNC_MOVIE_DETAIL, Integer.toString(mMediaId), getActivity(), true);
-                TmdbApiHandler.sync(TmdbApiHandler.SYNC_MOVIE_REVIEW, Integer.toString(mMediaId), getActivity());
-                TmdbApiHandler.sync(TmdbApiHandler.SYNC_MOVIE_TRAILER, Integer.toString(mMediaId), getActivity());
+                // Setup up the Syncing, the detail, trailers and reviews all come back in a single request
+                TmdbApiHandler.sync(TmdbApiHandler.SYNC_MOVIE_FULL_DETAIL, Integer.toString(mMediaId), getActivity());
 
                 // Setup the Loaders
                 getLoaderManager().initLoader(DETAIL_LOADER, null, this);
@@ -189,11 +200,9 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
 
                 mDetailUri = TVEntry.CONTENT_URI;
                 mColumns = MovieContract.DatabaseColumn.concat(DETAIL_SHARED_COLUMNS, DETAIL_TV_COLUMNS);
-                mMediaSelection = TVEntry.selectSource() + " and " + TVEntry.selectId();
 
-                // Setup the Syncing
-                TmdbApiHandler.sync(TmdbApiHandler.SYNC_TV_DETAIL, Integer.toString(mMediaId), getActivity());
-                TmdbApiHandler.sync(TmdbApiHandler.SYNC_TV_TRAILER, Integer.toString(mMediaId), getActivity());
+                // Setup the Syncing, the detail and trailers come back in a single request
+                TmdbApiHandler.sync(TmdbApiHandler.SYNC_TV_FULL_DETAIL, Integer.toString(mMediaId), getActivity());
 
                 // Setup the Loaders
                 getLoaderManager().initLoader(DETAIL_LOADER, null, this);
@@ -202,16 +211,15 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
             }
         }
 
-        // Check whether this is a favorited movie, and if so set the fab drawable, and setup a click listener on the fab
-        if (isFavorite()) {
-            mFab.setImageDrawable(ContextCompat.getDrawable(getActivity(), R.drawable.ic_favorite_white_24dp));
-        }
+        // Load whether this is a favorited movie in order to set the fab drawable, and setup a click listener on the fab
+        getLoaderManager().initLoader(FAVORITE_LOADER, null, this);
+        getLoaderManager().initLoader(SYNC_STATE_LOADER, null, this);
         mFab.setOnClickListener(this);
 
         super.onActivityCreated(savedInstanceState);
     }
 
-    // Setup method for the 3 loaders
+    // Setup method for the loaders
     @Override
     public Loader<Cursor> onCreateLoader(int id, Bundle args) {
         switch (id) {
@@ -242,6 +250,24 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
                         new String[]{Integer.toString(mMediaId), mType},
                         null);
             }
+            case FAVORITE_LOADER: {
+                return new CursorLoader(
+                        getActivity(),
+                        FavoriteEntry.CONTENT_URI,
+                        new String[]{FavoriteEntry._ID},
+                        FavoriteEntry.selectMedia(),
+                        new String[]{mType, Integer.toString(mMediaId)},
+                        null);
+            }
+            case SYNC_STATE_LOADER: {
+                return new CursorLoader(
+                        getActivity(),
+                        SyncStateEntry.CONTENT_URI,
+                        SyncStateText.SYNC_STATE_COLUMNS,
+                        SyncStateEntry.selectSource(),
+                        new String[]{mType, Integer.toString(mMediaId)},
+                        null);
+            }
         }
         return null;
     }
@@ -255,13 +281,18 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
         switch (loader.getId()) {
             case DETAIL_LOADER: {
-                data.moveToFirst();
+                // The media is removed once it is in no source or the favorites, which leaves nothing to show
+                if (!data.moveToFirst()) {
+                    mAdaptor.swapMediaCursor(null);
+                    break;
+                }
                 if (data.getString(COLUMN_STATUS).equals("null")) {
-                    int syncType = (mType.equals(MovieContract.PATH_TV)) ? TmdbApiHandler.SYNC_TV_DETAIL : TmdbApiHandler.SYNC_MOVIE_DETAIL;
+                    int syncType = (mType.equals(MovieContract.PATH_TV)) ? TmdbApiHandler.SYNC_TV_FULL_DETAIL : TmdbApiHandler.SYNC_MOVIE_FULL_DETAIL;
                     TmdbApiHandler.sync(syncType, Integer.toString(mMediaId), getActivity(), true);
                 }
-                mDetailCursor = data;
-                mBackdrop.setImageUrl(getString(R.string.api_backdrop_base_path) + data.getString(COLUMN_BACKDROP_PATH),
+                // The backdrop fills the width of the detail pane, which may not have been laid out yet
+                int backdropWidth = (mBackdrop.getWidth() > 0) ? mBackdrop.getWidth() : getResources().getDisplayMetrics().widthPixels;
+                mBackdrop.setImageUrl(ImageSizeResolver.getBackdropBasePath(getActivity(), backdropWidth) + data.getString(COLUMN_BACKDROP_PATH),
                         VolleySingleton.getInstance(getActivity()).getImageLoader());
                 mToolbar.setTitle(data.getString(COLUMN_TITLE));
                 mAdaptor.swapMediaCursor(data);
@@ -275,6 +306,18 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
                 mAdaptor.swapTrailerCursor(data);
                 break;
             }
+            case FAVORITE_LOADER: {
+                setFavorited(data.getCount() > 0);
+                break;
+            }
+            case SYNC_STATE_LOADER: {
+                String staleText = SyncStateText.get(getActivity(), data);
+                if (staleText != null && !TextUtils.equals(staleText, mStaleText)) {
+                    Snackbar.make(mCoordinator, staleText, Snackbar.LENGTH_LONG).show();
+                }
+                mStaleText = staleText;
+                break;
+            }
         }
     }
 
@@ -305,35 +348,26 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
         super.onDestroyView();
     }
 
-    // Method to check the database if we have the current mediaid favorited
-    private boolean isFavorite() {
-        Cursor cursor = getActivity().getContentResolver().query(mDetailUri, new String[]{MovieEntry._ID},
-                mMediaSelection, new String[]{MovieEntry.SOURCE_FAVORITE, Integer.toString(mMediaId)}, null);
-        if (cursor.getCount() <= 0) {
-            cursor.close();
-            mFavorited = false;
-            return false;
-        }
-        cursor.close();
-        mFavorited = true;
-        return true;
+    // Method to set whether the current mediaid is favorited, changing the fab drawable to match
+    private void setFavorited(boolean favorited) {
+        mFavorited = favorited;
+        mFab.setImageDrawable(ContextCompat.getDrawable(getActivity(), (favorited) ?
+                R.drawable.ic_favorite_white_24dp : R.drawable.ic_favorite_border_white_24dp));
     }
 
-    // OnClick method for the fab in order to change the favorited status
+    // OnClick method for the fab in order to change the favorited status, only the media type and id are stored for a favorite
     @Override
     public void onClick(View v) {
         if (!mFavorited) {
-            mDetailCursor.moveToFirst();
             ContentValues values = new ContentValues();
-            DatabaseUtils.cursorRowToContentValues(mDetailCursor, values);
-            values.put(MovieEntry.SOURCE.COLUMN, MovieEntry.SOURCE_FAVORITE);
-            getActivity().getContentResolver().insert(mDetailUri, values);
-            mFab.setImageDrawable(ContextCompat.getDrawable(getActivity(), R.drawable.ic_favorite_white_24dp));
-            mFavorited = true;
+            values.put(FavoriteEntry.TYPE.COLUMN, mType);
+            values.put(FavoriteEntry.MEDIA_ID.COLUMN, mMediaId);
+            getActivity().getContentResolver().insert(FavoriteEntry.CONTENT_URI, values);
+            setFavorited(true);
         } else {
-            getActivity().getContentResolver().delete(mDetailUri, mMediaSelection, new String[]{MovieEntry.SOURCE_FAVORITE, Integer.toString(mMediaId)});
-            mFab.setImageDrawable(ContextCompat.getDrawable(getActivity(), R.drawable.ic_favorite_border_white_24dp));
-            mFavorited = false;
+            getActivity().getContentResolver().delete(FavoriteEntry.CONTENT_URI, FavoriteEntry.selectMedia(),
+                    new String[]{mType, Integer.toString(mMediaId)});
+            setFavorited(false);
         }
     }
 }
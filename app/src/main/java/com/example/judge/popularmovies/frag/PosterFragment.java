@@ -20,13 +20,19 @@ import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.TextView;
 
 import com.example.judge.popularmovies.R;
 import com.example.judge.popularmovies.act.MainActivity;
 import com.example.judge.popularmovies.adap.PosterAdaptor;
+import com.example.judge.popularmovies.adap.PosterPrefetcher;
 import com.example.judge.popularmovies.api.TmdbApiHandler;
+import com.example.judge.popularmovies.api.VolleySingleton;
 import com.example.judge.popularmovies.data.MovieContract;
+import com.example.judge.popularmovies.data.MovieContract.FavoriteEntry;
 import com.example.judge.popularmovies.data.MovieContract.MovieEntry;
+import com.example.judge.popularmovies.data.MovieContract.SourceEntry;
+import com.example.judge.popularmovies.data.MovieContract.SyncStateEntry;
 import com.example.judge.popularmovies.data.MovieContract.TVEntry;
 
 import butterknife.Bind;
@@ -35,18 +41,21 @@ import butterknife.ButterKnife;
 
 /**
  * Poster fragment of the Popular Movies app, provides a grid view of movie poster thumbnails that can
- * then be touched on in order to provide more detailed movie information in a separate view.
+ * then be touched on in order to provide more detailed movie information in a separate view. The posters
+ * are always shown straight from the database, with a banner over them if the source couldn't be synced.
  */
 
 public class PosterFragment extends Fragment implements
         LoaderManager.LoaderCallbacks<Cursor>,
-        SharedPreferences.OnSharedPreferenceChangeListener {
+        SharedPreferences.OnSharedPreferenceChangeListener,
+        TmdbApiHandler.OnSyncFinishedListener {
 
     public static final int COLUMN_MEDIA_ID = 0;
     public static final int COLUMN_TITLE = 1;
     public static final int COLUMN_POSTER_PATH = 2;
-    // Movie Loader
+    // Movie and sync state loaders
     private static final int POSTER_LOADER = 0;
+    private static final int SYNC_STATE_LOADER = 1;
     // Column information required for the loader
     private static final String[] POSTER_COLUMNS = {
             MovieEntry.MEDIA_ID.COLUMN,
@@ -55,6 +64,9 @@ public class PosterFragment extends Fragment implements
     };
     private static final String LOG_TAG = PosterFragment.class.getSimpleName();
 
+    // How many rows from the end of the grid the next page starts loading
+    private static final int PAGE_THRESHOLD_ROWS = 3;
+
     // Tags used for the arguments
     private static final String BUNDLE_SOURCE_TAG = "source";
     private static final String BUNDLE_TYPE_TAG = "type";
@@ -64,13 +76,26 @@ public class PosterFragment extends Fragment implements
     SwipeRefreshLayout mSwipeRefresh;
     @Bind(R.id.recyclerview_moviepost)
     RecyclerView mRecyclerView;
+    @Bind(R.id.main_stale_banner)
+    TextView mStaleBanner;
 
     // Variabled for storing the source and media type
     private String mSource, mType;
     private SharedPreferences mPref;
 
-    // Adaptor for the recyclerview
+    // Adaptor, layout manager and poster prefetcher for the recyclerview
     private PosterAdaptor mAdaptor;
+    private GridLayoutManager mLayoutManager;
+    private PosterPrefetcher mPrefetcher;
+
+    // Whether the next page of the source is currently being loaded, and the listener that is notified once it is
+    private boolean mLoadingPage;
+    private final TmdbApiHandler.OnSyncFinishedListener mPageListener = new TmdbApiHandler.OnSyncFinishedListener() {
+        @Override
+        public void onSyncFinished(@TmdbApiHandler.SyncType int syncType, String source, boolean success) {
+            mLoadingPage = false;
+        }
+    };
 
     // This is required by the ViewPager in order to create the instance with the correct information
     public static PosterFragment newInstance(String source, String type) {
@@ -106,26 +131,35 @@ public class PosterFragment extends Fragment implements
         return rootView;
     }
 
-    // Method to setup the swipe to refresh functionality, including syncing the right data
+    // Method to setup the swipe to refresh functionality, including syncing the right data straight away even if the sync
+    // is backing off, the refresh indicator stays until the sync finishes
     private void setupSwipeToRefresh() {
         mSwipeRefresh.setOnRefreshListener(new SwipeRefreshLayout.OnRefreshListener() {
             @Override
             public void onRefresh() {
                 switch (mType) {
                     case MovieContract.PATH_MOVIE: {
-                        TmdbApiHandler.sync(TmdbApiHandler.SYNC_MOVIE, mSource, getActivity(), true);
+                        TmdbApiHandler.refresh(TmdbApiHandler.SYNC_MOVIE, mSource, getActivity(), PosterFragment.this);
                         break;
                     }
                     case MovieContract.PATH_TV: {
-                        TmdbApiHandler.sync(TmdbApiHandler.SYNC_TV, mSource, getActivity(), true);
+                        TmdbApiHandler.refresh(TmdbApiHandler.SYNC_TV, mSource, getActivity(), PosterFragment.this);
                         break;
                     }
+                    default: {
+                        mSwipeRefresh.setRefreshing(false);
+                    }
                 }
-                mSwipeRefresh.setRefreshing(false);
             }
         });
     }
 
+    // Called on the UI thread once a refresh has finished syncing, the view may already be gone at this point
+    @Override
+    public void onSyncFinished(@TmdbApiHandler.SyncType int syncType, String source, boolean success) {
+        if (mSwipeRefresh != null) mSwipeRefresh.setRefreshing(false);
+    }
+
     // Method to setup the recycler, including reading the column preferences and using them when creating the Grid layout
     private void setupRecycler() {
 
@@ -139,11 +173,36 @@ public class PosterFragment extends Fragment implements
                     getString(R.string.pref_column_landscape_default)));
         }
 
-        GridLayoutManager mLayoutManager = new GridLayoutManager(getActivity(), numColumns);
-        mAdaptor = new PosterAdaptor((MainActivity) getActivity());
+        // The posters are sized from the width of the screen until the grid has been laid out and the width is known
+        mLayoutManager = new GridLayoutManager(getActivity(), numColumns);
+        mAdaptor = new PosterAdaptor((MainActivity) getActivity(), getResources().getDisplayMetrics().widthPixels / numColumns);
         mRecyclerView.setAdapter(mAdaptor);
         mRecyclerView.setLayoutManager(mLayoutManager);
+        mRecyclerView.addOnLayoutChangeListener(new View.OnLayoutChangeListener() {
+            @Override
+            public void onLayoutChange(View v, int left, int top, int right, int bottom,
+                                       int oldLeft, int oldTop, int oldRight, int oldBottom) {
+                if (right - left == oldRight - oldLeft) return;
+                int width = right - left - v.getPaddingLeft() - v.getPaddingRight();
+                mAdaptor.setPosterWidth(width / mLayoutManager.getSpanCount());
+            }
+        });
+
+        // Load the next page of the source when we scroll near the end of the grid
+        mRecyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                if (dy <= 0 || mLoadingPage) return;
+                int threshold = mAdaptor.getItemCount() - mLayoutManager.getSpanCount() * PAGE_THRESHOLD_ROWS;
+                if (mLayoutManager.findLastVisibleItemPosition() >= threshold) {
+                    loadNextPage();
+                }
+            }
+        });
 
+        // Warm the image cache with the posters of the rows we are scrolling towards
+        mPrefetcher = new PosterPrefetcher(mAdaptor, mLayoutManager, VolleySingleton.getInstance(getActivity()).getImageLoader());
+        mRecyclerView.addOnScrollListener(mPrefetcher);
     }
 
 
@@ -152,6 +211,7 @@ public class PosterFragment extends Fragment implements
     public void onActivityCreated(@Nullable Bundle savedInstanceState) {
 
         getLoaderManager().initLoader(POSTER_LOADER, null, this);
+        getLoaderManager().initLoader(SYNC_STATE_LOADER, null, this);
 
         super.onActivityCreated(savedInstanceState);
     }
@@ -168,7 +228,8 @@ public class PosterFragment extends Fragment implements
     /**
      * This function starts the handler to load the movie data from TheMovieDB using volley, we do have it
      * start every single time the fragment starts, but there is functionality in the syncer to do timestamps
-     * on last sync, and only sync if the configured period of time has elapsed.
+     * on last sync, and only sync if the configured period of time has elapsed, or if it is failing, once
+     * its backoff is over.
      */
 
     private void loadMovieData() {
@@ -179,21 +240,39 @@ public class PosterFragment extends Fragment implements
         }
     }
 
-    // Create the loaders, we need different ones depending on if we are using a Movie or TV media source
+    // Starts loading the next page of the source, the syncer knows whether there are any pages left to load
+    private void loadNextPage() {
+        if (mType.equals(MovieContract.PATH_MOVIE)) {
+            mLoadingPage = TmdbApiHandler.syncNextPage(TmdbApiHandler.SYNC_MOVIE, mSource, getActivity(), mPageListener);
+        } else if (mType.equals(MovieContract.PATH_TV)) {
+            mLoadingPage = TmdbApiHandler.syncNextPage(TmdbApiHandler.SYNC_TV, mSource, getActivity(), mPageListener);
+        }
+    }
+
+    // Create the loaders, we need different ones depending on if we are using a Movie or TV media source, or the favorites of either
     @Override
     public Loader<Cursor> onCreateLoader(int id, Bundle args) {
+        if (id == SYNC_STATE_LOADER) {
+            return new CursorLoader(getActivity(), SyncStateEntry.CONTENT_URI, SyncStateText.SYNC_STATE_COLUMNS,
+                    SyncStateEntry.selectSource(), new String[]{mType, mSource}, null);
+        }
+        if (mSource.equals(MovieEntry.SOURCE_FAVORITE)) {
+            return new CursorLoader(getActivity(), FavoriteEntry.buildTypeUri(mType),
+                    POSTER_COLUMNS, null, null, MovieEntry.TITLE.COLUMN + " asc");
+        }
+        // The source lists are read through the source view of the media type, in the order TheMovieDB ranked them
         switch (mType) {
             case MovieContract.PATH_MOVIE: {
-                return new CursorLoader(getActivity(), MovieEntry.CONTENT_URI,
-                        POSTER_COLUMNS, MovieEntry.selectSource(), new String[]{mSource}, null);
+                return new CursorLoader(getActivity(), SourceEntry.buildTypeUri(MovieContract.PATH_MOVIE),
+                        POSTER_COLUMNS, MovieEntry.selectSource(), new String[]{mSource}, SourceEntry.sortRank());
             }
             case MovieContract.PATH_TV: {
-                return new CursorLoader(getActivity(), TVEntry.CONTENT_URI,
-                        POSTER_COLUMNS, TVEntry.selectSource(), new String[]{mSource}, null);
+                return new CursorLoader(getActivity(), SourceEntry.buildTypeUri(MovieContract.PATH_TV),
+                        POSTER_COLUMNS, TVEntry.selectSource(), new String[]{mSource}, SourceEntry.sortRank());
             }
             default: {
-                return new CursorLoader(getActivity(), MovieEntry.CONTENT_URI,
-                        POSTER_COLUMNS, MovieEntry.selectSource(), new String[]{mSource}, null);
+                return new CursorLoader(getActivity(), SourceEntry.buildTypeUri(MovieContract.PATH_MOVIE),
+                        POSTER_COLUMNS, MovieEntry.selectSource(), new String[]{mSource}, SourceEntry.sortRank());
             }
         }
     }
@@ -201,6 +280,7 @@ public class PosterFragment extends Fragment implements
     // ButterKnife recommends to do this in fragments
     @Override
     public void onDestroyView() {
+        mPrefetcher.cancelAll();
         ButterKnife.unbind(this);
         super.onDestroyView();
     }
@@ -212,17 +292,34 @@ public class PosterFragment extends Fragment implements
         super.onStop();
     }
 
-    // Swap cursor data into the recycler after load
+    // Swap cursor data into the recycler after load, or show whether the posters are stale
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
+        if (loader.getId() == SYNC_STATE_LOADER) {
+            setStaleText(SyncStateText.get(getActivity(), data));
+            return;
+        }
+        mPrefetcher.cancelAll();
         mAdaptor.swapCursor(data, mType);
     }
 
     @Override
     public void onLoaderReset(Loader<Cursor> loader) {
+        if (loader.getId() == SYNC_STATE_LOADER) {
+            setStaleText(null);
+            return;
+        }
+        mPrefetcher.cancelAll();
         mAdaptor.swapCursor(null, null);
     }
 
+    // Shows the banner with the text, or hides it if there is no text
+    private void setStaleText(String text) {
+        if (mStaleBanner == null) return;
+        mStaleBanner.setText(text);
+        mStaleBanner.setVisibility((text != null) ? View.VISIBLE : View.GONE);
+    }
+
     // Listen for preference changes so we can correctly set the source after it being changed in the nav pane.
     @Override
     public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
@@ -234,6 +331,7 @@ public class PosterFragment extends Fragment implements
                 mType = newType;
                 loadMovieData();
                 getLoaderManager().restartLoader(POSTER_LOADER, null, this);
+                getLoaderManager().restartLoader(SYNC_STATE_LOADER, null, this);
             }
         }
     }
@@ -11,11 +11,12 @@ import android.preference.PreferenceFragment;
 import android.preference.PreferenceManager;
 
 import com.example.judge.popularmovies.R;
+import com.example.judge.popularmovies.api.SyncJobService;
 
 
 /**
  * Fragment that contains the settings menu, which contains the setting in order to change the sort
- * method for the movies that are returned from theMovieDB.
+ * method for the movies that are returned from theMovieDB, along with the link to the sync metrics debug screen.
  */
 
 public class SettingsFragment extends PreferenceFragment implements Preference.OnPreferenceChangeListener {
@@ -29,6 +30,25 @@ public class SettingsFragment extends PreferenceFragment implements Preference.O
         bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_column_landscape_key)));
         bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_column_portrait_key)));
         bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_update_interval_key)));
+
+        // The sync metrics are shown in place of the settings, going back returns to them
+        findPreference(getString(R.string.pref_sync_metrics_key)).setOnPreferenceClickListener(new Preference.OnPreferenceClickListener() {
+            @Override
+            public boolean onPreferenceClick(Preference preference) {
+                getFragmentManager().beginTransaction()
+                        .replace(R.id.settings_container, new SyncMetricsFragment())
+                        .addToBackStack(null)
+                        .commit();
+                return true;
+            }
+        });
+    }
+
+    // Reschedule the background sync when leaving the settings, in case the update interval was changed
+    @Override
+    public void onStop() {
+        SyncJobService.schedule(getActivity());
+        super.onStop();
     }
 
     /**
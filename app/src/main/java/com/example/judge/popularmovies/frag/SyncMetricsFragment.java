@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2015 Joshua Gwinn (jdgbolt@gmail.com)
+ */
+
+package com.example.judge.popularmovies.frag;
+
+import android.app.Fragment;
+import android.content.Intent;
+import android.os.Bundle;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import com.example.judge.popularmovies.R;
+import com.example.judge.popularmovies.api.FrameMonitor;
+import com.example.judge.popularmovies.api.SyncMetrics;
+import com.example.judge.popularmovies.api.TmdbApiHandler;
+import com.example.judge.popularmovies.api.VolleySingleton;
+
+import butterknife.Bind;
+import butterknife.ButterKnife;
+import butterknife.OnClick;
+
+/**
+ * Debug screen of the settings, which shows the dump of the sync metrics along with the counts of the syncs and the
+ * stats of the caches, followed by the frame metrics if they have been recorded. The dump can be shared as plain
+ * text, so the metrics of different devices can be collected and compared, and reset so the metrics of the next
+ * syncs and frames can be looked at on their own.
+ */
+
+public class SyncMetricsFragment extends Fragment {
+
+    // Global views populated by ButterKnife
+    @Bind(R.id.sync_metrics_text)
+    TextView mMetricsText;
+
+    @Override
+    public View onCreateView(LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
+        View rootView = inflater.inflate(R.layout.fragment_sync_metrics, container, false);
+        ButterKnife.bind(this, rootView);
+        return rootView;
+    }
+
+    // Show the latest metrics every time the screen comes back
+    @Override
+    public void onResume() {
+        super.onResume();
+        mMetricsText.setText(getDump());
+    }
+
+    // ButterKnife recommends to do this in fragments
+    @Override
+    public void onDestroyView() {
+        ButterKnife.unbind(this);
+        super.onDestroyView();
+    }
+
+    // The dump of the sync metrics, followed by the counts of the syncs, the stats of each of the caches and the frame metrics
+    private String getDump() {
+        return SyncMetrics.dump() + "\nsync requests: " + TmdbApiHandler.getSyncStats() + "\n"
+                + VolleySingleton.getInstance(getActivity()).getCacheStats() + "\n\n" + FrameMonitor.dump();
+    }
+
+    // Sends the dump to any apps that take plain text
+    @OnClick(R.id.sync_metrics_share)
+    void share() {
+        Intent intent = new Intent(Intent.ACTION_SEND);
+        intent.putExtra(Intent.EXTRA_SUBJECT, getString(R.string.sync_metrics_title));
+        intent.putExtra(Intent.EXTRA_TEXT, getDump());
+        intent.setType("text/plain");
+
+        // Check to ensure that an application actually can use the intent
+        if (intent.resolveActivity(getActivity().getPackageManager()) != null) {
+            startActivity(Intent.createChooser(intent, getString(R.string.sync_metrics_share)));
+        }
+    }
+
+    @OnClick(R.id.sync_metrics_reset)
+    void reset() {
+        SyncMetrics.reset();
+        FrameMonitor.reset();
+        mMetricsText.setText(getDump());
+    }
+}
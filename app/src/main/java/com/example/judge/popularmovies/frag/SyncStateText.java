@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2015 Joshua Gwinn (jdgbolt@gmail.com)
+ */
+
+package com.example.judge.popularmovies.frag;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.text.format.DateUtils;
+
+import com.example.judge.popularmovies.R;
+import com.example.judge.popularmovies.data.MovieContract.SyncStateEntry;
+
+/**
+ * Turns the sync state of a source into the text shown to let the user know the data on screen is stale, which
+ * is only the case when the last attempt to sync the source failed. Both the poster and detail fragments load
+ * the sync state with these columns.
+ */
+
+class SyncStateText {
+
+    static final String[] SYNC_STATE_COLUMNS = {
+            SyncStateEntry.LAST_SUCCESS.COLUMN,
+            SyncStateEntry.ERROR.COLUMN
+    };
+    private static final int COLUMN_LAST_SUCCESS = 0;
+    private static final int COLUMN_ERROR = 1;
+
+    /**
+     * Returns the text describing how stale the data is, from a cursor of the sync state columns
+     *
+     * @param context The context for the application
+     * @param data    The cursor of the sync state, can be empty if the source has never been synced
+     * @return Returns the text, or null if the last sync worked and the data is as fresh as it can be
+     */
+    static String get(Context context, Cursor data) {
+        if (data == null || !data.moveToFirst() || data.isNull(COLUMN_ERROR)) return null;
+
+        long lastSuccess = data.getLong(COLUMN_LAST_SUCCESS);
+        if (lastSuccess == 0) return context.getString(R.string.sync_stale_never);
+        return context.getString(R.string.sync_stale, DateUtils.getRelativeTimeSpanString(lastSuccess,
+                System.currentTimeMillis(), DateUtils.MINUTE_IN_MILLIS));
+    }
+}